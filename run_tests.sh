@@ -4,5 +4,53 @@ export TAPIS_EXEC_SYSTEM_ID=
 export TAPIS_URL_BASE=
 export TAPIS_USERNAME=
 export TAPIS_PASSWORD=
+export TAPIS_MOCK=false
+export TAPIS_JOB_CONCURRENCY=1
+export TAPIS_JOB_COPIES=1
+export TAPIS_BENCHMARK_LEVELS=
+export TAPIS_SWEEP_AXES=
+export TAPIS_SWEEP_SAMPLES=0
+export TAPIS_SWEEP_REPEATS=1
+export TAPIS_SWEEP_CONCURRENCY=4
+export TAPIS_MPI_WORKERS=
+export TAPIS_MPI_SLOTS=1
+export TAPIS_MPI_REPEATS=3
+export TAPIS_SOAK_MINUTES=0
+export TAPIS_SOAK_JOBS_PER_MINUTE=6
+export TAPIS_SOAK_WINDOW_SECONDS=60
+export TAPIS_SOAK_WARMUP_WINDOWS=1
+export TAPIS_SOAK_DRIFT_THRESHOLD=0.1
+export TAPIS_SOAK_CONCURRENCY=16
+export TAPIS_SOAK_FORCE_GC=false
+export TAPIS_SOAK_REPORT=soak_report
+export TAPIS_POLLING_POLICY=fixed
+export TAPIS_STATUS_WATCHER_THREADS=0
+export TAPIS_STATUS_BATCH_SIZE=0
+export TAPIS_STATUS_EVENTS=false
+export TAPIS_STATUS_EVENT_PORT=0
+export TAPIS_STATUS_EVENT_ADDRESS=
+export TAPIS_STATUS_EVENT_POLL_SECONDS=60
+export TAPIS_TOKEN_CACHE=
+export TAPIS_TOKEN_REFRESH_MARGIN=300
+export TAPIS_DOWNLOAD_CONCURRENCY=4
+export TAPIS_DOWNLOAD_ATTEMPTS=3
+export TAPIS_CANCEL_ATTEMPTS=3
+export TAPIS_PIPELINE_THREADS=8
+export TAPIS_OUTPUT_MODE=save
+export TAPIS_ARTIFACTS=log
+export TAPIS_ARTIFACT_LOG=tapis_artifacts
+export TAPIS_ARTIFACT_SEGMENT_MB=64
+export TAPIS_HTTP_RECORDING=
+export TAPIS_HTTP_RECORDING_MAX_BODY_MB=16
+export TAPIS_HTTP_REPLAY=
+export TAPIS_HTTP_REPLAY_TIME_SCALE=1
+export TAPIS_JOB_HISTORY=true
+export TAPIS_TIMELINE_REPORT=job_timelines
+export TAPIS_METRICS_REPORT=tapis_metrics
+export TAPIS_JFR_RECORDING=
+export TAPIS_RATE_LIMITS=
+export TAPIS_REQUEST_ATTEMPTS=4
+export TAPIS_RETRY_BASE_DELAY=500
+export TAPIS_RETRY_MAX_DELAY=30000
 
 mvn clean verify
@@ -0,0 +1,91 @@
+package edu.utexas.tacc.tapis.kubernetes;
+
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+
+/**
+ * Polls quickly at first and while a job is close to finishing, and backs off while it
+ * sits in the pre-execution states. The delay grows geometrically with the number of
+ * consecutive polls returning the same status, resets when the status changes, is
+ * capped, and is spread by random jitter so that many jobs do not poll in lockstep.
+ */
+class AdaptivePollingPolicy implements PollingPolicy
+{
+    // constants
+
+
+    private static final Set<String> WAITING_STATES = Set.of("PENDING", "PROCESSING_INPUTS", "STAGING_INPUTS", "STAGING_JOB",
+                                                             "SUBMITTING_JOB", "QUEUED", "BLOCKED", "PAUSED");
+
+
+    // data fields
+
+
+    private final long _initialMillis;
+    private final long _waitingMillis;
+    private final long _activeMillis;
+    private final double _backoff;
+    private final long _waitingCapMillis;
+    private final long _activeCapMillis;
+    private final double _jitter;
+
+
+    // constructors
+
+
+    /**
+     *
+     * @param initialMillis delay before the first poll
+     * @param waitingMillis base delay while the job has not started running
+     * @param activeMillis base delay while the job is running or archiving
+     * @param backoff growth factor per consecutive poll with an unchanged status
+     * @param waitingCapMillis
+     * @param activeCapMillis
+     * @param jitter fraction of the delay to randomly add or remove, e.g. 0.2
+     */
+    public AdaptivePollingPolicy(long initialMillis, long waitingMillis, long activeMillis, double backoff, long waitingCapMillis, long activeCapMillis, double jitter)
+    {
+        _initialMillis = initialMillis;
+        _waitingMillis = waitingMillis;
+        _activeMillis = activeMillis;
+        _backoff = backoff;
+        _waitingCapMillis = waitingCapMillis;
+        _activeCapMillis = activeCapMillis;
+        _jitter = jitter;
+    }
+
+
+    // public methods
+
+
+    /**
+     *
+     * @return
+     */
+    public static AdaptivePollingPolicy createDefault()
+    {
+        return new AdaptivePollingPolicy(1000, 2000, 1000, 1.5, 15000, 4000, 0.2);
+    }
+
+    @Override
+    public long getDelayMillis(String status, int samePolls)
+    {
+        long delay;
+
+        if (status == null)
+            delay = _initialMillis;
+        else {
+            boolean waiting = WAITING_STATES.contains(status);
+            long base = waiting ? _waitingMillis : _activeMillis;
+            long cap = waiting ? _waitingCapMillis : _activeCapMillis;
+
+            delay = (long) Math.min(cap, base * Math.pow(_backoff, Math.max(samePolls - 1, 0)));
+        }
+
+        if (_jitter > 0.0)
+            delay += (long) (delay * _jitter * (2.0 * ThreadLocalRandom.current().nextDouble() - 1.0));
+
+        return Math.max(delay, 0);
+    }
+}
@@ -0,0 +1,328 @@
+package edu.utexas.tacc.tapis.kubernetes;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+
+/**
+ * Appends artifacts to gzip-compressed NDJSON segments, <basename>-00001.ndjson.gz and
+ * so on, one {"time", "key", "type", "content"} record per line. Callers only queue the
+ * record; a background thread parses the content, so that a JSON response is stored as
+ * JSON rather than as a string, and writes whatever has queued up as one batch, flushing
+ * the compressor after each batch so that the log can be read while a run is still
+ * going. A segment is closed once it holds the segment size of uncompressed records, and
+ * a new run starts a new segment after the last one found rather than overwriting it.
+ */
+class ArtifactLog implements ArtifactSink
+{
+    // nested classes
+
+
+    /**
+     *
+     */
+    private static class Record
+    {
+        private final Instant _time;
+        private final String _key;
+        private final String _type;
+        private final String _content;
+
+
+        /**
+         *
+         * @param key
+         * @param type
+         * @param content
+         */
+        private Record(String key, String type, String content)
+        {
+            _time = Instant.now();
+            _key = key;
+            _type = type;
+            _content = content;
+        }
+    }
+
+
+    // constants
+
+
+    public static final String SUFFIX = ".ndjson.gz";
+
+    private static final int QUEUE_CAPACITY = 65536;
+    private static final int MAX_BATCH = 1024;
+    private static final Record END = new Record(null, null, null);
+    private static final ObjectReader CONTENT_READER = JsonFieldExtractor.READER.with(DeserializationFeature.FAIL_ON_TRAILING_TOKENS);
+
+
+    // data fields
+
+
+    private final Path _directory;
+    private final String _basename;
+    private final long _segmentBytes;
+    private final BlockingQueue<Record> _queue;
+    private final Thread _writer;
+    private final AtomicLong _recordCount;
+    private int _segment;
+    private OutputStream _outStream;
+    private long _writtenBytes;
+    private volatile IOException _error;
+    private volatile boolean _closed;
+
+
+    // constructors
+
+
+    /**
+     *
+     * @param directory
+     * @param basename
+     * @param segmentBytes uncompressed bytes after which a new segment is started
+     * @throws IOException
+     */
+    public ArtifactLog(Path directory, String basename, long segmentBytes) throws IOException
+    {
+        List<Path> segments = getSegments(directory, basename);
+
+        _directory = directory;
+        _basename = basename;
+        _segmentBytes = segmentBytes;
+        _queue = new LinkedBlockingQueue<Record>(QUEUE_CAPACITY);
+        _recordCount = new AtomicLong();
+        _segment = segments.isEmpty() ? 0 : getSegmentNumber(basename, segments.get(segments.size() - 1));
+        _writer = new Thread(this::run, "artifact-log");
+
+        openSegment();
+
+        _writer.setDaemon(true);
+        _writer.start();
+    }
+
+
+    // public methods
+
+
+    /**
+     * Queues the artifact, waiting only if the writer has fallen a full queue behind.
+     */
+    @Override
+    public String write(String key, String type, String content) throws IOException
+    {
+        if (_closed)
+            throw new IOException("artifact log " + _basename + " is closed");
+
+        if (_error != null)
+            throw new IOException("artifact log " + _basename + " has failed", _error);
+
+        try {
+            _queue.put(new Record(key, type, content));
+        }
+        catch (InterruptedException err) {
+            Thread.currentThread().interrupt();
+
+            throw new InterruptedIOException("interrupted queueing artifact " + key + " " + type);
+        }
+
+        return _basename + "-*" + SUFFIX;
+    }
+
+    /**
+     *
+     * @return the number of records written so far
+     */
+    public long getRecordCount()
+    {
+        return _recordCount.get();
+    }
+
+    /**
+     * Waits for the queued records to be written and closes the last segment.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if (_closed)
+            return;
+
+        _closed = true;
+
+        try {
+            _queue.put(END);
+            _writer.join();
+        }
+        catch (InterruptedException err) {
+            Thread.currentThread().interrupt();
+
+            throw new InterruptedIOException("interrupted closing artifact log " + _basename);
+        }
+
+        if (_error != null)
+            throw _error;
+    }
+
+    /**
+     * Lists a log's segments in the order they were written.
+     *
+     * @param directory
+     * @param basename
+     * @return
+     * @throws IOException
+     */
+    public static List<Path> getSegments(Path directory, String basename) throws IOException
+    {
+        List<Path> segments = new ArrayList<Path>();
+
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, basename + "-*" + SUFFIX)) {
+            for (Path entry : entries) {
+                if (getSegmentNumber(basename, entry) > 0)
+                    segments.add(entry);
+            }
+        }
+
+        segments.sort((first, second) -> Integer.compare(getSegmentNumber(basename, first), getSegmentNumber(basename, second)));
+
+        return segments;
+    }
+
+
+    // private methods
+
+
+    /**
+     *
+     */
+    private void run()
+    {
+        List<Record> batch = new ArrayList<Record>(MAX_BATCH);
+        boolean done = false;
+
+        try {
+            while (!done) {
+                batch.add(_queue.take());
+
+                _queue.drainTo(batch, MAX_BATCH - 1);
+
+                for (Record record : batch) {
+                    if (record == END)
+                        done = true;
+                    else
+                        append(record);
+                }
+
+                batch.clear();
+
+                _outStream.flush();
+            }
+        }
+        catch (IOException err) {
+            _error = err;
+        }
+        catch (InterruptedException err) {
+            _error = new InterruptedIOException("artifact log writer interrupted");
+        }
+        finally {
+            try {
+                _outStream.close();
+            }
+            catch (IOException err) {
+                if (_error == null)
+                    _error = err;
+            }
+
+            // a failed writer no longer takes records, so release anyone waiting to put one
+
+            _queue.clear();
+        }
+    }
+
+    /**
+     *
+     * @param record
+     * @throws IOException
+     */
+    private void append(Record record) throws IOException
+    {
+        ObjectNode line = JsonFieldExtractor.MAPPER.createObjectNode();
+
+        line.put("time", record._time.toString());
+        line.put("key", record._key);
+        line.put("type", record._type);
+
+        JsonNode content;
+
+        try {
+            content = CONTENT_READER.readTree(record._content);
+        }
+        catch (IOException err) {
+            content = null;
+        }
+
+        if (content != null && !content.isMissingNode())
+            line.set("content", content);
+        else
+            line.put("content", record._content);
+
+        byte[] bytes = JsonFieldExtractor.MAPPER.writeValueAsBytes(line);
+
+        if (_writtenBytes > 0 && _writtenBytes + bytes.length + 1 > _segmentBytes) {
+            _outStream.close();
+
+            openSegment();
+        }
+
+        _outStream.write(bytes);
+        _outStream.write('\n');
+
+        _writtenBytes += bytes.length + 1;
+
+        _recordCount.incrementAndGet();
+    }
+
+    /**
+     *
+     * @throws IOException
+     */
+    private void openSegment() throws IOException
+    {
+        _segment += 1;
+
+        Path path = _directory.resolve(String.format("%s-%05d%s", _basename, _segment, SUFFIX));
+
+        _outStream = new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 65536), 65536, true);
+        _writtenBytes = 0;
+    }
+
+    /**
+     *
+     * @param basename
+     * @param path
+     * @return the segment's number, or 0 if the name is not that of a segment
+     */
+    private static int getSegmentNumber(String basename, Path path)
+    {
+        Matcher matcher = Pattern.compile(Pattern.quote(basename) + "-(\\d+)" + Pattern.quote(SUFFIX)).matcher(path.getFileName().toString());
+
+        return matcher.matches() ? Integer.parseInt(matcher.group(1)) : 0;
+    }
+}
@@ -0,0 +1,159 @@
+package edu.utexas.tacc.tapis.kubernetes;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+
+/**
+ * Pulls records back out of an artifact log. Run with the artifacts Maven profile:
+ *
+ *   mvn -q -Partifacts test -Dartifacts.key=<job uuid> [-Dartifacts.type=submit]
+ *
+ * prints the content of each record for the key, optionally of one type only; without
+ * a key it lists the keys in the log with their record types and counts. The segment
+ * being written by a run that is still going, or that was killed, is read up to its
+ * last complete record.
+ */
+final class ArtifactLogReader
+{
+    // constructors
+
+
+    /**
+     *
+     */
+    private ArtifactLogReader()
+    {
+    }
+
+
+    // public methods
+
+
+    /**
+     *
+     * @param args log basename, then optionally a key and a type
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length < 1) {
+            System.err.println("usage: ArtifactLogReader <log basename> [key [type]]");
+
+            System.exit(2);
+        }
+
+        Path basename = Paths.get(args[0]).toAbsolutePath();
+        Path directory = basename.getParent();
+        String name = basename.getFileName().toString();
+        String key = args.length > 1 && !args[1].isEmpty() ? args[1] : null;
+        String type = args.length > 2 && !args[2].isEmpty() ? args[2] : null;
+
+        if (key == null) {
+            for (Map.Entry<String, Map<String, Integer>> entry : listKeys(directory, name).entrySet())
+                System.out.println(entry.getKey() + " " + entry.getValue());
+
+            return;
+        }
+
+        List<JsonNode> records = read(directory, name, key, type);
+
+        for (JsonNode record : records) {
+            System.out.println("--- " + record.at("/time").asText() + " " + record.at("/key").asText() + " " + record.at("/type").asText());
+            System.out.println(JsonFieldExtractor.MAPPER.writerWithDefaultPrettyPrinter().writeValueAsString(record.get("content")));
+        }
+
+        if (records.isEmpty())
+            System.err.println("no records for " + key + (type != null ? " of type " + type : "") + " in " + args[0]);
+    }
+
+    /**
+     *
+     * @param directory
+     * @param basename
+     * @param key null for records of every key
+     * @param type null for records of every type
+     * @return the matching records, in the order they were written
+     * @throws IOException
+     */
+    public static List<JsonNode> read(Path directory, String basename, String key, String type) throws IOException
+    {
+        List<JsonNode> records = new ArrayList<JsonNode>();
+
+        for (Path segment : ArtifactLog.getSegments(directory, basename)) {
+            for (JsonNode record : readSegment(segment)) {
+                if ((key == null || record.at("/key").asText().equals(key)) && (type == null || record.at("/type").asText().equals(type)))
+                    records.add(record);
+            }
+        }
+
+        return records;
+    }
+
+    /**
+     *
+     * @param directory
+     * @param basename
+     * @return record counts by type for each key
+     * @throws IOException
+     */
+    public static Map<String, Map<String, Integer>> listKeys(Path directory, String basename) throws IOException
+    {
+        Map<String, Map<String, Integer>> keys = new TreeMap<String, Map<String, Integer>>();
+
+        for (Path segment : ArtifactLog.getSegments(directory, basename)) {
+            for (JsonNode record : readSegment(segment))
+                keys.computeIfAbsent(record.at("/key").asText(), ignored -> new TreeMap<String, Integer>()).merge(record.at("/type").asText(), 1, Integer::sum);
+        }
+
+        return keys;
+    }
+
+
+    // private methods
+
+
+    /**
+     *
+     * @param segment
+     * @return
+     * @throws IOException
+     */
+    private static List<JsonNode> readSegment(Path segment) throws IOException
+    {
+        List<JsonNode> records = new ArrayList<JsonNode>();
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(Files.newInputStream(segment)), StandardCharsets.UTF_8))) {
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                try {
+                    records.add(JsonFieldExtractor.READER.readTree(line));
+                }
+                catch (IOException err) {
+                    // a record cut short where the segment ends
+
+                    break;
+                }
+            }
+        }
+        catch (EOFException err) {
+            // an unfinished segment, read as far as it was flushed
+        }
+
+        return records;
+    }
+}
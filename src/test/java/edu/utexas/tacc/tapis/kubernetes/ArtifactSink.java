@@ -0,0 +1,30 @@
+package edu.utexas.tacc.tapis.kubernetes;
+
+import java.io.IOException;
+
+
+/**
+ * Keeps the responses and configurations the tests save for later inspection, such as a
+ * job's submit response or an app's stored configuration. Each artifact is identified
+ * by a key, usually a job UUID or an app id, and the call it came from.
+ */
+interface ArtifactSink extends AutoCloseable
+{
+    /**
+     *
+     * @param key
+     * @param type the call the content came from, e.g. "submit" or "status"
+     * @param content
+     * @return where the artifact went, for the log
+     * @throws IOException
+     */
+    String write(String key, String type, String content) throws IOException;
+
+    /**
+     * Writes out anything still pending.
+     *
+     * @throws IOException if an artifact could not be written
+     */
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,100 @@
+package edu.utexas.tacc.tapis.kubernetes;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+
+/**
+ * A counting semaphore for asynchronous tasks. A task that finds no permit free is
+ * queued rather than blocking a thread, and is started on the executor when one of the
+ * running tasks completes.
+ */
+class AsyncSemaphore
+{
+    // data fields
+
+
+    private final Executor _executor;
+    private final Queue<CompletableFuture<Void>> _waiters;
+    private int _available;
+
+
+    // constructors
+
+
+    /**
+     *
+     * @param permits
+     * @param executor runs the tasks that had to wait for a permit
+     */
+    public AsyncSemaphore(int permits, Executor executor)
+    {
+        if (permits < 1)
+            throw new IllegalArgumentException("permits must be at least 1, was " + permits);
+
+        _executor = executor;
+        _waiters = new ArrayDeque<CompletableFuture<Void>>();
+        _available = permits;
+    }
+
+
+    // public methods
+
+
+    /**
+     * Starts the task once a permit is free, and frees the permit when the task's future
+     * completes.
+     *
+     * @param <T>
+     * @param task
+     * @return
+     */
+    public <T> CompletableFuture<T> run(Supplier<CompletableFuture<T>> task)
+    {
+        return acquire().thenCompose(ignored -> task.get()).whenComplete((result, err) -> release());
+    }
+
+
+    // private methods
+
+
+    /**
+     *
+     * @return
+     */
+    private synchronized CompletableFuture<Void> acquire()
+    {
+        if (_available > 0) {
+            _available -= 1;
+
+            return CompletableFuture.completedFuture(null);
+        }
+
+        CompletableFuture<Void> waiter = new CompletableFuture<Void>();
+
+        _waiters.add(waiter);
+
+        return waiter;
+    }
+
+    /**
+     * Hands the permit to the next waiting task, if there is one.
+     */
+    private void release()
+    {
+        CompletableFuture<Void> next;
+
+        synchronized (this) {
+            next = _waiters.poll();
+
+            if (next == null)
+                _available += 1;
+        }
+
+        if (next != null)
+            next.completeAsync(() -> null, _executor);
+    }
+}
@@ -0,0 +1,240 @@
+package edu.utexas.tacc.tapis.kubernetes;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Answers per-job status lookups from batched search requests. Every job that has been
+ * looked up and has not yet reached a terminal state is tracked; when a lookup finds its
+ * cached status older than maxAgeMillis, every tracked job whose status is more than half
+ * that age is refreshed at once, in pages of at most pageSize UUIDs, so the other jobs'
+ * next lookups are served from the cache and their refreshes drift into the same
+ * batches. If the batch endpoint is unavailable, or a job is missing from its results,
+ * lookups fall back to the per-job source. A job that is no longer waited for before a
+ * batch has seen it end is untracked by the caller.
+ */
+class BatchedJobStatusSource implements JobStatusSource
+{
+    // nested classes
+
+
+    /**
+     *
+     */
+    @FunctionalInterface
+    interface BatchLookup
+    {
+        /**
+         *
+         * @param jobUuids
+         * @return map of job UUID to status
+         * @throws HttpException
+         * @throws InterruptedException
+         * @throws IOException
+         */
+        Map<String, String> getJobStatuses(List<String> jobUuids) throws HttpException, IOException, InterruptedException;
+    }
+
+    /**
+     *
+     */
+    private static class CachedStatus
+    {
+        private final String _status;
+        private final long _fetchedNanos;
+
+
+        /**
+         *
+         * @param status
+         * @param fetchedNanos
+         */
+        private CachedStatus(String status, long fetchedNanos)
+        {
+            _status = status;
+            _fetchedNanos = fetchedNanos;
+        }
+    }
+
+
+    // data fields
+
+
+    private final BatchLookup _lookup;
+    private final JobStatusSource _fallback;
+    private final int _pageSize;
+    private final long _maxAgeNanos;
+    private final Map<String, CachedStatus> _cache;
+    private final Set<String> _tracked;
+    private final Object _refreshLock;
+    private final AtomicLong _batchRequests;
+    private final AtomicLong _fallbackRequests;
+    private volatile boolean _batchAvailable;
+
+
+    // constructors
+
+
+    /**
+     *
+     * @param lookup
+     * @param fallback
+     * @param pageSize
+     * @param maxAgeMillis
+     */
+    public BatchedJobStatusSource(BatchLookup lookup, JobStatusSource fallback, int pageSize, long maxAgeMillis)
+    {
+        _lookup = lookup;
+        _fallback = fallback;
+        _pageSize = pageSize;
+        _maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAgeMillis);
+        _cache = new ConcurrentHashMap<String, CachedStatus>();
+        _tracked = ConcurrentHashMap.newKeySet();
+        _refreshLock = new Object();
+        _batchRequests = new AtomicLong();
+        _fallbackRequests = new AtomicLong();
+        _batchAvailable = true;
+    }
+
+
+    // public methods
+
+
+    @Override
+    public String getJobStatus(String jobUuid) throws HttpException, IOException, InterruptedException
+    {
+        if (_batchAvailable) {
+            String status = getFreshStatus(jobUuid);
+
+            if (status != null)
+                return status;
+
+            _tracked.add(jobUuid);
+
+            synchronized (_refreshLock) {
+                status = getFreshStatus(jobUuid);
+
+                if (status != null)
+                    return status;
+
+                refresh();
+            }
+
+            status = getFreshStatus(jobUuid);
+
+            if (status != null)
+                return status;
+        }
+
+        _fallbackRequests.incrementAndGet();
+
+        return _fallback.getJobStatus(jobUuid);
+    }
+
+    /**
+     * Stops refreshing a job and drops its cached status, once nothing waits for it.
+     *
+     * @param jobUuid
+     */
+    public void untrack(String jobUuid)
+    {
+        _tracked.remove(jobUuid);
+        _cache.remove(jobUuid);
+    }
+
+    /**
+     *
+     * @return
+     */
+    public long getBatchRequestCount()
+    {
+        return _batchRequests.get();
+    }
+
+    /**
+     *
+     * @return
+     */
+    public long getFallbackRequestCount()
+    {
+        return _fallbackRequests.get();
+    }
+
+
+    // private methods
+
+
+    /**
+     *
+     * @param jobUuid
+     * @return
+     */
+    private String getFreshStatus(String jobUuid)
+    {
+        CachedStatus cached = _cache.get(jobUuid);
+
+        if (cached == null || System.nanoTime() - cached._fetchedNanos > _maxAgeNanos)
+            return null;
+
+        return cached._status;
+    }
+
+    /**
+     * Fetches every tracked job past half its maximum age in pages and stops tracking
+     * those that have reached a terminal state. Must be called holding the refresh lock.
+     *
+     * @throws HttpException
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    private void refresh() throws HttpException, IOException, InterruptedException
+    {
+        List<String> jobUuids = new ArrayList<String>();
+        long refreshAge = System.nanoTime() - _maxAgeNanos / 2;
+
+        for (String jobUuid : _tracked) {
+            CachedStatus cached = _cache.get(jobUuid);
+
+            if (cached == null || cached._fetchedNanos - refreshAge < 0)
+                jobUuids.add(jobUuid);
+        }
+
+        try {
+            for (int start = 0 ; start < jobUuids.size() ; start += _pageSize) {
+                List<String> page = jobUuids.subList(start, Math.min(start + _pageSize, jobUuids.size()));
+                Map<String, String> statuses = _lookup.getJobStatuses(page);
+                long now = System.nanoTime();
+
+                _batchRequests.incrementAndGet();
+
+                for (Map.Entry<String, String> entry : statuses.entrySet()) {
+                    _cache.put(entry.getKey(), new CachedStatus(entry.getValue(), now));
+
+                    if (JobStatusHandler.isTerminal(entry.getValue()))
+                        _tracked.remove(entry.getKey());
+                }
+            }
+        }
+        catch (HttpException err) {
+            int code = err.getStatusCode();
+
+            if (code != 400 && code != 404 && code != 405 && code != 501)
+                throw err;
+
+            System.out.println("batched job status lookup is unavailable (" + code + "), falling back to per-job requests");
+
+            _batchAvailable = false;
+        }
+
+        long now = System.nanoTime();
+
+        _cache.values().removeIf(cached -> now - cached._fetchedNanos > 10 * _maxAgeNanos);
+    }
+}
@@ -0,0 +1,191 @@
+package edu.utexas.tacc.tapis.kubernetes;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Runs job tasks concurrently with a cap on how many are in flight at once. Each task
+ * gets its own thread; on a JVM with virtual threads (Java 21+) these are virtual, so
+ * tasks that spend minutes blocked in status polling cost almost nothing, otherwise a
+ * platform thread per in-flight task is used.
+ */
+class ConcurrentJobRunner implements AutoCloseable
+{
+    // nested classes
+
+
+    /**
+     * The outcome of one task: the value it returned, or the exception it threw.
+     *
+     * @param <T>
+     */
+    public static class TaskResult<T>
+    {
+        private final T _value;
+        private final Throwable _error;
+
+
+        /**
+         *
+         * @param value
+         * @param error
+         */
+        private TaskResult(T value, Throwable error)
+        {
+            _value = value;
+            _error = error;
+        }
+
+        /**
+         *
+         * @return null if the task failed
+         */
+        public T getValue()
+        {
+            return _value;
+        }
+
+        /**
+         *
+         * @return null if the task succeeded
+         */
+        public Throwable getError()
+        {
+            return _error;
+        }
+    }
+
+    /**
+     *
+     */
+    private static class RunnerThreadFactory implements ThreadFactory
+    {
+        private final AtomicInteger _count = new AtomicInteger();
+
+
+        @Override
+        public Thread newThread(Runnable task)
+        {
+            Thread thread = new Thread(task, "job-runner-" + _count.incrementAndGet());
+
+            thread.setDaemon(true);
+
+            return thread;
+        }
+    }
+
+
+    // data fields
+
+
+    private final Semaphore _permits;
+    private final ExecutorService _executor;
+
+
+    // constructors
+
+
+    /**
+     *
+     * @param maxConcurrent
+     */
+    public ConcurrentJobRunner(int maxConcurrent)
+    {
+        if (maxConcurrent < 1)
+            throw new IllegalArgumentException("maxConcurrent must be at least 1, was " + maxConcurrent);
+
+        _permits = new Semaphore(maxConcurrent);
+        _executor = createExecutor();
+    }
+
+
+    // public methods
+
+
+    /**
+     * Submits every task, blocking while the concurrency cap is reached, and returns the
+     * outcomes in the same order as the tasks. A task that throws has its exception as its
+     * outcome, and does not stop the others or discard their results.
+     *
+     * @param <T>
+     * @param tasks
+     * @return
+     * @throws InterruptedException
+     */
+    public <T> List<TaskResult<T>> runAll(List<? extends Callable<T>> tasks) throws InterruptedException
+    {
+        List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+
+        for (Callable<T> task : tasks) {
+            _permits.acquire();
+
+            try {
+                futures.add(_executor.submit(() -> {
+                    try {
+                        return task.call();
+                    }
+                    finally {
+                        _permits.release();
+                    }
+                }));
+            }
+            catch (RuntimeException err) {
+                _permits.release();
+
+                throw err;
+            }
+        }
+
+        List<TaskResult<T>> results = new ArrayList<TaskResult<T>>(futures.size());
+
+        for (Future<T> future : futures) {
+            try {
+                results.add(new TaskResult<T>(future.get(), null));
+            }
+            catch (ExecutionException err) {
+                results.add(new TaskResult<T>(null, err.getCause()));
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     *
+     */
+    @Override
+    public void close()
+    {
+        _executor.shutdownNow();
+    }
+
+
+    // private methods
+
+
+    /**
+     *
+     * @return
+     */
+    private static ExecutorService createExecutor()
+    {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+
+            return (ExecutorService) factory.invoke(null);
+        }
+        catch (ReflectiveOperationException err) {
+            return Executors.newCachedThreadPool(new RunnerThreadFactory());
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package edu.utexas.tacc.tapis.kubernetes;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+
+/**
+ * App and job definitions, each read, resolved and checked once and then shared. A
+ * resource's ${NAME} placeholders are filled in from the registry's values through a
+ * compiled template, the result must be a JSON object with the fields Tapis requires,
+ * and it is serialized once into the body sent with every request that uses it.
+ */
+class DefinitionRegistry
+{
+    // nested classes
+
+
+    /**
+     *
+     */
+    public static class Definition
+    {
+        private final String _name;
+        private final JsonNode _tree;
+        private final RequestBody _body;
+
+
+        /**
+         *
+         * @param name
+         * @param tree
+         * @param body
+         */
+        private Definition(String name, JsonNode tree, RequestBody body)
+        {
+            _name = name;
+            _tree = tree;
+            _body = body;
+        }
+
+        /**
+         *
+         * @return the resource the definition came from, or the label it was created with
+         */
+        public String getName()
+        {
+            return _name;
+        }
+
+        /**
+         *
+         * @param pointer
+         * @return the text of the field, or "" if there is none
+         */
+        public String getField(String pointer)
+        {
+            return _tree.at(pointer).asText();
+        }
+
+        /**
+         *
+         * @return
+         */
+        public RequestBody getBody()
+        {
+            return _body;
+        }
+    }
+
+
+    // constants
+
+
+    private static final String[] APP_FIELDS = { "/id", "/version" };
+    private static final String[] JOB_FIELDS = { "/name", "/appId", "/appVersion" };
+
+
+    // data fields
+
+
+    private final Map<String, String> _values;
+    private final Map<String, Definition> _definitions;
+
+
+    // constructors
+
+
+    /**
+     *
+     * @param values placeholder values by name
+     */
+    public DefinitionRegistry(Map<String, String> values)
+    {
+        _values = values;
+        _definitions = new ConcurrentHashMap<String, Definition>();
+    }
+
+
+    // public methods
+
+
+    /**
+     *
+     * @param resourceName
+     * @return
+     * @throws IOException if the resource is missing or not a valid app
+     */
+    public Definition getApp(String resourceName) throws IOException
+    {
+        return get(resourceName, APP_FIELDS);
+    }
+
+    /**
+     *
+     * @param resourceName
+     * @return
+     * @throws IOException if the resource is missing or not a valid job
+     */
+    public Definition getJob(String resourceName) throws IOException
+    {
+        return get(resourceName, JOB_FIELDS);
+    }
+
+    /**
+     * Resolves and checks a generated app, without keeping it.
+     *
+     * @param name
+     * @param config
+     * @return
+     * @throws IOException
+     */
+    public Definition createApp(String name, String config) throws IOException
+    {
+        return create(name, config, APP_FIELDS);
+    }
+
+    /**
+     * Resolves and checks a generated job, without keeping it.
+     *
+     * @param name
+     * @param config
+     * @return
+     * @throws IOException
+     */
+    public Definition createJob(String name, String config) throws IOException
+    {
+        return create(name, config, JOB_FIELDS);
+    }
+
+
+    // private methods
+
+
+    /**
+     *
+     * @param resourceName
+     * @param fields
+     * @return
+     * @throws IOException
+     */
+    private Definition get(String resourceName, String[] fields) throws IOException
+    {
+        Definition definition = _definitions.get(resourceName);
+
+        if (definition != null)
+            return definition;
+
+        String config;
+
+        try (InputStream inStream = DefinitionRegistry.class.getClassLoader().getResourceAsStream(resourceName)) {
+            if (inStream == null)
+                throw new IOException("resource " + resourceName + " not found");
+
+            config = new String(inStream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+
+        definition = create(resourceName, config, fields);
+
+        Definition existing = _definitions.putIfAbsent(resourceName, definition);
+
+        return existing != null ? existing : definition;
+    }
+
+    /**
+     *
+     * @param name
+     * @param config
+     * @param fields
+     * @return
+     * @throws IOException
+     */
+    private Definition create(String name, String config, String[] fields) throws IOException
+    {
+        String resolved;
+
+        try {
+            resolved = DefinitionTemplate.compile(config).resolve(_values);
+        }
+        catch (IllegalArgumentException err) {
+            throw new IOException("definition " + name + ": " + err.getMessage(), err);
+        }
+
+        JsonNode tree = JsonFieldExtractor.READER.readTree(resolved);
+
+        if (tree == null || !tree.isObject())
+            throw new IOException("definition " + name + " is not a JSON object");
+
+        for (String field : fields) {
+            if (tree.at(field).asText().isEmpty())
+                throw new IOException("definition " + name + " has no " + field.substring(1));
+        }
+
+        return new Definition(name, tree, RequestBody.ofJson(tree));
+    }
+}
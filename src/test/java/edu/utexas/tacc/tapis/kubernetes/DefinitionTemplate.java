@@ -0,0 +1,127 @@
+package edu.utexas.tacc.tapis.kubernetes;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+
+/**
+ * A JSON definition with ${NAME} placeholders, split into literal text and placeholder
+ * names once so that resolving it is a single pass of appends. Placeholders are expected
+ * inside JSON strings, and values are escaped for that position.
+ */
+final class DefinitionTemplate
+{
+    // constants
+
+
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\$\\{([A-Za-z_][A-Za-z0-9_]*)\\}");
+
+
+    // data fields
+
+
+    private final String[] _literals;
+    private final String[] _names;
+    private final int _literalLength;
+
+
+    // constructors
+
+
+    /**
+     *
+     * @param literals one more than names: the text before, between and after them
+     * @param names
+     */
+    private DefinitionTemplate(String[] literals, String[] names)
+    {
+        int length = 0;
+
+        for (String literal : literals)
+            length += literal.length();
+
+        _literals = literals;
+        _names = names;
+        _literalLength = length;
+    }
+
+
+    // public methods
+
+
+    /**
+     *
+     * @param text
+     * @return
+     */
+    public static DefinitionTemplate compile(String text)
+    {
+        List<String> literals = new ArrayList<String>();
+        List<String> names = new ArrayList<String>();
+        Matcher matcher = PLACEHOLDER.matcher(text);
+        int position = 0;
+
+        while (matcher.find()) {
+            literals.add(text.substring(position, matcher.start()));
+            names.add(matcher.group(1));
+
+            position = matcher.end();
+        }
+
+        literals.add(text.substring(position));
+
+        return new DefinitionTemplate(literals.toArray(new String[0]), names.toArray(new String[0]));
+    }
+
+    /**
+     *
+     * @return the placeholder names, in the order they first appear
+     */
+    public Set<String> getNames()
+    {
+        return new LinkedHashSet<String>(List.of(_names));
+    }
+
+    /**
+     *
+     * @param values
+     * @return the text with every placeholder replaced by its value
+     * @throws IllegalArgumentException if a placeholder has no value
+     */
+    public String resolve(Map<String, String> values)
+    {
+        if (_names.length == 0)
+            return _literals[0];
+
+        String[] escaped = new String[_names.length];
+        int length = _literalLength;
+
+        for (int i = 0 ; i < _names.length ; i++) {
+            String value = values.get(_names[i]);
+
+            if (value == null)
+                throw new IllegalArgumentException("no value for ${" + _names[i] + "}");
+
+            escaped[i] = new String(JsonStringEncoder.getInstance().quoteAsString(value));
+            length += escaped[i].length();
+        }
+
+        StringBuilder result = new StringBuilder(length);
+
+        for (int i = 0 ; i < _names.length ; i++) {
+            result.append(_literals[i]);
+            result.append(escaped[i]);
+        }
+
+        result.append(_literals[_names.length]);
+
+        return result.toString();
+    }
+}
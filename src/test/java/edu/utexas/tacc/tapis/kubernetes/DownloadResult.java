@@ -0,0 +1,74 @@
+package edu.utexas.tacc.tapis.kubernetes;
+
+
+/**
+ * A completed, verified download: where it was saved, its size and how many requests it
+ * took to fetch.
+ */
+class DownloadResult
+{
+    // data fields
+
+
+    private final String _filename;
+    private final long _size;
+    private final int _attempts;
+
+
+    // constructors
+
+
+    /**
+     *
+     * @param filename
+     * @param size
+     * @param attempts
+     */
+    public DownloadResult(String filename, long size, int attempts)
+    {
+        _filename = filename;
+        _size = size;
+        _attempts = attempts;
+    }
+
+
+    // public methods
+
+
+    /**
+     *
+     * @return
+     */
+    public String getFilename()
+    {
+        return _filename;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public long getSize()
+    {
+        return _size;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int getAttempts()
+    {
+        return _attempts;
+    }
+
+    /**
+     *
+     * @return
+     */
+    @Override
+    public String toString()
+    {
+        return _filename + " (" + _size + " bytes, " + _attempts + (_attempts == 1 ? " request)" : " requests)");
+    }
+}
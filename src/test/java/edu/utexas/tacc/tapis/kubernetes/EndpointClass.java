@@ -0,0 +1,36 @@
+package edu.utexas.tacc.tapis.kubernetes;
+
+
+/**
+ * Groups of gateway endpoints that share a client-side rate limit.
+ */
+enum EndpointClass {
+    AUTH,
+    APPS,
+    SUBMIT,
+    STATUS,
+    DOWNLOAD;
+
+
+    /**
+     *
+     * @param path request path relative to /v3/, with or without a query
+     * @return
+     */
+    static EndpointClass of(String path)
+    {
+        if (path.startsWith("oauth2/"))
+            return AUTH;
+
+        if (path.startsWith("apps"))
+            return APPS;
+
+        if (path.startsWith("jobs/submit"))
+            return SUBMIT;
+
+        if (path.contains("/output/download"))
+            return DOWNLOAD;
+
+        return STATUS;
+    }
+}
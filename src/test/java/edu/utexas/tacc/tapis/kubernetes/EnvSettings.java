@@ -0,0 +1,70 @@
+package edu.utexas.tacc.tapis.kubernetes;
+
+
+/**
+ * Typed access to the TAPIS_* environment variables that tune the test runs.
+ */
+final class EnvSettings
+{
+    // constructors
+
+
+    /**
+     *
+     */
+    private EnvSettings()
+    {
+    }
+
+
+    // public methods
+
+
+    /**
+     *
+     * @param name
+     * @param defaultValue
+     * @return
+     */
+    public static String getString(String name, String defaultValue)
+    {
+        String value = System.getenv(name);
+
+        if (value == null || value.isBlank())
+            return defaultValue;
+
+        return value.trim();
+    }
+
+    /**
+     *
+     * @param name
+     * @param defaultValue
+     * @return
+     */
+    public static int getInt(String name, int defaultValue)
+    {
+        String value = getString(name, null);
+
+        if (value == null)
+            return defaultValue;
+
+        return Integer.parseInt(value);
+    }
+
+    /**
+     *
+     * @param name
+     * @param defaultValue
+     * @return
+     */
+    public static boolean getBoolean(String name, boolean defaultValue)
+    {
+        String value = getString(name, null);
+
+        if (value == null)
+            return defaultValue;
+
+        return Boolean.parseBoolean(value);
+    }
+}
@@ -0,0 +1,32 @@
+package edu.utexas.tacc.tapis.kubernetes;
+
+import java.io.FileWriter;
+import java.io.IOException;
+
+
+/**
+ * Writes each artifact to its own <key>_<type>.json file in the working directory, as
+ * the tests originally did. The file is written on the calling thread.
+ */
+class FileArtifactSink implements ArtifactSink
+{
+    // public methods
+
+
+    @Override
+    public String write(String key, String type, String content) throws IOException
+    {
+        String filename = key + "_" + type + ".json";
+
+        try (FileWriter writer = new FileWriter(filename)) {
+            writer.write(content);
+        }
+
+        return filename;
+    }
+
+    @Override
+    public void close()
+    {
+    }
+}
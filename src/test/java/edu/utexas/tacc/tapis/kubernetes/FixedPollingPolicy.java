@@ -0,0 +1,42 @@
+package edu.utexas.tacc.tapis.kubernetes;
+
+
+/**
+ * Polls at a constant interval, as the tests originally did.
+ */
+class FixedPollingPolicy implements PollingPolicy
+{
+    // constants
+
+
+    public static final long DEFAULT_INTERVAL_MILLIS = 5000;
+
+
+    // data fields
+
+
+    private final long _intervalMillis;
+
+
+    // constructors
+
+
+    /**
+     *
+     * @param intervalMillis
+     */
+    public FixedPollingPolicy(long intervalMillis)
+    {
+        _intervalMillis = intervalMillis;
+    }
+
+
+    // public methods
+
+
+    @Override
+    public long getDelayMillis(String status, int samePolls)
+    {
+        return _intervalMillis;
+    }
+}
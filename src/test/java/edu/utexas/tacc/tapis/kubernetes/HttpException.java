@@ -0,0 +1,57 @@
+package edu.utexas.tacc.tapis.kubernetes;
+
+import java.io.InputStream;
+import java.io.IOException;
+
+
+/**
+ *
+ */
+class HttpException extends Exception {
+
+    private final int _statusCode;
+
+
+    /**
+     *
+     * @param code
+     * @param message
+     */
+    private HttpException(int code, String message)
+    {
+        super(message);
+
+        _statusCode = code;
+    }
+
+
+    /**
+     *
+     * @param code
+     * @param source
+     * @return
+     * @throws IOException
+     */
+    public static HttpException createInstance(int code, Object source) throws IOException
+    {
+        String message;
+
+        if (source instanceof String)
+            message = (String) source;
+        else if (source instanceof InputStream)
+            message = new String(((InputStream) source).readAllBytes());
+        else
+            message = null;
+
+        return new HttpException(code, message);
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int getStatusCode()
+    {
+        return _statusCode;
+    }
+}
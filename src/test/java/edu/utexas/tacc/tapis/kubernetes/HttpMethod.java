@@ -0,0 +1,12 @@
+package edu.utexas.tacc.tapis.kubernetes;
+
+
+/**
+ *
+ */
+enum HttpMethod {
+    GET,
+    POST,
+    PUT,
+    DELETE
+}
@@ -0,0 +1,495 @@
+package edu.utexas.tacc.tapis.kubernetes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+
+
+/**
+ * Records every HTTP exchange the client makes, retries and downloads included, into an
+ * artifact log: one "exchange" record per request, keyed by method and endpoint, with the
+ * request, the response status, headers and body, and when the response headers and the
+ * end of the body arrived. The token header is never recorded, only the few headers that
+ * shape a response are, and the password and tokens in JSON bodies are replaced with
+ * REDACTED, so a recording can be passed around. Text bodies are kept as text and others
+ * base64 encoded, up to the body size limit; HttpReplayServer serves a recording back.
+ *
+ * A body is copied as the client reads it, so a streamed response is written out once it
+ * has been read to the end; one that is abandoned part way is written out on close.
+ */
+class HttpRecorder implements AutoCloseable
+{
+    // nested classes
+
+
+    /**
+     * One exchange being recorded. It is written once both the response and the end of its
+     * body are in, or as soon as either fails.
+     */
+    class Exchange
+    {
+        private final long _sequence;
+        private final HttpMethod _method;
+        private final String _path;
+        private final Map<String, String> _requestHeaders;
+        private final String _requestBody;
+        private final long _startNanos;
+        private final ByteArrayOutputStream _body;
+        private HttpResponse.ResponseInfo _info;
+        private long _headersNanos;
+        private long _endNanos;
+        private long _bodyLength;
+        private boolean _responseDone;
+        private boolean _bodyDone;
+        private String _error;
+        private boolean _written;
+
+
+        /**
+         *
+         * @param method
+         * @param path
+         * @param request
+         * @param body
+         */
+        private Exchange(HttpMethod method, String path, HttpRequest request, RequestBody body)
+        {
+            _sequence = _sequenceCount.incrementAndGet();
+            _method = method;
+            _path = path;
+            _requestHeaders = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+            _requestBody = body != null ? redact(body.toString()) : null;
+            _startNanos = System.nanoTime();
+            _body = new ByteArrayOutputStream();
+
+            for (Map.Entry<String, List<String>> header : request.headers().map().entrySet()) {
+                if (REQUEST_HEADERS.contains(header.getKey().toLowerCase(Locale.ROOT)))
+                    _requestHeaders.put(header.getKey(), String.join(",", header.getValue()));
+            }
+        }
+
+        /**
+         *
+         * @param <T>
+         * @param handler
+         * @return a handler that records the response on its way to the given one
+         */
+        public <T> HttpResponse.BodyHandler<T> capture(HttpResponse.BodyHandler<T> handler)
+        {
+            return info -> {
+                onHeaders(info);
+
+                return new RecordingSubscriber<T>(this, handler.apply(info));
+            };
+        }
+
+        /**
+         *
+         * @param err null if the response arrived
+         */
+        public void finish(Throwable err)
+        {
+            synchronized (this) {
+                _responseDone = true;
+
+                if (err != null && _error == null) {
+                    _error = TapisClient.unwrap(err).toString();
+                    _endNanos = System.nanoTime();
+                }
+
+                if (!_bodyDone && err == null)
+                    return;
+            }
+
+            write();
+        }
+
+        /**
+         *
+         * @param info
+         */
+        private synchronized void onHeaders(HttpResponse.ResponseInfo info)
+        {
+            _info = info;
+            _headersNanos = System.nanoTime();
+        }
+
+        /**
+         *
+         * @param buffers
+         */
+        private synchronized void onBody(List<ByteBuffer> buffers)
+        {
+            // only the prefix that fits is kept, so a recorded body is never missing a
+            // piece from its middle; once the limit is reached nothing more is copied
+
+            for (ByteBuffer buffer : buffers) {
+                int length = buffer.remaining();
+                int copied = (int) Math.min(length, _maxBodyBytes - _body.size());
+
+                if (copied > 0) {
+                    byte[] bytes = new byte[copied];
+
+                    buffer.duplicate().get(bytes);
+
+                    _body.write(bytes, 0, copied);
+                }
+
+                _bodyLength += length;
+            }
+        }
+
+        /**
+         *
+         * @param err null if the body was read to the end
+         */
+        private void onBodyDone(Throwable err)
+        {
+            synchronized (this) {
+                _bodyDone = true;
+                _endNanos = System.nanoTime();
+
+                if (err != null && _error == null)
+                    _error = TapisClient.unwrap(err).toString();
+
+                if (!_responseDone && err == null)
+                    return;
+            }
+
+            write();
+        }
+
+        /**
+         * Writes the exchange out, the first time only.
+         */
+        private void write()
+        {
+            ObjectNode record;
+
+            synchronized (this) {
+                if (_written)
+                    return;
+
+                _written = true;
+                record = toJson();
+            }
+
+            _pending.remove(this);
+
+            try {
+                _log.write(_method.name() + " " + TapisEvents.getEndpoint(_path), RECORD_TYPE, JsonFieldExtractor.MAPPER.writeValueAsString(record));
+            }
+            catch (IOException err) {
+                _writeError = err;
+            }
+        }
+
+        /**
+         *
+         * @return
+         */
+        private ObjectNode toJson()
+        {
+            ObjectNode record = JsonFieldExtractor.MAPPER.createObjectNode();
+            long endNanos = _endNanos != 0 ? _endNanos : System.nanoTime();
+
+            record.put("sequence", _sequence);
+            record.put("startMicros", TimeUnit.NANOSECONDS.toMicros(_startNanos - _originNanos));
+            record.put("method", _method.name());
+            record.put("path", _path);
+
+            ObjectNode requestHeaders = record.putObject("requestHeaders");
+
+            for (Map.Entry<String, String> header : _requestHeaders.entrySet())
+                requestHeaders.put(header.getKey(), header.getValue());
+
+            if (_requestBody != null)
+                record.put("requestBody", _requestBody);
+
+            if (_info != null) {
+                record.put("status", _info.statusCode());
+                record.put("headersMicros", TimeUnit.NANOSECONDS.toMicros(_headersNanos - _startNanos));
+
+                ObjectNode responseHeaders = record.putObject("responseHeaders");
+
+                for (Map.Entry<String, List<String>> header : _info.headers().map().entrySet()) {
+                    if (RESPONSE_HEADERS.contains(header.getKey().toLowerCase(Locale.ROOT)))
+                        responseHeaders.put(header.getKey().toLowerCase(Locale.ROOT), String.join(",", header.getValue()));
+                }
+
+                byte[] body = _body.toByteArray();
+
+                if (isText(_info))
+                    record.put("body", redact(new String(body, StandardCharsets.UTF_8)));
+                else
+                    record.put("bodyBase64", Base64.getEncoder().encodeToString(body));
+
+                record.put("bodyLength", _bodyLength);
+                record.put("bodyComplete", _bodyDone && _bodyLength == body.length);
+            }
+
+            record.put("durationMicros", TimeUnit.NANOSECONDS.toMicros(endNanos - _startNanos));
+
+            if (_error != null)
+                record.put("error", _error);
+
+            return record;
+        }
+    }
+
+    /**
+     * Passes a response body on to the client's subscriber, copying it for the exchange on
+     * the way.
+     *
+     * @param <T>
+     */
+    private static class RecordingSubscriber<T> implements HttpResponse.BodySubscriber<T>
+    {
+        private final Exchange _exchange;
+        private final HttpResponse.BodySubscriber<T> _subscriber;
+
+
+        /**
+         *
+         * @param exchange
+         * @param subscriber
+         */
+        private RecordingSubscriber(Exchange exchange, HttpResponse.BodySubscriber<T> subscriber)
+        {
+            _exchange = exchange;
+            _subscriber = subscriber;
+        }
+
+        @Override
+        public CompletionStage<T> getBody()
+        {
+            return _subscriber.getBody();
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription)
+        {
+            _subscriber.onSubscribe(subscription);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> item)
+        {
+            _exchange.onBody(item);
+            _subscriber.onNext(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable)
+        {
+            _exchange.onBodyDone(throwable);
+            _subscriber.onError(throwable);
+        }
+
+        @Override
+        public void onComplete()
+        {
+            _exchange.onBodyDone(null);
+            _subscriber.onComplete();
+        }
+    }
+
+
+    // constants
+
+
+    public static final String RECORD_TYPE = "exchange";
+    public static final String REDACTED = "REDACTED";
+
+    private static final Set<String> REQUEST_HEADERS = Set.of("content-type", "accept", "range", "if-range");
+    private static final Set<String> RESPONSE_HEADERS = Set.of("content-type", "content-range", "content-disposition", "accept-ranges", "digest", "etag", "last-modified", "retry-after");
+    private static final Set<String> REDACTED_FIELDS = Set.of("password", "access_token", "refresh_token", "client_secret");
+
+
+    // data fields
+
+
+    private final ArtifactSink _log;
+    private final long _maxBodyBytes;
+    private final long _originNanos;
+    private final AtomicLong _sequenceCount;
+    private final Set<Exchange> _pending;
+    private volatile IOException _writeError;
+
+
+    // constructors
+
+
+    /**
+     *
+     * @param log
+     * @param maxBodyBytes longest body kept; the length of a longer one is still recorded
+     */
+    public HttpRecorder(ArtifactSink log, long maxBodyBytes)
+    {
+        _log = log;
+        _maxBodyBytes = maxBodyBytes;
+        _originNanos = System.nanoTime();
+        _sequenceCount = new AtomicLong();
+        _pending = ConcurrentHashMap.newKeySet();
+    }
+
+
+    // public methods
+
+
+    /**
+     * Starts recording an exchange. The request is to be sent with a handler from the
+     * exchange's capture(), and the outcome of the send passed to its finish().
+     *
+     * @param method
+     * @param path
+     * @param request
+     * @param body
+     * @return
+     */
+    public Exchange start(HttpMethod method, String path, HttpRequest request, RequestBody body)
+    {
+        Exchange exchange = new Exchange(method, path, request, body);
+
+        _pending.add(exchange);
+
+        return exchange;
+    }
+
+    /**
+     *
+     * @return the number of exchanges recorded so far
+     */
+    public long getExchangeCount()
+    {
+        return _sequenceCount.get();
+    }
+
+    /**
+     * Writes out the exchanges whose bodies were never read to the end, then closes the log.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        for (Exchange exchange : _pending.toArray(new Exchange[0]))
+            exchange.write();
+
+        _log.close();
+
+        if (_writeError != null)
+            throw _writeError;
+    }
+
+    /**
+     * Replaces the values of password and token fields in a JSON document. A document that
+     * cannot be parsed, such as a body cut off at the size limit, is replaced as a whole
+     * if it names any of those fields.
+     *
+     * @param text
+     * @return the text with any secrets replaced, unchanged if it has none or is not JSON
+     */
+    public static String redact(String text)
+    {
+        String trimmed = text.trim();
+
+        if (!trimmed.startsWith("{") && !trimmed.startsWith("["))
+            return text;
+
+        JsonNode root;
+
+        try {
+            root = JsonFieldExtractor.READER.readTree(trimmed);
+        }
+        catch (IOException err) {
+            for (String field : REDACTED_FIELDS) {
+                if (trimmed.contains("\"" + field + "\""))
+                    return REDACTED;
+            }
+
+            return text;
+        }
+
+        if (!redact(root))
+            return text;
+
+        try {
+            return JsonFieldExtractor.MAPPER.writeValueAsString(root);
+        }
+        catch (IOException err) {
+            return REDACTED;
+        }
+    }
+
+
+    // private methods
+
+
+    /**
+     *
+     * @param node
+     * @return true if anything was replaced
+     */
+    private static boolean redact(JsonNode node)
+    {
+        boolean replaced = false;
+
+        if (node.isObject()) {
+            ObjectNode object = (ObjectNode) node;
+            List<String> names = new ArrayList<String>();
+
+            object.fieldNames().forEachRemaining(names::add);
+
+            for (String name : names) {
+                JsonNode value = object.get(name);
+
+                if (REDACTED_FIELDS.contains(name) && value.isTextual()) {
+                    object.set(name, TextNode.valueOf(REDACTED));
+
+                    replaced = true;
+                }
+                else if (redact(value))
+                    replaced = true;
+            }
+        }
+        else if (node.isArray()) {
+            for (JsonNode item : node) {
+                if (redact(item))
+                    replaced = true;
+            }
+        }
+
+        return replaced;
+    }
+
+    /**
+     *
+     * @param info
+     * @return true if the body is JSON or text
+     */
+    private static boolean isText(HttpResponse.ResponseInfo info)
+    {
+        String type = info.headers().firstValue("Content-Type").orElse("").toLowerCase(Locale.ROOT);
+
+        return type.contains("json") || type.startsWith("text/");
+    }
+}
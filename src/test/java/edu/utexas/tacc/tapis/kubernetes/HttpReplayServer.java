@@ -0,0 +1,473 @@
+package edu.utexas.tacc.tapis.kubernetes;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+
+/**
+ * Serves a recording made by HttpRecorder back in place of the gateway, so that changes
+ * to the client can be measured repeatably, and without a cluster. Each request gets the
+ * recorded response to the same method and path:
+ *
+ *   A path that was read more than once, a job's status for instance, answers with the
+ *   response recorded nearest the same time after the first request for it, so that a job
+ *   moves through its states on the recorded schedule however often it is polled.
+ *
+ *   Any other request gets the recorded responses in the order they were recorded, one
+ *   each, preferring one whose request had the same body. This is what hands job copies
+ *   their own UUIDs. Once they have all been served, the last one is served again.
+ *
+ * Response headers and the end of the body are held back for their recorded times
+ * multiplied by the time scale: 1 replays the gateway's latency, 0 answers at once. The
+ * schedule of repeated reads is stretched by the same factor. A recorded connection
+ * failure is replayed as a dropped connection.
+ *
+ * The recorded token has been redacted and expired by the time it is replayed, so token
+ * responses get a fresh expiry. Status events are not replayed, so recordings are best
+ * made and replayed with polling; times the gateway put in response bodies, job histories
+ * among them, are served as recorded.
+ */
+class HttpReplayServer implements AutoCloseable
+{
+    // nested classes
+
+
+    /**
+     *
+     */
+    @FunctionalInterface
+    private interface ResponseStep
+    {
+        /**
+         *
+         * @throws IOException
+         */
+        void run() throws IOException;
+    }
+
+    /**
+     *
+     */
+    private static class Exchange
+    {
+        private final long _startMicros;
+        private final String _requestBody;
+        private final int _status;
+        private final Map<String, String> _headers;
+        private final byte[] _body;
+        private final long _headersMicros;
+        private final long _durationMicros;
+        private boolean _served;
+
+
+        /**
+         *
+         * @param record the content of an exchange record
+         */
+        private Exchange(JsonNode record)
+        {
+            _startMicros = record.at("/startMicros").asLong();
+            _requestBody = record.hasNonNull("requestBody") ? record.get("requestBody").asText() : null;
+            _status = record.hasNonNull("status") ? record.get("status").asInt() : 0;
+            _headers = new TreeMap<String, String>();
+            _headersMicros = record.at("/headersMicros").asLong();
+            _durationMicros = record.at("/durationMicros").asLong();
+
+            for (Iterator<Map.Entry<String, JsonNode>> fields = record.at("/responseHeaders").fields() ; fields.hasNext() ; ) {
+                Map.Entry<String, JsonNode> field = fields.next();
+
+                _headers.put(field.getKey(), field.getValue().asText());
+            }
+
+            byte[] body;
+
+            if (record.hasNonNull("bodyBase64"))
+                body = Base64.getDecoder().decode(record.get("bodyBase64").asText());
+            else if (record.hasNonNull("body"))
+                body = record.get("body").asText().getBytes(StandardCharsets.UTF_8);
+            else
+                body = new byte[0];
+
+            long length = record.at("/bodyLength").asLong(body.length);
+
+            // a body longer than the recorder kept is made up to its length with zeros,
+            // which no digest will match
+
+            if (length > body.length && _status < 300) {
+                body = Arrays.copyOf(body, (int) Math.min(length, Integer.MAX_VALUE - 8));
+
+                _headers.remove("digest");
+            }
+
+            _body = body;
+        }
+    }
+
+    /**
+     * The recorded exchanges for one method and path.
+     */
+    private class Route
+    {
+        private final List<Exchange> _exchanges = new ArrayList<Exchange>();
+        private boolean _timed;
+        private long _firstNanos;
+        private boolean _started;
+
+
+        /**
+         *
+         * @param requestBody
+         * @return the exchange to answer with
+         */
+        private synchronized Exchange select(String requestBody)
+        {
+            if (_timed)
+                return selectByTime();
+
+            Exchange next = null;
+
+            for (Exchange exchange : _exchanges) {
+                if (exchange._served)
+                    continue;
+
+                if (Objects.equals(exchange._requestBody, requestBody)) {
+                    next = exchange;
+
+                    break;
+                }
+
+                if (next == null)
+                    next = exchange;
+            }
+
+            if (next == null) {
+                _repeatedCount.incrementAndGet();
+
+                return _exchanges.get(_exchanges.size() - 1);
+            }
+
+            next._served = true;
+
+            return next;
+        }
+
+        /**
+         *
+         * @return the exchange recorded nearest to the time since the first request, scaled
+         */
+        private Exchange selectByTime()
+        {
+            long now = System.nanoTime();
+
+            if (!_started) {
+                _firstNanos = now;
+                _started = true;
+            }
+
+            if (_timeScale <= 0.0)
+                return _exchanges.get(_exchanges.size() - 1);
+
+            double offset = TimeUnit.NANOSECONDS.toMicros(now - _firstNanos) / _timeScale + _exchanges.get(0)._startMicros;
+            Exchange nearest = _exchanges.get(0);
+
+            for (Exchange exchange : _exchanges) {
+                if (Math.abs(exchange._startMicros - offset) <= Math.abs(nearest._startMicros - offset))
+                    nearest = exchange;
+            }
+
+            return nearest;
+        }
+    }
+
+
+    // constants
+
+
+    private static final int THREADS = 8;
+
+
+    // data fields
+
+
+    private final double _timeScale;
+    private final Map<String, Route> _routes;
+    private final int _exchangeCount;
+    private final HttpServer _server;
+    private final ExecutorService _executor;
+    private final ScheduledExecutorService _scheduler;
+    private final AtomicLong _servedCount;
+    private final AtomicLong _repeatedCount;
+    private final AtomicLong _missedCount;
+
+
+    // constructors
+
+
+    /**
+     *
+     * @param records exchange records from HttpRecorder, in any order
+     * @param timeScale
+     * @throws IOException
+     */
+    public HttpReplayServer(List<JsonNode> records, double timeScale) throws IOException
+    {
+        _timeScale = timeScale;
+        _routes = new ConcurrentHashMap<String, Route>();
+        _exchangeCount = records.size();
+
+        List<JsonNode> ordered = new ArrayList<JsonNode>(records);
+
+        ordered.sort(Comparator.comparingLong(record -> record.at("/sequence").asLong()));
+
+        for (JsonNode record : ordered)
+            _routes.computeIfAbsent(record.at("/method").asText() + " " + record.at("/path").asText(), key -> new Route())._exchanges.add(new Exchange(record));
+
+        for (Map.Entry<String, Route> route : _routes.entrySet())
+            route.getValue()._timed = route.getKey().startsWith("GET ") && route.getValue()._exchanges.size() > 1;
+
+        AtomicInteger threads = new AtomicInteger();
+
+        _executor = Executors.newFixedThreadPool(THREADS, task -> {
+            Thread thread = new Thread(task, "replay-server-" + threads.incrementAndGet());
+
+            thread.setDaemon(true);
+
+            return thread;
+        });
+        _scheduler = Executors.newScheduledThreadPool(THREADS, task -> {
+            Thread thread = new Thread(task, "replay-responder-" + threads.incrementAndGet());
+
+            thread.setDaemon(true);
+
+            return thread;
+        });
+        _servedCount = new AtomicLong();
+        _repeatedCount = new AtomicLong();
+        _missedCount = new AtomicLong();
+        _server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+
+        _server.setExecutor(_executor);
+        _server.createContext("/v3/", this::handle);
+        _server.start();
+    }
+
+
+    // public methods
+
+
+    /**
+     *
+     * @param directory
+     * @param basename of the recording's segments
+     * @param timeScale
+     * @return
+     * @throws IOException
+     */
+    public static HttpReplayServer createInstance(Path directory, String basename, double timeScale) throws IOException
+    {
+        List<JsonNode> records = new ArrayList<JsonNode>();
+
+        for (JsonNode record : ArtifactLogReader.read(directory, basename, null, HttpRecorder.RECORD_TYPE))
+            records.add(record.get("content"));
+
+        if (records.isEmpty())
+            throw new IOException("no recorded exchanges in " + basename + "-*" + ArtifactLog.SUFFIX);
+
+        return new HttpReplayServer(records, timeScale);
+    }
+
+    /**
+     *
+     * @return
+     */
+    public String getUrlBase()
+    {
+        return "http://" + _server.getAddress().getHostString() + ":" + _server.getAddress().getPort();
+    }
+
+    /**
+     *
+     * @return the number of recorded exchanges being replayed
+     */
+    public int getExchangeCount()
+    {
+        return _exchangeCount;
+    }
+
+    /**
+     *
+     * @return the number of requests served, served a response again after the recorded
+     *         ones had run out, and missing from the recording
+     */
+    public long[] getCounts()
+    {
+        return new long[] { _servedCount.get(), _repeatedCount.get(), _missedCount.get() };
+    }
+
+    /**
+     *
+     */
+    @Override
+    public void close()
+    {
+        _server.stop(0);
+        _scheduler.shutdownNow();
+        _executor.shutdownNow();
+    }
+
+
+    // private methods
+
+
+    /**
+     * Picks the response and schedules its headers and body for their scaled times after
+     * the request came in.
+     *
+     * @param exchange
+     * @throws IOException
+     */
+    private void handle(HttpExchange exchange) throws IOException
+    {
+        long received = System.nanoTime();
+        String path = exchange.getRequestURI().getRawPath().substring("/v3/".length());
+        String query = exchange.getRequestURI().getRawQuery();
+        byte[] request = exchange.getRequestBody().readAllBytes();
+        String key = exchange.getRequestMethod() + " " + path + (query != null ? "?" + query : "");
+        Route route = _routes.get(key);
+
+        if (route == null) {
+            _missedCount.incrementAndGet();
+
+            System.out.println("replay has no recorded exchange for " + key);
+
+            byte[] body = ("{\"status\":\"error\",\"message\":\"no recorded exchange for " + key + "\",\"version\":\"replay\",\"result\":null}").getBytes(StandardCharsets.UTF_8);
+
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(404, body.length);
+
+            try (OutputStream outStream = exchange.getResponseBody()) {
+                outStream.write(body);
+            }
+
+            return;
+        }
+
+        String requestBody = request.length > 0 ? HttpRecorder.redact(new String(request, StandardCharsets.UTF_8)) : null;
+        Exchange recorded = route.select(requestBody);
+
+        _servedCount.incrementAndGet();
+
+        long headersAt = received + scale(recorded._headersMicros);
+        long bodyAt = received + scale(Math.max(recorded._durationMicros, recorded._headersMicros));
+
+        schedule(headersAt, () -> {
+            if (recorded._status == 0) {
+                // the recorded request never got a response
+
+                exchange.close();
+
+                return;
+            }
+
+            byte[] body = path.equals("oauth2/tokens") ? refreshToken(recorded._body) : recorded._body;
+
+            for (Map.Entry<String, String> header : recorded._headers.entrySet())
+                exchange.getResponseHeaders().set(header.getKey(), header.getValue());
+
+            exchange.sendResponseHeaders(recorded._status, body.length == 0 ? -1 : body.length);
+
+            if (body.length == 0) {
+                exchange.close();
+
+                return;
+            }
+
+            schedule(bodyAt, () -> {
+                try (OutputStream outStream = exchange.getResponseBody()) {
+                    outStream.write(body);
+                }
+            });
+        });
+    }
+
+    /**
+     *
+     * @param micros
+     * @return the recorded time in nanoseconds, scaled
+     */
+    private long scale(long micros)
+    {
+        return (long) (TimeUnit.MICROSECONDS.toNanos(micros) * _timeScale);
+    }
+
+    /**
+     * Runs a step of a response at the given System.nanoTime(), dropping the connection
+     * if it fails.
+     *
+     * @param atNanos
+     * @param step
+     */
+    private void schedule(long atNanos, ResponseStep step)
+    {
+        _scheduler.schedule(() -> {
+            try {
+                step.run();
+            }
+            catch (IOException err) {
+                // the client has gone
+            }
+        }, Math.max(atNanos - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Gives a replayed token response an expiry as far ahead as the recorded one had.
+     *
+     * @param body
+     * @return
+     */
+    private static byte[] refreshToken(byte[] body)
+    {
+        try {
+            JsonNode root = JsonFieldExtractor.READER.readTree(body);
+            JsonNode token = root.at("/result/access_token");
+
+            if (!token.isObject())
+                return body;
+
+            long expiresIn = token.at("/expires_in").asLong(14400);
+
+            ((ObjectNode) token).put("expires_at", Instant.now().plusSeconds(expiresIn).toString());
+
+            return JsonFieldExtractor.MAPPER.writeValueAsBytes(root);
+        }
+        catch (IOException err) {
+            return body;
+        }
+    }
+}
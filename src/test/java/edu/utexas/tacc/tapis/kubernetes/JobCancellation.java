@@ -0,0 +1,181 @@
+package edu.utexas.tacc.tapis.kubernetes;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * One job's cancellation, from the RUNNING status that prompted it to the terminal status
+ * the job ended in. At most one cancel request is outstanding at a time, and another is
+ * only sent once one has failed, so that a job polled many times while RUNNING is still
+ * cancelled once. Times are System.nanoTime() readings; the wall clock time the cancel was
+ * accepted is kept as well, to be set against the gateway's job history.
+ */
+class JobCancellation
+{
+    // data fields
+
+
+    private final String _jobUuid;
+    private final long _runningNanos;
+    private long _sentNanos;
+    private long _acceptedNanos;
+    private Instant _acceptedAt;
+    private long _terminalNanos;
+    private String _terminalStatus;
+    private int _attempts;
+    private boolean _sending;
+
+
+    // constructors
+
+
+    /**
+     *
+     * @param jobUuid
+     */
+    public JobCancellation(String jobUuid)
+    {
+        _jobUuid = jobUuid;
+        _runningNanos = System.nanoTime();
+    }
+
+
+    // public methods
+
+
+    /**
+     *
+     * @return
+     */
+    public String getJobUuid()
+    {
+        return _jobUuid;
+    }
+
+    /**
+     * Claims the next cancel request for the caller.
+     *
+     * @param maxAttempts
+     * @return false if a request is outstanding or has been accepted, the job has ended,
+     *         or the attempts are used up
+     */
+    public synchronized boolean startAttempt(int maxAttempts)
+    {
+        if (_sending || _acceptedAt != null || _terminalStatus != null || _attempts >= maxAttempts)
+            return false;
+
+        if (_attempts == 0)
+            _sentNanos = System.nanoTime();
+
+        _attempts += 1;
+        _sending = true;
+
+        return true;
+    }
+
+    /**
+     *
+     * @param accepted true if the gateway accepted the request
+     */
+    public synchronized void finishAttempt(boolean accepted)
+    {
+        _sending = false;
+
+        if (accepted) {
+            _acceptedNanos = System.nanoTime();
+            _acceptedAt = Instant.now();
+        }
+    }
+
+    /**
+     * Records the terminal status the first time it is seen.
+     *
+     * @param status
+     */
+    public synchronized void terminate(String status)
+    {
+        if (_terminalStatus != null)
+            return;
+
+        _terminalNanos = System.nanoTime();
+        _terminalStatus = status;
+    }
+
+    /**
+     *
+     * @return the number of cancel requests sent
+     */
+    public synchronized int getAttempts()
+    {
+        return _attempts;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public synchronized boolean isAccepted()
+    {
+        return _acceptedAt != null;
+    }
+
+    /**
+     *
+     * @return null if the job has not been seen to end
+     */
+    public synchronized String getTerminalStatus()
+    {
+        return _terminalStatus;
+    }
+
+    /**
+     *
+     * @return time from RUNNING being seen to the first cancel request being sent, or -1
+     *         if none was
+     */
+    public synchronized long getSendMillis()
+    {
+        return _attempts > 0 ? TimeUnit.NANOSECONDS.toMillis(_sentNanos - _runningNanos) : -1;
+    }
+
+    /**
+     *
+     * @return time from the first cancel request being sent to one being accepted, retries
+     *         included, or -1 if none was accepted
+     */
+    public synchronized long getAcceptMillis()
+    {
+        return _acceptedAt != null ? TimeUnit.NANOSECONDS.toMillis(_acceptedNanos - _sentNanos) : -1;
+    }
+
+    /**
+     *
+     * @return time from the cancel being accepted to the job being seen CANCELLED, or -1 if
+     *         it was not
+     */
+    public synchronized long getTerminalMillis()
+    {
+        if (_acceptedAt == null || !"CANCELLED".equals(_terminalStatus))
+            return -1;
+
+        return Math.max(TimeUnit.NANOSECONDS.toMillis(_terminalNanos - _acceptedNanos), 0);
+    }
+
+    /**
+     * Time from the cancel being accepted to a time taken from the gateway. The two clocks
+     * are only as close as the hosts keep them, so a time before the acceptance counts as
+     * no time at all.
+     *
+     * @param cancelledAt
+     * @return -1 if the cancel was not accepted
+     */
+    public synchronized long getMillisUntil(Instant cancelledAt)
+    {
+        if (_acceptedAt == null)
+            return -1;
+
+        return Math.max(Duration.between(_acceptedAt, cancelledAt).toMillis(), 0);
+    }
+}
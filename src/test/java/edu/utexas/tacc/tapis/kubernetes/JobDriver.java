@@ -0,0 +1,32 @@
+package edu.utexas.tacc.tapis.kubernetes;
+
+import java.io.IOException;
+
+
+/**
+ * The submit and wait steps of the job tests, exposed so that load and benchmark modes
+ * can drive the same flow as the functional tests.
+ */
+interface JobDriver
+{
+    /**
+     *
+     * @param job
+     * @return
+     * @throws HttpException
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    String submitJob(DefinitionRegistry.Definition job) throws HttpException, IOException, InterruptedException;
+
+    /**
+     *
+     * @param jobUuid
+     * @param handlers
+     * @return
+     * @throws HttpException
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    String waitForJobStatus(String jobUuid, JobStatusHandler... handlers) throws HttpException, IOException, InterruptedException;
+}
@@ -0,0 +1,259 @@
+package edu.utexas.tacc.tapis.kubernetes;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+
+/**
+ * Embedded webhook for Tapis notifications. Each delivery is a JSON notification whose
+ * event has the job UUID as its subject and the new status in its data; the receiver
+ * answers at once and hands the status to the listener registered for the job. Events
+ * for jobs nobody is listening to are counted and dropped.
+ *
+ * The delivery URL ends in a secret made up for each run, and requests to any other
+ * path are rejected without being read, so that only the gateway the URL was given to
+ * can post events. Without an explicit delivery address the receiver only listens on
+ * the loopback interface.
+ */
+class JobEventReceiver implements AutoCloseable
+{
+    // constants
+
+
+    public static final String PATH = "/events";
+
+    private static final int SECRET_BYTES = 24;
+
+
+    // data fields
+
+
+    private final HttpServer _server;
+    private final ExecutorService _executor;
+    private final String _deliveryAddress;
+    private final byte[] _path;
+    private final Map<String, Consumer<String>> _listeners;
+    private final AtomicLong _eventCount;
+    private final AtomicLong _unmatchedCount;
+    private final AtomicLong _rejectedCount;
+
+
+    // constructors
+
+
+    /**
+     *
+     * @param port 0 for any free port
+     * @param deliveryAddress URL the gateway can reach /events on the receiver at, or
+     *        null for http://localhost:port/events; the secret is appended to it
+     * @throws IOException
+     */
+    public JobEventReceiver(int port, String deliveryAddress) throws IOException
+    {
+        byte[] secret = new byte[SECRET_BYTES];
+
+        new SecureRandom().nextBytes(secret);
+
+        String suffix = "/" + HexFormat.of().formatHex(secret);
+        InetSocketAddress address = deliveryAddress != null ? new InetSocketAddress(port) : new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+
+        _server = HttpServer.create(address, 256);
+        _executor = Executors.newFixedThreadPool(2, task -> {
+            Thread thread = new Thread(task, "job-event-receiver");
+
+            thread.setDaemon(true);
+
+            return thread;
+        });
+        _listeners = new ConcurrentHashMap<String, Consumer<String>>();
+        _eventCount = new AtomicLong();
+        _unmatchedCount = new AtomicLong();
+        _rejectedCount = new AtomicLong();
+        _path = (PATH + suffix).getBytes(StandardCharsets.UTF_8);
+
+        _server.setExecutor(_executor);
+        _server.createContext(PATH, this::handle);
+        _server.start();
+
+        _deliveryAddress = (deliveryAddress != null ? deliveryAddress.replaceAll("/+$", "") : "http://localhost:" + _server.getAddress().getPort() + PATH) + suffix;
+    }
+
+
+    // public methods
+
+
+    /**
+     *
+     * @return the URL to give the gateway, secret included
+     */
+    public String getDeliveryAddress()
+    {
+        return _deliveryAddress;
+    }
+
+    /**
+     *
+     * @param jobUuid
+     * @param listener called with each status delivered for the job
+     */
+    public void listen(String jobUuid, Consumer<String> listener)
+    {
+        _listeners.put(jobUuid, listener);
+    }
+
+    /**
+     *
+     * @param jobUuid
+     */
+    public void remove(String jobUuid)
+    {
+        _listeners.remove(jobUuid);
+    }
+
+    /**
+     *
+     * @return
+     */
+    public long getEventCount()
+    {
+        return _eventCount.get();
+    }
+
+    /**
+     *
+     * @return the number of events for jobs without a listener, or that could not be read
+     */
+    public long getUnmatchedCount()
+    {
+        return _unmatchedCount.get();
+    }
+
+    /**
+     *
+     * @return the number of requests that were not a POST to the secret path
+     */
+    public long getRejectedCount()
+    {
+        return _rejectedCount.get();
+    }
+
+    /**
+     *
+     */
+    @Override
+    public void close()
+    {
+        _server.stop(0);
+        _executor.shutdownNow();
+    }
+
+
+    /**
+     * Reads the job UUID and new status from a notification, e.g.
+     * {"event": {"type": "jobs.JOB_NEW_STATUS.RUNNING", "subject": "...", "data": "{\"newJobStatus\": \"RUNNING\", ...}"}}.
+     * The data may also arrive as an object; without it the status is the last part of
+     * the event type.
+     *
+     * @param notification
+     * @return the job UUID and status, or null if this is not a job status event
+     * @throws IOException
+     */
+    static String[] parseEvent(JsonNode notification) throws IOException
+    {
+        JsonNode event = notification.has("event") ? notification.get("event") : notification;
+        String type = event.at("/type").asText();
+        String jobUuid = event.at("/subject").asText();
+
+        if (!type.contains("JOB_NEW_STATUS") || jobUuid.isEmpty())
+            return null;
+
+        JsonNode data = event.get("data");
+
+        if (data != null && data.isTextual())
+            data = JsonFieldExtractor.READER.readTree(data.asText());
+
+        String status = data != null ? data.at("/newJobStatus").asText() : "";
+
+        if (status.isEmpty())
+            status = type.substring(type.lastIndexOf('.') + 1);
+
+        return new String[] { jobUuid, status };
+    }
+
+
+    // private methods
+
+
+    /**
+     *
+     * @param exchange
+     * @throws IOException
+     */
+    private void handle(HttpExchange exchange) throws IOException
+    {
+        String[] event = null;
+
+        try (exchange) {
+            if (!isAuthorized(exchange)) {
+                _rejectedCount.incrementAndGet();
+
+                exchange.sendResponseHeaders(404, -1);
+
+                return;
+            }
+
+            try {
+                event = parseEvent(JsonFieldExtractor.READER.readTree(exchange.getRequestBody()));
+            }
+            catch (IOException err) {
+                event = null;
+            }
+
+            exchange.sendResponseHeaders(event != null ? 200 : 400, -1);
+        }
+
+        if (event == null) {
+            _unmatchedCount.incrementAndGet();
+
+            return;
+        }
+
+        _eventCount.incrementAndGet();
+
+        Consumer<String> listener = _listeners.get(event[0]);
+
+        if (listener != null)
+            listener.accept(event[1]);
+        else
+            _unmatchedCount.incrementAndGet();
+    }
+
+    /**
+     * Compares the path in constant time, so the secret cannot be guessed from how long
+     * a rejection takes.
+     *
+     * @param exchange
+     * @return true if this is a POST to the secret path
+     */
+    private boolean isAuthorized(HttpExchange exchange)
+    {
+        byte[] path = exchange.getRequestURI().getRawPath().getBytes(StandardCharsets.UTF_8);
+
+        return exchange.getRequestMethod().equals("POST") && MessageDigest.isEqual(path, _path);
+    }
+}
@@ -0,0 +1,137 @@
+package edu.utexas.tacc.tapis.kubernetes;
+
+
+/**
+ * Outcome of submitting and tracking a single job, collected so that concurrently run
+ * jobs can be checked and summarized together once they have all finished.
+ */
+class JobResult
+{
+    // data fields
+
+
+    private final String _jobName;
+    private final String _expectedStatus;
+    private final String _jobUuid;
+    private final String _status;
+    private final long _elapsedMillis;
+    private final Throwable _error;
+
+
+    // constructors
+
+
+    /**
+     *
+     * @param jobName
+     * @param expectedStatus
+     * @param jobUuid
+     * @param status
+     * @param elapsedMillis
+     * @param error
+     */
+    public JobResult(String jobName, String expectedStatus, String jobUuid, String status, long elapsedMillis, Throwable error)
+    {
+        _jobName = jobName;
+        _expectedStatus = expectedStatus;
+        _jobUuid = jobUuid;
+        _status = status;
+        _elapsedMillis = elapsedMillis;
+        _error = error;
+    }
+
+
+    // public methods
+
+
+    /**
+     *
+     * @return
+     */
+    public String getJobName()
+    {
+        return _jobName;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public String getExpectedStatus()
+    {
+        return _expectedStatus;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public String getJobUuid()
+    {
+        return _jobUuid;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public String getStatus()
+    {
+        return _status;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public long getElapsedMillis()
+    {
+        return _elapsedMillis;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public Throwable getError()
+    {
+        return _error;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public boolean isSuccess()
+    {
+        return _error == null && _jobUuid != null && _expectedStatus.equals(_status);
+    }
+
+    /**
+     *
+     * @return
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder result = new StringBuilder();
+
+        result.append(_jobName);
+        result.append(" (");
+        result.append(_jobUuid);
+        result.append("): status ");
+        result.append(_status);
+        result.append(", expected ");
+        result.append(_expectedStatus);
+        result.append(", ");
+        result.append(_elapsedMillis);
+        result.append(" ms");
+
+        if (_error != null) {
+            result.append(", error ");
+            result.append(_error);
+        }
+
+        return result.toString();
+    }
+}
@@ -0,0 +1,169 @@
+package edu.utexas.tacc.tapis.kubernetes;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * One job moving through the asynchronous pipeline, with a future for each stage:
+ * submission (the job UUID), each status the job reaches, the terminal status, the
+ * number of output files and the saved output. Callers can chain further work onto any
+ * stage, or wait for the JobResult once every stage is done.
+ *
+ * A stage that is never reached completes with null, or with the error that stopped
+ * the pipeline before it. As a status handler, the run records each status seen and
+ * ends the wait once the job is in a terminal state.
+ */
+class JobRun implements JobStatusHandler
+{
+    // data fields
+
+
+    private final String _jobName;
+    private final String _expectedStatus;
+    private final long _startNanos;
+    private final CompletableFuture<String> _submitted;
+    private final Map<String, CompletableFuture<Long>> _statuses;
+    private final CompletableFuture<String> _terminal;
+    private final CompletableFuture<Integer> _outputCount;
+    private final CompletableFuture<DownloadResult> _download;
+    private final CompletableFuture<JobResult> _result;
+
+
+    // constructors
+
+
+    /**
+     *
+     * @param jobName
+     * @param expectedStatus
+     */
+    public JobRun(String jobName, String expectedStatus)
+    {
+        _jobName = jobName;
+        _expectedStatus = expectedStatus;
+        _startNanos = System.nanoTime();
+        _submitted = new CompletableFuture<String>();
+        _statuses = new ConcurrentHashMap<String, CompletableFuture<Long>>();
+        _terminal = new CompletableFuture<String>();
+        _outputCount = new CompletableFuture<Integer>();
+        _download = new CompletableFuture<DownloadResult>();
+        _result = new CompletableFuture<JobResult>();
+    }
+
+
+    // public methods
+
+
+    /**
+     *
+     * @return the job UUID, or null if the gateway did not accept the job
+     */
+    public CompletableFuture<String> getSubmitted()
+    {
+        return _submitted;
+    }
+
+    /**
+     *
+     * @param status
+     * @return milliseconds from the start of the run to the first poll that saw the
+     *         status, or null if the job finished without reaching it
+     */
+    public CompletableFuture<Long> getStatus(String status)
+    {
+        return _statuses.computeIfAbsent(status, key -> new CompletableFuture<Long>());
+    }
+
+    /**
+     *
+     * @return
+     */
+    public CompletableFuture<String> getTerminal()
+    {
+        return _terminal;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public CompletableFuture<Integer> getOutputCount()
+    {
+        return _outputCount;
+    }
+
+    /**
+     *
+     * @return the saved output archive, or null if the output was not saved
+     */
+    public CompletableFuture<DownloadResult> getDownload()
+    {
+        return _download;
+    }
+
+    /**
+     *
+     * @return completes once every stage has, and never exceptionally
+     */
+    public CompletableFuture<JobResult> getResult()
+    {
+        return _result;
+    }
+
+    @Override
+    public boolean handleStatus(String status, String jobUuid)
+    {
+        getStatus(status).complete(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - _startNanos));
+
+        return JobStatusHandler.isTerminal(status);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> handleStatusAsync(String status, String jobUuid, Executor executor)
+    {
+        return CompletableFuture.completedFuture(handleStatus(status, jobUuid));
+    }
+
+    /**
+     * Completes the stages still pending and the result.
+     *
+     * @param error the failure that ended the pipeline, or null
+     */
+    public void finish(Throwable error)
+    {
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - _startNanos);
+
+        finishStage(_submitted, error);
+        finishStage(_terminal, error);
+        finishStage(_outputCount, error);
+        finishStage(_download, error);
+
+        for (CompletableFuture<Long> status : _statuses.values())
+            status.complete(null);
+
+        _result.complete(new JobResult(_jobName, _expectedStatus, _submitted.exceptionally(err -> null).join(),
+                                       _terminal.exceptionally(err -> null).join(), elapsed, error));
+    }
+
+
+    // private methods
+
+
+    /**
+     *
+     * @param <T>
+     * @param stage
+     * @param error
+     */
+    private static <T> void finishStage(CompletableFuture<T> stage, Throwable error)
+    {
+        if (error != null)
+            stage.completeExceptionally(error);
+        else
+            stage.complete(null);
+    }
+}
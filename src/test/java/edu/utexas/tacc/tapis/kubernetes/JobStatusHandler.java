@@ -0,0 +1,101 @@
+package edu.utexas.tacc.tapis.kubernetes;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+
+/**
+ * Called with each status seen while waiting for a job; returning true ends the wait.
+ * Handlers have a synchronous and an asynchronous form, and implement whichever suits
+ * them: the asynchronous form runs the synchronous one on an executor unless it is
+ * overridden, typically by a handler that chains Tapis calls.
+ */
+@FunctionalInterface
+interface JobStatusHandler
+{
+    /**
+     * The statuses a job passes through on the way to a terminal one, in order.
+     */
+    List<String> LIFECYCLE = List.of("PENDING", "PROCESSING_INPUTS", "STAGING_INPUTS", "STAGING_JOB", "SUBMITTING_JOB",
+                                     "QUEUED", "RUNNING", "ARCHIVING");
+
+
+    /**
+     *
+     * @param status
+     * @param jobUuid
+     * @return
+     * @throws HttpException
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    boolean handleStatus(String status, String jobUuid) throws HttpException, IOException, InterruptedException;
+
+    /**
+     *
+     * @param status
+     * @param jobUuid
+     * @param executor
+     * @return
+     */
+    default CompletableFuture<Boolean> handleStatusAsync(String status, String jobUuid, Executor executor)
+    {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return handleStatus(status, jobUuid);
+            }
+            catch (HttpException | IOException | InterruptedException err) {
+                throw new CompletionException(err);
+            }
+        }, executor);
+    }
+
+    /**
+     * Passes a status to each handler in turn, each starting once the one before it has
+     * completed.
+     *
+     * @param handlers
+     * @param status
+     * @param jobUuid
+     * @param executor
+     * @return true if any of the handlers ended the wait
+     */
+    static CompletableFuture<Boolean> dispatchAsync(JobStatusHandler[] handlers, String status, String jobUuid, Executor executor)
+    {
+        CompletableFuture<Boolean> terminate = CompletableFuture.completedFuture(false);
+
+        for (JobStatusHandler handler : handlers)
+            terminate = terminate.thenCompose(done -> handler.handleStatusAsync(status, jobUuid, executor).thenApply(result -> done || result));
+
+        return terminate;
+    }
+
+    /**
+     *
+     * @param status
+     * @return
+     */
+    static boolean isTerminal(String status)
+    {
+        return status.equals("FINISHED") || status.equals("FAILED") || status.equals("CANCELLED");
+    }
+
+    /**
+     * Gives the position of a status in the job lifecycle, with every terminal status
+     * after the others. Statuses a job can enter at any point, such as BLOCKED or PAUSED,
+     * have no position.
+     *
+     * @param status
+     * @return the position, or -1 if the status has none
+     */
+    static int getLifecycleOrder(String status)
+    {
+        if (isTerminal(status))
+            return LIFECYCLE.size();
+
+        return LIFECYCLE.indexOf(status);
+    }
+}
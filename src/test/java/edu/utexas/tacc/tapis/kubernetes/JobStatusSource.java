@@ -0,0 +1,21 @@
+package edu.utexas.tacc.tapis.kubernetes;
+
+import java.io.IOException;
+
+
+/**
+ * Looks up the current status of a job.
+ */
+@FunctionalInterface
+interface JobStatusSource
+{
+    /**
+     *
+     * @param jobUuid
+     * @return
+     * @throws HttpException
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    String getJobStatus(String jobUuid) throws HttpException, IOException, InterruptedException;
+}
@@ -0,0 +1,258 @@
+package edu.utexas.tacc.tapis.kubernetes;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Owns the status poll schedule for every tracked job. Polls run on a small scheduled
+ * pool instead of one sleeping thread per job, are paced to an optional global rate so
+ * the gateway sees a steady stream rather than bursts, and every observed status is
+ * dispatched to the job's handlers exactly as waitForJobStatus does. Handlers run on the
+ * executor they are given rather than the pool, so that one that blocks, sending a cancel
+ * or downloading output, delays only its own job's next poll. The future returned by
+ * watch() completes with the last status once a handler asks to stop or the job reaches
+ * a terminal state.
+ */
+class JobStatusWatcher implements AutoCloseable
+{
+    // nested classes
+
+
+    /**
+     *
+     */
+    private static class WatcherThreadFactory implements ThreadFactory
+    {
+        private final AtomicInteger _count = new AtomicInteger();
+
+
+        @Override
+        public Thread newThread(Runnable task)
+        {
+            Thread thread = new Thread(task, "status-watcher-" + _count.incrementAndGet());
+
+            thread.setDaemon(true);
+
+            return thread;
+        }
+    }
+
+    /**
+     *
+     */
+    private static class WatchedJob
+    {
+        private final String _jobUuid;
+        private final PollingPolicy _policy;
+        private final JobStatusHandler[] _handlers;
+        private final CompletableFuture<String> _result;
+        private String _status;
+        private int _samePolls;
+
+
+        /**
+         *
+         * @param jobUuid
+         * @param policy
+         * @param handlers
+         */
+        private WatchedJob(String jobUuid, PollingPolicy policy, JobStatusHandler[] handlers)
+        {
+            _jobUuid = jobUuid;
+            _policy = policy;
+            _handlers = handlers;
+            _result = new CompletableFuture<String>();
+        }
+    }
+
+
+    // data fields
+
+
+    private final JobStatusSource _source;
+    private final ScheduledExecutorService _scheduler;
+    private final Executor _handlerExecutor;
+    private final long _pollIntervalNanos;
+    private final AtomicLong _nextPollNanos;
+    private final AtomicLong _pollCount;
+    private final Map<String, WatchedJob> _jobs;
+
+
+    // constructors
+
+
+    /**
+     *
+     * @param source
+     * @param threads
+     * @param maxPollsPerSecond global poll rate limit, or 0 for none
+     * @param handlerExecutor where the handlers run
+     */
+    public JobStatusWatcher(JobStatusSource source, int threads, double maxPollsPerSecond, Executor handlerExecutor)
+    {
+        _source = source;
+        _scheduler = Executors.newScheduledThreadPool(threads, new WatcherThreadFactory());
+        _handlerExecutor = handlerExecutor;
+        _pollIntervalNanos = maxPollsPerSecond > 0.0 ? (long) (TimeUnit.SECONDS.toNanos(1) / maxPollsPerSecond) : 0;
+        _nextPollNanos = new AtomicLong(System.nanoTime());
+        _pollCount = new AtomicLong();
+        _jobs = new ConcurrentHashMap<String, WatchedJob>();
+    }
+
+
+    // public methods
+
+
+    /**
+     *
+     * @param jobUuid
+     * @param policy
+     * @param handlers
+     * @return
+     */
+    public CompletableFuture<String> watch(String jobUuid, PollingPolicy policy, JobStatusHandler... handlers)
+    {
+        WatchedJob job = new WatchedJob(jobUuid, policy, handlers);
+
+        if (_jobs.putIfAbsent(jobUuid, job) != null)
+            throw new IllegalStateException("job " + jobUuid + " is already being watched");
+
+        schedule(job, policy.getDelayMillis(null, 0));
+
+        return job._result;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int getActiveCount()
+    {
+        return _jobs.size();
+    }
+
+    /**
+     *
+     * @return
+     */
+    public long getPollCount()
+    {
+        return _pollCount.get();
+    }
+
+    /**
+     *
+     */
+    @Override
+    public void close()
+    {
+        _scheduler.shutdownNow();
+
+        for (WatchedJob job : _jobs.values())
+            job._result.cancel(false);
+
+        _jobs.clear();
+    }
+
+
+    // private methods
+
+
+    /**
+     *
+     * @param job
+     * @param delayMillis
+     */
+    private void schedule(WatchedJob job, long delayMillis)
+    {
+        _scheduler.schedule(() -> poll(job), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     *
+     * @param job
+     */
+    private void poll(WatchedJob job)
+    {
+        if (job._result.isDone()) {
+            _jobs.remove(job._jobUuid, job);
+
+            return;
+        }
+
+        long waitNanos = reservePollSlot();
+
+        if (waitNanos > 0) {
+            _scheduler.schedule(() -> poll(job), waitNanos, TimeUnit.NANOSECONDS);
+
+            return;
+        }
+
+        String status;
+
+        try {
+            status = _source.getJobStatus(job._jobUuid);
+        }
+        catch (Exception err) {
+            if (err instanceof InterruptedException)
+                Thread.currentThread().interrupt();
+
+            _jobs.remove(job._jobUuid, job);
+            job._result.completeExceptionally(err);
+
+            return;
+        }
+
+        _pollCount.incrementAndGet();
+
+        job._samePolls = status.equals(job._status) ? job._samePolls + 1 : 1;
+        job._status = status;
+
+        // the next poll is scheduled once the handlers are done with this status
+
+        JobStatusHandler.dispatchAsync(job._handlers, status, job._jobUuid, _handlerExecutor).whenComplete((terminate, err) -> {
+            if (err != null) {
+                _jobs.remove(job._jobUuid, job);
+                job._result.completeExceptionally(TapisClient.unwrap(err));
+            }
+            else if (terminate || JobStatusHandler.isTerminal(status)) {
+                _jobs.remove(job._jobUuid, job);
+                job._result.complete(status);
+            }
+            else if (!_scheduler.isShutdown())
+                schedule(job, job._policy.getDelayMillis(status, job._samePolls));
+        });
+    }
+
+    /**
+     * Takes the next slot in the global poll schedule if it is due, otherwise returns
+     * how long to wait for it.
+     *
+     * @return
+     */
+    private long reservePollSlot()
+    {
+        if (_pollIntervalNanos == 0)
+            return 0;
+
+        while (true) {
+            long now = System.nanoTime();
+            long next = _nextPollNanos.get();
+
+            if (next - now > 0)
+                return next - now;
+
+            if (_nextPollNanos.compareAndSet(next, now + _pollIntervalNanos))
+                return 0;
+        }
+    }
+}
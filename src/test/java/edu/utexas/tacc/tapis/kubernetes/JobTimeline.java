@@ -0,0 +1,281 @@
+package edu.utexas.tacc.tapis.kubernetes;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+
+/**
+ * The states a job went through and when. Transitions seen by polling are timed with
+ * System.nanoTime() from the moment the job was submitted, so they are monotonic but
+ * only as precise as the polling interval; the job history fetched from Tapis once the
+ * job has finished carries the gateway's own transition times, and is used for the
+ * phase durations when it is available.
+ */
+class JobTimeline
+{
+    // nested classes
+
+
+    /**
+     *
+     */
+    static class Transition
+    {
+        private final String _status;
+        private final long _offsetNanos;
+
+
+        /**
+         *
+         * @param status
+         * @param offsetNanos time since the start of the timeline
+         */
+        Transition(String status, long offsetNanos)
+        {
+            _status = status;
+            _offsetNanos = offsetNanos;
+        }
+
+        /**
+         *
+         * @return
+         */
+        public String getStatus()
+        {
+            return _status;
+        }
+
+        /**
+         *
+         * @return
+         */
+        public long getOffsetMillis()
+        {
+            return TimeUnit.NANOSECONDS.toMillis(_offsetNanos);
+        }
+    }
+
+
+    // data fields
+
+
+    private final String _jobUuid;
+    private final String _appId;
+    private final long _submittedNanos;
+    private final Instant _submittedAt;
+    private final List<Transition> _observed;
+    private List<Transition> _history;
+    private Instant _historyStart;
+
+
+    // constructors
+
+
+    /**
+     *
+     * @param jobUuid
+     * @param appId
+     * @param submittedNanos System.nanoTime() just before the job was submitted
+     */
+    public JobTimeline(String jobUuid, String appId, long submittedNanos)
+    {
+        _jobUuid = jobUuid;
+        _appId = appId;
+        _submittedNanos = submittedNanos;
+        _submittedAt = Instant.now().minusNanos(System.nanoTime() - submittedNanos);
+        _observed = new ArrayList<Transition>();
+    }
+
+
+    // public methods
+
+
+    /**
+     *
+     * @return
+     */
+    public String getJobUuid()
+    {
+        return _jobUuid;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public String getAppId()
+    {
+        return _appId;
+    }
+
+    /**
+     * Records a polled status if it differs from the last one recorded.
+     *
+     * @param status
+     * @return the new transition, or null if the status has not changed
+     */
+    public synchronized Transition observe(String status)
+    {
+        if (!_observed.isEmpty() && _observed.get(_observed.size() - 1)._status.equals(status))
+            return null;
+
+        Transition transition = new Transition(status, System.nanoTime() - _submittedNanos);
+
+        _observed.add(transition);
+
+        return transition;
+    }
+
+    /**
+     * Sets the transitions from a jobs/{uuid}/history result: the JOB_NEW_STATUS events,
+     * timed from the first of them.
+     *
+     * @param result the result array of the history response
+     */
+    public synchronized void setHistory(JsonNode result)
+    {
+        List<Transition> history = new ArrayList<Transition>();
+        Instant start = null;
+
+        for (JsonNode event : result) {
+            if (!event.at("/event").asText().equals("JOB_NEW_STATUS"))
+                continue;
+
+            Instant created = Instant.parse(event.at("/created").asText());
+
+            if (start == null)
+                start = created;
+
+            history.add(new Transition(event.at("/eventDetail").asText(), Duration.between(start, created).toNanos()));
+        }
+
+        _history = history;
+        _historyStart = start;
+    }
+
+    /**
+     *
+     * @return true if the phase durations come from the job history
+     */
+    public synchronized boolean hasHistory()
+    {
+        return _history != null && !_history.isEmpty();
+    }
+
+    /**
+     *
+     * @param status
+     * @return the gateway's time for the job first entering the status, or null if the
+     *         history is unavailable or does not have it
+     */
+    public synchronized Instant getHistoryTime(String status)
+    {
+        if (!hasHistory())
+            return null;
+
+        for (Transition transition : _history) {
+            if (transition._status.equals(status))
+                return _historyStart.plusNanos(transition._offsetNanos);
+        }
+
+        return null;
+    }
+
+    /**
+     * How long after the gateway recorded each status it was first seen here, for the
+     * observed statuses the history also has. The two clocks are only as close as the
+     * hosts keep them, so a status seen before its history time counts as seen at once.
+     *
+     * @return detection delay by status, in the order the statuses were observed
+     */
+    public synchronized Map<String, Long> getDetectionMillis()
+    {
+        Map<String, Long> detection = new LinkedHashMap<String, Long>();
+
+        for (Transition transition : _observed) {
+            Instant recorded = getHistoryTime(transition._status);
+
+            if (recorded == null)
+                continue;
+
+            long millis = Duration.between(recorded, _submittedAt.plusNanos(transition._offsetNanos)).toMillis();
+
+            detection.putIfAbsent(transition._status, Math.max(millis, 0));
+        }
+
+        return detection;
+    }
+
+    /**
+     * Time spent in each state the job left, in the order the states were entered. A
+     * state entered more than once has its durations summed.
+     *
+     * @return
+     */
+    public synchronized Map<String, Long> getPhaseMillis()
+    {
+        List<Transition> transitions = hasHistory() ? _history : _observed;
+        Map<String, Long> phases = new LinkedHashMap<String, Long>();
+
+        for (int i = 0 ; i + 1 < transitions.size() ; i++) {
+            long millis = TimeUnit.NANOSECONDS.toMillis(transitions.get(i + 1)._offsetNanos - transitions.get(i)._offsetNanos);
+
+            phases.merge(transitions.get(i)._status, millis, Long::sum);
+        }
+
+        return phases;
+    }
+
+    /**
+     *
+     * @param node
+     */
+    public synchronized void writeTo(ObjectNode node)
+    {
+        node.put("jobUuid", _jobUuid);
+        node.put("appId", _appId);
+        node.put("submittedAt", _submittedAt.toString());
+        node.put("phaseSource", hasHistory() ? "history" : "observed");
+
+        writeTransitions(node.putArray("observed"), _observed);
+
+        if (hasHistory()) {
+            node.put("historyStart", _historyStart.toString());
+
+            writeTransitions(node.putArray("history"), _history);
+        }
+
+        ObjectNode phases = node.putObject("phaseMillis");
+
+        for (Map.Entry<String, Long> phase : getPhaseMillis().entrySet())
+            phases.put(phase.getKey(), phase.getValue());
+    }
+
+
+    // private methods
+
+
+    /**
+     *
+     * @param array
+     * @param transitions
+     */
+    private static void writeTransitions(ArrayNode array, List<Transition> transitions)
+    {
+        for (Transition transition : transitions) {
+            ObjectNode item = array.addObject();
+
+            item.put("status", transition._status);
+            item.put("offsetMillis", transition.getOffsetMillis());
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package edu.utexas.tacc.tapis.kubernetes;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+
+/**
+ * Pulls a fixed set of scalar fields out of a JSON document with a streaming parser,
+ * without building a tree. Objects that cannot contain a requested field are skipped,
+ * and parsing stops as soon as every field has been seen, so a status poll only reads
+ * as far as the status value. Instances are immutable and can be shared across threads.
+ *
+ * Values are returned as text with the same conventions as JsonNode.asText(): a missing
+ * field is the empty string and a JSON null is "null".
+ */
+final class JsonFieldExtractor
+{
+    // constants
+
+
+    public static final ObjectMapper MAPPER = new ObjectMapper();
+    public static final ObjectReader READER = MAPPER.reader();
+
+    private static final JsonFactory FACTORY = MAPPER.getFactory();
+    private static final int MAX_DEPTH = 16;
+
+
+    // data fields
+
+
+    private final String[][] _paths;
+    private final int _maxDepth;
+
+
+    // constructors
+
+
+    /**
+     *
+     * @param pointers JSON pointers to object fields, e.g. "/result/status"
+     */
+    public JsonFieldExtractor(String... pointers)
+    {
+        _paths = new String[pointers.length][];
+
+        int maxDepth = 0;
+
+        for (int i = 0 ; i < pointers.length ; i++) {
+            if (!pointers[i].startsWith("/") || pointers[i].length() < 2)
+                throw new IllegalArgumentException("invalid field pointer " + pointers[i]);
+
+            String[] path = pointers[i].substring(1).split("/");
+
+            if (path.length > MAX_DEPTH)
+                throw new IllegalArgumentException("field pointer " + pointers[i] + " is nested too deeply");
+
+            for (int j = 0 ; j < path.length ; j++)
+                path[j] = path[j].intern();
+
+            _paths[i] = path;
+            maxDepth = Math.max(maxDepth, path.length);
+        }
+
+        _maxDepth = maxDepth;
+    }
+
+
+    // public methods
+
+
+    /**
+     *
+     * @param json
+     * @return one value per pointer, in the order given to the constructor
+     * @throws IOException
+     */
+    public String[] extract(String json) throws IOException
+    {
+        String[] values = new String[_paths.length];
+        String[] names = new String[_maxDepth];
+        int remaining = _paths.length;
+        int depth = 0;
+
+        try (JsonParser parser = FACTORY.createParser(json)) {
+            JsonToken token = parser.nextToken();
+
+            if (token == JsonToken.START_OBJECT) {
+                while (remaining > 0 && (token = parser.nextToken()) != null) {
+                    if (token == JsonToken.END_OBJECT) {
+                        if (depth == 0)
+                            break;
+
+                        depth -= 1;
+
+                        continue;
+                    }
+
+                    // the only other tokens seen here are field names of objects on the path
+
+                    names[depth] = parser.getCurrentName();
+                    token = parser.nextToken();
+
+                    int match = findMatch(names, depth + 1, values);
+
+                    if (match >= 0 && token.isScalarValue()) {
+                        values[match] = token == JsonToken.VALUE_NULL ? "null" : parser.getText();
+                        remaining -= 1;
+                    }
+                    else if (token == JsonToken.START_OBJECT && depth + 1 < _maxDepth && isPrefix(names, depth + 1))
+                        depth += 1;
+                    else
+                        parser.skipChildren();
+                }
+            }
+        }
+
+        for (int i = 0 ; i < values.length ; i++) {
+            if (values[i] == null)
+                values[i] = "";
+        }
+
+        return values;
+    }
+
+
+    // private methods
+
+
+    /**
+     *
+     * @param names
+     * @param length
+     * @param values
+     * @return
+     */
+    private int findMatch(String[] names, int length, String[] values)
+    {
+        for (int i = 0 ; i < _paths.length ; i++) {
+            if (values[i] == null && _paths[i].length == length && matches(_paths[i], names, length))
+                return i;
+        }
+
+        return -1;
+    }
+
+    /**
+     *
+     * @param names
+     * @param length
+     * @return
+     */
+    private boolean isPrefix(String[] names, int length)
+    {
+        for (String[] path : _paths) {
+            if (path.length > length && matches(path, names, length))
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     *
+     * @param path
+     * @param names
+     * @param length
+     * @return
+     */
+    private static boolean matches(String[] path, String[] names, int length)
+    {
+        for (int i = 0 ; i < length ; i++) {
+            if (!path[i].equals(names[i]))
+                return false;
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,132 @@
+package edu.utexas.tacc.tapis.kubernetes;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+
+/**
+ * Compares the original per-call ObjectMapper tree parsing with the shared reader and
+ * the streaming field extractor on representative status, submit and output listing
+ * responses. Run with -prof gc to see the allocation rate per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonParsingBenchmark
+{
+    // constants
+
+
+    private static final String STATUS_RESPONSE =
+        "{\"result\":{\"status\":\"RUNNING\"},\"status\":\"success\",\"message\":\"JOBS_STATUS_RETRIEVED Status of job "
+        + "3b7f8c1e-7a0b-4d5c-9f4e-8a3c2d1e0f9a-007 retrieved.\",\"version\":\"1.6.0\",\"commit\":\"a1b2c3d4\","
+        + "\"build\":\"2024-01-01T00:00:00Z\",\"metadata\":null}";
+
+    private static final String SUBMIT_RESPONSE;
+
+    private static final String OUTPUT_LIST_RESPONSE;
+
+    private static final JsonFieldExtractor JOB_STATUS_FIELDS = new JsonFieldExtractor("/result/status");
+    private static final JsonFieldExtractor SUBMIT_FIELDS = new JsonFieldExtractor("/status", "/result/uuid");
+    private static final JsonFieldExtractor OUTPUT_LIST_FIELDS = new JsonFieldExtractor("/status", "/metadata/recordCount");
+
+    static {
+        StringBuilder submit = new StringBuilder();
+
+        submit.append("{\"result\":{\"id\":1234,\"name\":\"test sleep job\",\"owner\":\"testuser\",\"tenant\":\"dev\",");
+        submit.append("\"description\":\"test sleep job\",\"status\":\"PENDING\",\"condition\":null,\"lastMessage\":\"Job created\",");
+        submit.append("\"created\":\"2024-01-01T00:00:00Z\",\"ended\":null,\"lastUpdated\":\"2024-01-01T00:00:00Z\",");
+        submit.append("\"uuid\":\"3b7f8c1e-7a0b-4d5c-9f4e-8a3c2d1e0f9a-007\",\"appId\":\"tapis.kubernetes.test.sleep\",\"appVersion\":\"1.0\",");
+        submit.append("\"archiveOnAppError\":true,\"execSystemId\":\"kubernetes\",\"parameterSet\":{\"schedulerOptions\":[");
+
+        for (int i = 0 ; i < 20 ; i++)
+            submit.append(i == 0 ? "" : ",").append("{\"name\":\"option").append(i).append("\",\"arg\":\"spec.template.spec.containers.args+=\\\"5\\\"\"}");
+
+        submit.append("],\"envVariables\":[]},\"notes\":\"{}\",\"tags\":[]},\"status\":\"success\",");
+        submit.append("\"message\":\"JOBS_CREATED Job created.\",\"version\":\"1.6.0\",\"metadata\":null}");
+
+        SUBMIT_RESPONSE = submit.toString();
+
+        StringBuilder list = new StringBuilder();
+
+        list.append("{\"result\":[");
+
+        for (int i = 0 ; i < 10 ; i++) {
+            list.append(i == 0 ? "" : ",");
+            list.append("{\"mimeType\":\"text/plain\",\"type\":\"file\",\"owner\":\"1000\",\"group\":\"1000\",\"nativePermissions\":\"rw-r--r--\",");
+            list.append("\"url\":\"tapis://kubernetes/jobs/output/file").append(i).append("\",\"lastModified\":\"2024-01-01T00:00:00Z\",");
+            list.append("\"name\":\"file").append(i).append("\",\"path\":\"jobs/output/file").append(i).append("\",\"size\":1024}");
+        }
+
+        list.append("],\"status\":\"success\",\"message\":\"ok\",\"version\":\"1.6.0\",\"metadata\":{\"recordCount\":10,\"recordLimit\":100}}");
+
+        OUTPUT_LIST_RESPONSE = list.toString();
+    }
+
+
+    // public methods
+
+
+    @Benchmark
+    public String statusNewMapper() throws IOException
+    {
+        return (new ObjectMapper()).readTree(STATUS_RESPONSE).at("/result/status").asText();
+    }
+
+    @Benchmark
+    public String statusSharedReader() throws IOException
+    {
+        return JsonFieldExtractor.READER.readTree(STATUS_RESPONSE).at("/result/status").asText();
+    }
+
+    @Benchmark
+    public String statusStreaming() throws IOException
+    {
+        return JOB_STATUS_FIELDS.extract(STATUS_RESPONSE)[0];
+    }
+
+    @Benchmark
+    public String submitNewMapper() throws IOException
+    {
+        return (new ObjectMapper()).readTree(SUBMIT_RESPONSE).at("/result/uuid").asText();
+    }
+
+    @Benchmark
+    public String submitSharedReader() throws IOException
+    {
+        return JsonFieldExtractor.READER.readTree(SUBMIT_RESPONSE).at("/result/uuid").asText();
+    }
+
+    @Benchmark
+    public String submitStreaming() throws IOException
+    {
+        return SUBMIT_FIELDS.extract(SUBMIT_RESPONSE)[1];
+    }
+
+    @Benchmark
+    public int outputListNewMapper() throws IOException
+    {
+        return (new ObjectMapper()).readTree(OUTPUT_LIST_RESPONSE).at("/metadata/recordCount").asInt();
+    }
+
+    @Benchmark
+    public int outputListStreaming() throws IOException
+    {
+        return Integer.parseInt(OUTPUT_LIST_FIELDS.extract(OUTPUT_LIST_RESPONSE)[1]);
+    }
+}
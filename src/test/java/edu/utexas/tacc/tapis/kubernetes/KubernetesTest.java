@@ -1,29 +1,56 @@
 package edu.utexas.tacc.tapis.kubernetes;
 
-import java.io.FileOutputStream;
-import java.io.FileWriter;
 import java.io.InputStream;
 import java.io.IOException;
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
+import java.lang.reflect.Method;
 import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.function.Function;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
 
 import org.testng.Assert;
+import org.testng.SkipException;
 import org.testng.annotations.AfterSuite;
 import org.testng.annotations.BeforeSuite;
+import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
+import org.testng.asserts.SoftAssert;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 
 
 /**
- *
+ * Each job definition is a row of the jobDefinitions data provider, so that it is
+ * reported on its own and can run alongside the others. Run with the parallel Maven
+ * profile, test methods and rows share this instance from several threads: the fields
+ * are set once in setup, and the state the tests change afterwards is held in
+ * concurrent collections, or in the client, token provider and job slots, which are
+ * safe to share.
  */
 @Test(groups={"integration"})
 public class KubernetesTest
@@ -32,132 +59,501 @@ public class KubernetesTest
 
 
     /**
-     *
+     * Cancels each job the first time it is seen RUNNING, whatever the number of times it
+     * is seen RUNNING after that. A cancel request that fails, or that the gateway does not
+     * answer with success, is sent again after a delay, up to TAPIS_CANCEL_ATTEMPTS
+     * requests; the gateway treats a repeated cancel as a no-op, so a retry cannot do harm.
+     * The cancellations are kept until they are removed, for their latencies to be
+     * reported.
      */
-    private enum HttpMethod {
-        GET,
-        POST,
-        PUT,
-        DELETE
-    };
+    private class CancelJob implements JobStatusHandler
+    {
+        private final Map<String, JobCancellation> _cancellations = new ConcurrentHashMap<String, JobCancellation>();
+
+
+        @Override
+        public boolean handleStatus(String status, String jobUuid) throws HttpException, IOException, InterruptedException
+        {
+            // waits on the blocking executor, which cannot be held up by the wait
+            return TapisClient.await(handleStatusAsync(status, jobUuid, _blockingExecutor));
+        }
+
+        @Override
+        public CompletableFuture<Boolean> handleStatusAsync(String status, String jobUuid, Executor executor)
+        {
+            if (JobStatusHandler.isTerminal(status)) {
+                JobCancellation cancellation = _cancellations.get(jobUuid);
+
+                if (cancellation != null)
+                    cancellation.terminate(status);
+
+                return CompletableFuture.completedFuture(false);
+            }
+
+            if (!status.equals("RUNNING"))
+                return CompletableFuture.completedFuture(false);
+
+            JobCancellation cancellation = _cancellations.computeIfAbsent(jobUuid, JobCancellation::new);
+
+            if (!cancellation.startAttempt(_cancelAttempts))
+                return CompletableFuture.completedFuture(false);
+
+            return sendCancelAsync(cancellation, executor).thenApply(result -> false);
+        }
+
+        /**
+         *
+         * @return the cancellations started so far
+         */
+        private Collection<JobCancellation> getCancellations()
+        {
+            return _cancellations.values();
+        }
+
+        /**
+         *
+         * @param jobUuid
+         */
+        private void remove(String jobUuid)
+        {
+            _cancellations.remove(jobUuid);
+        }
+
+        /**
+         * Sends the cancel request claimed by the caller, and the ones after it until one is
+         * accepted or the attempts are used up.
+         *
+         * @param cancellation
+         * @param executor
+         * @return
+         */
+        private CompletableFuture<String> sendCancelAsync(JobCancellation cancellation, Executor executor)
+        {
+            return cancelJobAsync(cancellation.getJobUuid(), executor).handle((status, err) -> {
+                boolean accepted = err == null && status.equals("success");
+
+                cancellation.finishAttempt(accepted);
+
+                if (accepted)
+                    return CompletableFuture.completedFuture(status);
+
+                int attempt = cancellation.getAttempts();
+
+                if (!cancellation.startAttempt(_cancelAttempts)) {
+                    if (err != null)
+                        return CompletableFuture.<String>failedFuture(TapisClient.unwrap(err));
+
+                    return CompletableFuture.completedFuture(status);
+                }
+
+                System.out.println("cancel attempt " + attempt + " for job " + cancellation.getJobUuid() + " failed, "
+                                   + (err != null ? TapisClient.unwrap(err) : "status is " + status) + ", trying again");
+
+                Executor delayed = CompletableFuture.delayedExecutor(CANCEL_RETRY_DELAY_MILLIS * attempt, TimeUnit.MILLISECONDS, executor);
+
+                return CompletableFuture.supplyAsync(() -> cancellation, delayed).thenCompose(next -> sendCancelAsync(next, executor));
+            }).thenCompose(result -> result);
+        }
+    }
 
     /**
-     *
+     * Polls one job's status on the pipeline executor, scheduling each poll after the
+     * delay the polling policy asks for instead of sleeping through it.
      */
-    private static class HttpException extends Exception {
+    private class StatusPoll
+    {
+        private final String _jobUuid;
+        private final PollingPolicy _policy;
+        private final JobStatusHandler[] _handlers;
+        private final String _path;
+        private final CompletableFuture<String> _result;
+        private String _status;
+        private int _samePolls;
+        private int _polls;
 
-        private final int _statusCode;
 
+        /**
+         *
+         * @param jobUuid
+         * @param policy
+         * @param handlers
+         */
+        private StatusPoll(String jobUuid, PollingPolicy policy, JobStatusHandler[] handlers)
+        {
+            _jobUuid = jobUuid;
+            _policy = policy;
+            _handlers = handlers;
+            _path = "jobs/" + jobUuid + "/status";
+            _result = new CompletableFuture<String>();
+        }
 
         /**
          *
-         * @param code
-         * @param message
+         * @return the status at which a handler ended the wait
          */
-        private HttpException(int code, String message)
+        private CompletableFuture<String> start()
         {
-            super(message);
+            System.out.println("waiting for status for job " + _jobUuid + "...");
 
-            _statusCode = code;
+            schedule();
+
+            return _result;
         }
 
+        /**
+         *
+         */
+        private void schedule()
+        {
+            Executor delayed = CompletableFuture.delayedExecutor(_policy.getDelayMillis(_status, _samePolls), TimeUnit.MILLISECONDS, _pipelineExecutor);
+
+            CompletableFuture.supplyAsync(this::poll, delayed).thenCompose(Function.identity()).whenComplete((done, err) -> {
+                if (err != null)
+                    _result.completeExceptionally(TapisClient.unwrap(err));
+                else if (!done)
+                    schedule();
+            });
+        }
 
         /**
          *
-         * @param code
-         * @param source
-         * @return
-         * @throws IOException
+         * @return true once the wait is over
          */
-        public static HttpException createInstance(int code, Object source) throws IOException
+        private CompletableFuture<Boolean> poll()
         {
-            String message;
+            CompletableFuture<String> response;
+            CompletableFuture<String> current;
+
+            if (_batchedSource != null) {
+                response = CompletableFuture.completedFuture(null);
+                current = CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return _batchedSource.getJobStatus(_jobUuid);
+                    }
+                    catch (HttpException | IOException | InterruptedException err) {
+                        throw new CompletionException(err);
+                    }
+                }, _blockingExecutor);
+            }
+            else {
+                response = callAsync(_path, HttpMethod.GET, null);
+                current = response.thenApply(body -> extractField(JOB_STATUS_FIELDS, body));
+            }
 
-            if (source instanceof String)
-                message = (String) source;
-            else if (source instanceof InputStream)
-                message = new String(((InputStream) source).readAllBytes());
-            else
-                message = null;
+            return current.thenComposeAsync(status -> {
+                _samePolls = status.equals(_status) ? _samePolls + 1 : 1;
+                _status = status;
+                _polls += 1;
+
+                System.out.println("status is " + status);
 
-            return new HttpException(code, message);
+                return JobStatusHandler.dispatchAsync(_handlers, status, _jobUuid, _blockingExecutor);
+            }, _pipelineExecutor)
+            .thenApply(terminate -> {
+                if (terminate)
+                    finish(response.join());
+
+                return terminate;
+            });
         }
 
         /**
          *
-         * @return
+         * @param response the last status response, or null if it came from a batch
          */
-        public int getStatusCode()
+        private void finish(String response)
         {
-            return _statusCode;
+            if (response != null) {
+                String location;
+
+                try {
+                    location = _artifacts.write(_jobUuid, "status", response);
+                }
+                catch (IOException err) {
+                    throw new CompletionException(err);
+                }
+
+                System.out.println("finished waiting for status for job " + _jobUuid + " after " + _polls + " polls, response written to " + location);
+            }
+            else
+                System.out.println("finished waiting for status for job " + _jobUuid + " after " + _polls + " polls, status is " + _status);
+
+            _result.complete(_status);
         }
     }
 
     /**
-     *
+     * Waits for a job on the statuses the event receiver is sent for it by a notification
+     * subscription. The job is polled once the subscription is in place, for the statuses
+     * it entered before, and after that only at the safety net interval in case a
+     * delivery is lost. Statuses from either source are passed to the handlers one at a
+     * time and only the first time they are seen; a terminal status ends the wait even if
+     * no handler asks to, since nothing will follow it.
      */
-    @FunctionalInterface
-    private interface JobStatusHandler
+    private class EventWait
     {
+        private final String _jobUuid;
+        private final JobStatusHandler[] _handlers;
+        private final String _path;
+        private final CompletableFuture<String> _result;
+        private final Set<String> _seen;
+        private CompletableFuture<Boolean> _dispatched;
+        private CompletableFuture<Void> _nextPoll;
+        private int _lastOrder;
+        private int _events;
+        private int _polls;
+
+
         /**
          *
-         * @param status
          * @param jobUuid
-         * @return
-         * @throws HttpException
-         * @throws InterruptedException
-         * @throws IOException
+         * @param handlers
          */
-        boolean handleStatus(String status, String jobUuid) throws HttpException, IOException, InterruptedException;
-    }
+        private EventWait(String jobUuid, JobStatusHandler[] handlers)
+        {
+            _jobUuid = jobUuid;
+            _handlers = handlers;
+            _path = "jobs/" + jobUuid + "/status";
+            _result = new CompletableFuture<String>();
+            _seen = new HashSet<String>();
+            _dispatched = CompletableFuture.completedFuture(false);
+            _lastOrder = -1;
+        }
 
-    /**
-     *
-     */
-    private class FinishWaiting implements JobStatusHandler
-    {
-        @Override
-        public boolean handleStatus(String status, String jobUuid) throws HttpException, IOException, InterruptedException
+        /**
+         *
+         * @return the status at which the wait ended
+         */
+        private CompletableFuture<String> start()
+        {
+            System.out.println("waiting for status events for job " + _jobUuid + "...");
+
+            _eventReceiver.listen(_jobUuid, status -> offer(status, true));
+
+            subscribeAsync(_jobUuid).whenComplete((response, err) -> {
+                if (err != null)
+                    _result.completeExceptionally(TapisClient.unwrap(err));
+                else
+                    poll();
+            });
+
+            return _result.whenComplete((status, err) -> _eventReceiver.remove(_jobUuid));
+        }
+
+        /**
+         *
+         */
+        private void poll()
         {
-            if (status.equals("FINISHED") || status.equals("FAILED") || status.equals("CANCELLED")) {
-                int count = getJobOutputCount(jobUuid);
+            if (_result.isDone())
+                return;
 
-                if (count > 0) {
-                    String filename = downloadJobOutput(jobUuid);
+            callAsync(_path, HttpMethod.GET, null).thenApply(body -> extractField(JOB_STATUS_FIELDS, body)).whenComplete((status, err) -> {
+                if (err != null) {
+                    _result.completeExceptionally(TapisClient.unwrap(err));
 
-                    System.out.println("saved output for job " + jobUuid + " to " + filename);
+                    return;
                 }
 
+                offer(status, false);
+                schedulePoll();
+            });
+        }
+
+        /**
+         * Schedules the next safety net poll as a timeout that finish() can cancel, so that
+         * a finished wait is not kept until the poll would have run.
+         */
+        private synchronized void schedulePoll()
+        {
+            if (_result.isDone())
+                return;
+
+            _nextPoll = new CompletableFuture<Void>().completeOnTimeout(null, _eventPollMillis, TimeUnit.MILLISECONDS);
+            _nextPoll.thenRunAsync(this::poll, _pipelineExecutor);
+        }
+
+        /**
+         * Dispatches a status the first time it is seen. Events and polls can arrive out of
+         * order, so a status earlier in the lifecycle than one already dispatched is stale
+         * and dropped.
+         *
+         * @param status
+         * @param pushed true if the status came from an event
+         */
+        private synchronized void offer(String status, boolean pushed)
+        {
+            if (pushed)
+                _events += 1;
+            else
+                _polls += 1;
+
+            int order = JobStatusHandler.getLifecycleOrder(status);
+
+            if (_result.isDone() || (order >= 0 && order < _lastOrder) || !_seen.add(status))
+                return;
+
+            if (order >= 0)
+                _lastOrder = order;
+
+            _dispatched = _dispatched.thenComposeAsync(done -> {
+                if (done)
+                    return CompletableFuture.completedFuture(true);
+
+                System.out.println("status is " + status + (pushed ? " (event)" : " (poll)"));
+
+                return JobStatusHandler.dispatchAsync(_handlers, status, _jobUuid, _blockingExecutor).thenApply(terminate -> {
+                    if (!terminate && !JobStatusHandler.isTerminal(status))
+                        return false;
+
+                    finish(status);
+
+                    return true;
+                });
+            }, _pipelineExecutor)
+            .exceptionally(err -> {
+                _result.completeExceptionally(TapisClient.unwrap(err));
+
                 return true;
-            }
+            });
+        }
+
+        /**
+         *
+         * @param status
+         */
+        private synchronized void finish(String status)
+        {
+            System.out.println("finished waiting for status events for job " + _jobUuid + " after " + _events + " events and " + _polls + " polls, status is " + status);
+
+            _result.complete(status);
 
-            return false;
+            if (_nextPoll != null)
+                _nextPoll.cancel(false);
         }
     }
 
     /**
      *
      */
-    private class CancelJob implements JobStatusHandler
+    private class TestJobDriver implements JobDriver
     {
+        private final PollingPolicy _policy;
+
+
+        /**
+         *
+         * @param policy
+         */
+        private TestJobDriver(PollingPolicy policy)
+        {
+            _policy = policy;
+        }
+
         @Override
-        public boolean handleStatus(String status, String jobUuid) throws HttpException, IOException, InterruptedException
+        public String submitJob(DefinitionRegistry.Definition job) throws HttpException, IOException, InterruptedException
+        {
+            return KubernetesTest.this.submitJob(job);
+        }
+
+        @Override
+        public String waitForJobStatus(String jobUuid, JobStatusHandler... handlers) throws HttpException, IOException, InterruptedException
+        {
+            return KubernetesTest.this.waitForJobStatus(jobUuid, _policy, handlers);
+        }
+    }
+
+    /**
+     * A job definition to run, read along with its output rules.
+     */
+    private class JobSubmission
+    {
+        private final DefinitionRegistry.Definition _job;
+        private final String _jobName;
+        private final OutputRules _rules;
+        private final String _expected;
+        private final PollingPolicy _policy;
+        private final JobStatusHandler[] _handlers;
+
+
+        /**
+         *
+         * @param resourceName
+         * @param expected
+         * @param policy
+         * @param handlers
+         * @throws IOException
+         */
+        private JobSubmission(String resourceName, String expected, PollingPolicy policy, JobStatusHandler... handlers) throws IOException
         {
-            if (status.equals("RUNNING"))
-                cancelJob(jobUuid);
+            this(_definitions.getJob(resourceName), OutputRules.forJob(resourceName), expected, policy, handlers);
+        }
 
-            return false;
+        /**
+         *
+         * @param job
+         * @param rules null if the output is not checked
+         * @param expected
+         * @param policy
+         * @param handlers
+         */
+        private JobSubmission(DefinitionRegistry.Definition job, OutputRules rules, String expected, PollingPolicy policy, JobStatusHandler... handlers)
+        {
+            _job = job;
+            _jobName = job.getField("/name");
+            _rules = rules;
+            _expected = expected;
+            _policy = policy;
+            _handlers = handlers;
         }
     }
 
 
+    // constants
+
+
+    private static final JsonFieldExtractor STATUS_FIELDS = new JsonFieldExtractor("/status");
+    private static final JsonFieldExtractor SUBMIT_FIELDS = new JsonFieldExtractor("/status", "/result/uuid");
+    private static final JsonFieldExtractor JOB_STATUS_FIELDS = new JsonFieldExtractor("/result/status");
+    private static final JsonFieldExtractor OUTPUT_LIST_FIELDS = new JsonFieldExtractor("/status", "/metadata/recordCount");
+    private static final int EVENT_SUBSCRIPTION_TTL_MINUTES = 1440;
+    private static final long CANCEL_RETRY_DELAY_MILLIS = 1000;
+    private static final Map<String, Object[][]> JOB_DEFINITIONS = Map.of(
+        "submitJobTest", new Object[][] { { "sleep_job.json" }, { "mpi_pi_job.json" } },
+        "cancelJobTest", new Object[][] { { "sleep_cancel_job.json" }, { "mpi_pi_job.json" } },
+        "failJobTest", new Object[][] { { "sleep_fail_job.json" } });
+
+
     // data fields
 
 
     private String _execSystemId;
     private String _tapisUrlBase;
-    private String _token;
+    private MockTapisServer _mockServer;
+    private HttpReplayServer _replayServer;
+    private HttpRecorder _httpRecorder;
+    private TapisClient _client;
+    private BatchedJobStatusSource _batchedSource;
+    private JobStatusWatcher _watcher;
+    private JobEventReceiver _eventReceiver;
+    private long _eventPollMillis;
+    private TokenProvider _tokenProvider;
+    private DefinitionRegistry _definitions;
+    private ArtifactSink _artifacts;
     private List<String> _appIds;
+    private int _jobConcurrency;
+    private AsyncSemaphore _jobSlots;
+    private int _jobCopies;
+    private String _outputMode;
+    private Map<String, JobTimeline> _timelines;
+    private MetricsRegistry _detectionMetrics;
+    private boolean _jobHistory;
+    private ExecutorService _pipelineExecutor;
+    private ExecutorService _blockingExecutor;
+    private AsyncSemaphore _downloadSlots;
+    private int _downloadAttempts;
+    private int _cancelAttempts;
+    private Recording _recording;
 
 
     // public methods
@@ -172,17 +568,166 @@ public class KubernetesTest
     @BeforeSuite
     public void setup() throws HttpException, IOException, InterruptedException
     {
-        _execSystemId = System.getenv("TAPIS_EXEC_SYSTEM_ID");
+        _execSystemId = EnvSettings.getString("TAPIS_EXEC_SYSTEM_ID", null);
         _tapisUrlBase = System.getenv("TAPIS_URL_BASE");
 
+        String recordingFile = EnvSettings.getString("TAPIS_JFR_RECORDING", null);
+
+        if (recordingFile != null) {
+            try {
+                _recording = new Recording(Configuration.getConfiguration("profile"));
+            }
+            catch (ParseException err) {
+                throw new IOException(err);
+            }
+
+            _recording.setDestination(Paths.get(recordingFile));
+            _recording.start();
+
+            System.out.println("recording flight recorder events to " + recordingFile);
+        }
+
+        if (EnvSettings.getBoolean("TAPIS_MOCK", false)) {
+            _mockServer = new MockTapisServer(MockTapisServer.Options.fromEnv());
+            _tapisUrlBase = _mockServer.getUrlBase();
+
+            if (_execSystemId == null)
+                _execSystemId = "mock";
+
+            System.out.println("running against the mock Tapis server at " + _tapisUrlBase);
+        }
+
+        String replay = EnvSettings.getString("TAPIS_HTTP_REPLAY", null);
+
+        if (replay != null) {
+            if (_mockServer != null)
+                throw new IllegalArgumentException("TAPIS_MOCK and TAPIS_HTTP_REPLAY cannot both be set");
+
+            double timeScale = Double.parseDouble(EnvSettings.getString("TAPIS_HTTP_REPLAY_TIME_SCALE", "1"));
+
+            _replayServer = HttpReplayServer.createInstance(Paths.get("."), replay, timeScale);
+            _tapisUrlBase = _replayServer.getUrlBase();
+
+            System.out.println("replaying " + _replayServer.getExchangeCount() + " exchanges recorded in " + replay + "-*" + ArtifactLog.SUFFIX
+                               + " at time scale " + timeScale + " from " + _tapisUrlBase);
+        }
+
         if (_tapisUrlBase == null)
             _tapisUrlBase = "http://localhost";
 
+        Map<String, String> placeholders = new TreeMap<String, String>();
+
+        if (_execSystemId != null)
+            placeholders.put("EXEC_SYSTEM_ID", _execSystemId);
+
+        _definitions = new DefinitionRegistry(placeholders);
+
+        String artifacts = EnvSettings.getString("TAPIS_ARTIFACTS", "log");
+
+        if (artifacts.equals("log")) {
+            String artifactLog = EnvSettings.getString("TAPIS_ARTIFACT_LOG", "tapis_artifacts");
+            long segmentBytes = EnvSettings.getInt("TAPIS_ARTIFACT_SEGMENT_MB", 64) * 1024L * 1024L;
+
+            _artifacts = new ArtifactLog(Paths.get("."), artifactLog, segmentBytes);
+
+            System.out.println("writing call artifacts to " + artifactLog + "-*" + ArtifactLog.SUFFIX);
+        }
+        else if (artifacts.equals("files"))
+            _artifacts = new FileArtifactSink();
+        else
+            throw new IllegalArgumentException("unknown artifact sink " + artifacts);
+
         String username = System.getenv("TAPIS_USERNAME");
         String password = System.getenv("TAPIS_PASSWORD");
 
-        _token = getToken(username, password);
-        _appIds = new ArrayList<String>();
+        _client = TapisClient.createInstance(_tapisUrlBase);
+
+        String httpRecording = EnvSettings.getString("TAPIS_HTTP_RECORDING", null);
+
+        if (httpRecording != null) {
+            // a recording is replayed whole, so it is never added to one from another run
+
+            if (!ArtifactLog.getSegments(Paths.get("."), httpRecording).isEmpty())
+                throw new IOException("HTTP recording " + httpRecording + " already exists, remove its segments or set another TAPIS_HTTP_RECORDING");
+
+            long segmentBytes = EnvSettings.getInt("TAPIS_ARTIFACT_SEGMENT_MB", 64) * 1024L * 1024L;
+            long maxBodyBytes = EnvSettings.getInt("TAPIS_HTTP_RECORDING_MAX_BODY_MB", 16) * 1024L * 1024L;
+
+            _httpRecorder = new HttpRecorder(new ArtifactLog(Paths.get("."), httpRecording, segmentBytes), maxBodyBytes);
+            _client.setRecorder(_httpRecorder);
+
+            System.out.println("recording HTTP exchanges to " + httpRecording + "-*" + ArtifactLog.SUFFIX);
+        }
+
+        String tokenCache = EnvSettings.getString("TAPIS_TOKEN_CACHE", null);
+        Duration refreshMargin = Duration.ofSeconds(EnvSettings.getInt("TAPIS_TOKEN_REFRESH_MARGIN", 300));
+
+        _tokenProvider = new TokenProvider(() -> getToken(username, password), refreshMargin,
+                                           tokenCache != null ? Paths.get(tokenCache) : null, _tapisUrlBase + " " + username);
+        _tokenProvider.getToken();
+
+        _appIds = new CopyOnWriteArrayList<String>();
+        _jobConcurrency = EnvSettings.getInt("TAPIS_JOB_CONCURRENCY", 1);
+        _jobCopies = EnvSettings.getInt("TAPIS_JOB_COPIES", 1);
+        _timelines = new ConcurrentHashMap<String, JobTimeline>();
+        _detectionMetrics = new MetricsRegistry();
+        _jobHistory = EnvSettings.getBoolean("TAPIS_JOB_HISTORY", true);
+        _outputMode = EnvSettings.getString("TAPIS_OUTPUT_MODE", "save");
+
+        if (!_outputMode.equals("save") && !_outputMode.equals("verify") && !_outputMode.equals("verify-discard"))
+            throw new IllegalArgumentException("unknown output mode " + _outputMode);
+
+        AtomicInteger pipelineThreads = new AtomicInteger();
+
+        _pipelineExecutor = Executors.newFixedThreadPool(EnvSettings.getInt("TAPIS_PIPELINE_THREADS", 8), task -> {
+            Thread thread = new Thread(task, "job-pipeline-" + pipelineThreads.incrementAndGet());
+
+            thread.setDaemon(true);
+
+            return thread;
+        });
+
+        AtomicInteger blockingThreads = new AtomicInteger();
+
+        // status handlers and batched status lookups may block, and must never hold up
+        // the pipeline threads that the futures they wait on are completed by
+
+        _blockingExecutor = Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "job-blocking-" + blockingThreads.incrementAndGet());
+
+            thread.setDaemon(true);
+
+            return thread;
+        });
+        _jobSlots = new AsyncSemaphore(_jobConcurrency, _pipelineExecutor);
+        _downloadSlots = new AsyncSemaphore(EnvSettings.getInt("TAPIS_DOWNLOAD_CONCURRENCY", 4), _pipelineExecutor);
+        _downloadAttempts = EnvSettings.getInt("TAPIS_DOWNLOAD_ATTEMPTS", TapisClient.DEFAULT_DOWNLOAD_ATTEMPTS);
+        _cancelAttempts = EnvSettings.getInt("TAPIS_CANCEL_ATTEMPTS", 3);
+
+        int batchSize = EnvSettings.getInt("TAPIS_STATUS_BATCH_SIZE", 0);
+        JobStatusSource statusSource = this::getJobStatus;
+
+        if (batchSize > 0) {
+            long maxAge = EnvSettings.getInt("TAPIS_STATUS_BATCH_MAX_AGE", 1000);
+
+            _batchedSource = new BatchedJobStatusSource(this::searchJobStatuses, statusSource, batchSize, maxAge);
+            statusSource = _batchedSource;
+        }
+
+        int watcherThreads = EnvSettings.getInt("TAPIS_STATUS_WATCHER_THREADS", 0);
+
+        if (watcherThreads > 0) {
+            double pollRate = Double.parseDouble(EnvSettings.getString("TAPIS_STATUS_POLLS_PER_SECOND", "0"));
+
+            _watcher = new JobStatusWatcher(statusSource, watcherThreads, pollRate, _blockingExecutor);
+        }
+
+        if (EnvSettings.getBoolean("TAPIS_STATUS_EVENTS", false)) {
+            _eventReceiver = new JobEventReceiver(EnvSettings.getInt("TAPIS_STATUS_EVENT_PORT", 0), EnvSettings.getString("TAPIS_STATUS_EVENT_ADDRESS", null));
+            _eventPollMillis = TimeUnit.SECONDS.toMillis(EnvSettings.getInt("TAPIS_STATUS_EVENT_POLL_SECONDS", 60));
+
+            System.out.println("receiving job status events at " + _eventReceiver.getDeliveryAddress().replaceAll("/[^/]*$", "/<secret>"));
+        }
     }
 
     /**
@@ -194,59 +739,404 @@ public class KubernetesTest
     @AfterSuite
     public void teardown() throws HttpException, IOException, InterruptedException
     {
-        for (String appId : _appIds)
-            setAppDeleteState(appId, true);
-    }
+        try {
+            for (String appId : _appIds)
+                setAppDeleteState(appId, true);
+        }
+        finally {
+            if (!_timelines.isEmpty()) {
+                String report = EnvSettings.getString("TAPIS_TIMELINE_REPORT", "job_timelines");
 
-    /**
-     *
-     * @throws HttpException
-     * @throws InterruptedException
-     * @throws IOException
-     */
-    @Test
-    public void createAppTest() throws HttpException, IOException, InterruptedException
-    {
-        runCreateAppTest("sleep_app.json");
-        runCreateAppTest("mpi_pi_app.json");
-    }
+                TimelineReport.printSummary(_timelines.values());
+                TimelineReport.write(_timelines.values(), report);
 
-    /**
-     *
-     * @throws HttpException
-     * @throws InterruptedException
-     * @throws IOException
-     */
-    @Test (dependsOnMethods="createAppTest")
-    public void submitJobTest() throws HttpException, IOException, InterruptedException
-    {
-        runSubmitJobTest("sleep_job.json", "FINISHED", new FinishWaiting());
-        runSubmitJobTest("mpi_pi_job.json", "FINISHED", new FinishWaiting());
-    }
+                System.out.println("job timelines written to " + report + ".json and " + report + ".csv");
 
-    /**
+                _detectionMetrics.print();
+                _detectionMetrics.writeReport(report + "_detection.json");
+
+                System.out.println("status detection latencies written to " + report + "_detection.json");
+            }
+
+            String metricsReport = EnvSettings.getString("TAPIS_METRICS_REPORT", "tapis_metrics");
+
+            _client.getMetrics().print();
+            _client.getMetrics().writeReport(metricsReport + ".json");
+
+            System.out.println("request metrics written to " + metricsReport + ".json");
+
+            _tokenProvider.close();
+
+            if (_batchedSource != null)
+                System.out.println("batched status lookups made " + _batchedSource.getBatchRequestCount() + " batch and "
+                                   + _batchedSource.getFallbackRequestCount() + " per-job requests");
+
+            if (_watcher != null)
+                _watcher.close();
+
+            if (_eventReceiver != null) {
+                System.out.println("event receiver got " + _eventReceiver.getEventCount() + " job status events, "
+                                   + _eventReceiver.getUnmatchedCount() + " of them unmatched or unreadable, and rejected "
+                                   + _eventReceiver.getRejectedCount() + " requests without the secret");
+
+                _eventReceiver.close();
+            }
+
+            _pipelineExecutor.shutdownNow();
+            _blockingExecutor.shutdownNow();
+            _client.close();
+
+            if (_httpRecorder != null) {
+                _httpRecorder.close();
+
+                System.out.println("recorded " + _httpRecorder.getExchangeCount() + " HTTP exchanges");
+            }
+
+            if (_replayServer != null) {
+                long[] counts = _replayServer.getCounts();
+
+                System.out.println("replay server answered " + counts[0] + " requests, " + counts[1] + " of them with a response served before, and had no exchange for "
+                                   + counts[2]);
+
+                _replayServer.close();
+            }
+
+            if (_mockServer != null) {
+                long[] notifications = _mockServer.getNotificationCounts();
+
+                System.out.println("mock Tapis server handled " + _mockServer.getRequestCount() + " requests, turned away " + _mockServer.getThrottledCount()
+                                   + ", delivered " + notifications[0] + " notifications and dropped " + notifications[1]
+                                   + ", and received " + _mockServer.getCancelCount() + " cancel requests");
+
+                _mockServer.close();
+            }
+
+            if (_recording != null) {
+                _recording.stop();
+                _recording.close();
+            }
+
+            _artifacts.close();
+
+            if (_artifacts instanceof ArtifactLog)
+                System.out.println("artifact log holds " + ((ArtifactLog) _artifacts).getRecordCount() + " records from this run");
+        }
+    }
+
+    /**
      *
      * @throws HttpException
      * @throws InterruptedException
      * @throws IOException
      */
+    @Test
+    public void createAppTest() throws HttpException, IOException, InterruptedException
+    {
+        runCreateAppTest("sleep_app.json");
+        runCreateAppTest("mpi_pi_app.json");
+    }
+
+    /**
+     * Supplies the job definitions for the test method asking, one row each.
+     *
+     * @param method
+     * @return
+     */
+    @DataProvider(name="jobDefinitions", parallel=true)
+    public Object[][] getJobDefinitions(Method method)
+    {
+        return JOB_DEFINITIONS.get(method.getName());
+    }
+
+    /**
+     *
+     * @param resourceName
+     * @throws IOException
+     */
+    @Test (dependsOnMethods="createAppTest", dataProvider="jobDefinitions")
+    public void submitJobTest(String resourceName) throws IOException
+    {
+        runSubmitJobTests(new JobSubmission(resourceName, "FINISHED", getPollingPolicy("SUBMIT")));
+    }
+
+    /**
+     * Cancels each job once it is RUNNING, then reports how long the cancellations took;
+     * TAPIS_JOB_COPIES and TAPIS_JOB_CONCURRENCY put them under concurrent load.
+     *
+     * @param resourceName
+     * @throws IOException
+     */
+    @Test (dependsOnMethods="createAppTest", dataProvider="jobDefinitions")
+    public void cancelJobTest(String resourceName) throws IOException
+    {
+        CancelJob cancel = new CancelJob();
+        JobSubmission submission = new JobSubmission(resourceName, "CANCELLED", getPollingPolicy("CANCEL"), cancel);
+
+        try {
+            runSubmitJobTests(submission);
+        }
+        finally {
+            reportCancellations(submission._jobName, cancel.getCancellations());
+        }
+    }
+
+    /**
+     *
+     * @param resourceName
+     * @throws IOException
+     */
+    @Test (dependsOnMethods="createAppTest", dataProvider="jobDefinitions")
+    public void failJobTest(String resourceName) throws IOException
+    {
+        runSubmitJobTests(new JobSubmission(resourceName, "FAILED", getPollingPolicy("FAIL")));
+    }
+
+    /**
+     * Closed-loop throughput benchmark, enabled by setting TAPIS_BENCHMARK_LEVELS to a
+     * comma-separated list of in-flight job counts to sweep, e.g. "1,2,4,8".
+     *
+     * @throws InterruptedException
+     * @throws IOException
+     */
     @Test (dependsOnMethods="createAppTest")
-    public void cancelJobTest() throws HttpException, IOException, InterruptedException
+    public void throughputBenchmarkTest() throws InterruptedException, IOException
     {
-        runSubmitJobTest("sleep_cancel_job.json", "CANCELLED", new CancelJob(), new FinishWaiting());
-        runSubmitJobTest("mpi_pi_job.json", "CANCELLED", new CancelJob(), new FinishWaiting());
+        String levels = EnvSettings.getString("TAPIS_BENCHMARK_LEVELS", null);
+
+        if (levels == null)
+            throw new SkipException("TAPIS_BENCHMARK_LEVELS is not set");
+
+        String job = EnvSettings.getString("TAPIS_BENCHMARK_JOB", "sleep_job.json");
+        int rounds = EnvSettings.getInt("TAPIS_BENCHMARK_ROUNDS", 3);
+        String report = EnvSettings.getString("TAPIS_BENCHMARK_REPORT", "throughput_benchmark");
+        ThroughputBenchmark benchmark = new ThroughputBenchmark(new TestJobDriver(getPollingPolicy("BENCHMARK")), _definitions.getJob(job), rounds);
+        List<ThroughputBenchmark.LevelResult> results = benchmark.run(ThroughputBenchmark.parseLevels(levels));
+
+        ThroughputBenchmark.writeReport(results, report);
+
+        System.out.println("throughput benchmark report written to " + report + ".json and " + report + ".csv");
+
+        for (ThroughputBenchmark.LevelResult result : results)
+            Assert.assertEquals(result.getFailures(), 0, result.toString());
     }
 
+
     /**
+     * Parameter sweep, enabled by setting TAPIS_SWEEP_AXES to the axes to vary, e.g.
+     * "sleep=5,30;cpu=500m,1". Runs TAPIS_SWEEP_REPEATS jobs for every cell, or for
+     * TAPIS_SWEEP_SAMPLES cells picked at random, with at most TAPIS_SWEEP_CONCURRENCY
+     * jobs in flight, and reports the overhead and runtime of each cell.
+     *
+     * @throws IOException
+     */
+    @Test (dependsOnMethods="createAppTest")
+    public void parameterSweepTest() throws IOException
+    {
+        String axisSpec = EnvSettings.getString("TAPIS_SWEEP_AXES", null);
+
+        if (axisSpec == null)
+            throw new SkipException("TAPIS_SWEEP_AXES is not set");
+
+        String job = EnvSettings.getString("TAPIS_SWEEP_JOB", "sleep_job.json");
+        int samples = EnvSettings.getInt("TAPIS_SWEEP_SAMPLES", 0);
+        long seed = EnvSettings.getInt("TAPIS_SWEEP_SEED", 1);
+        int repeats = EnvSettings.getInt("TAPIS_SWEEP_REPEATS", 1);
+        String report = EnvSettings.getString("TAPIS_SWEEP_REPORT", "parameter_sweep");
+        List<ParameterSweep.Axis> axes = ParameterSweep.parseAxes(axisSpec);
+        ParameterSweep sweep = new ParameterSweep(readResource(job), axes);
+        List<ParameterSweep.Cell> cells = sweep.getCells(samples, seed);
+        AsyncSemaphore budget = new AsyncSemaphore(EnvSettings.getInt("TAPIS_SWEEP_CONCURRENCY", 4), _pipelineExecutor);
+        PollingPolicy policy = getPollingPolicy("SWEEP");
+        List<List<CompletableFuture<JobResult>>> futures = new ArrayList<List<CompletableFuture<JobResult>>>();
+
+        System.out.println("sweeping " + cells.size() + " of " + sweep.getCellCount() + " cells with " + repeats + " jobs each");
+
+        for (ParameterSweep.Cell cell : cells) {
+            JobSubmission submission = new JobSubmission(_definitions.createJob(cell.getLabel(), cell.getConfig()), null, "FINISHED", policy);
+            List<CompletableFuture<JobResult>> cellFutures = new ArrayList<CompletableFuture<JobResult>>();
+
+            for (int i = 0 ; i < repeats ; i++)
+                cellFutures.add(budget.run(() -> runJobAsync(submission).getResult()));
+
+            futures.add(cellFutures);
+        }
+
+        List<ParameterSweep.CellResult> results = new ArrayList<ParameterSweep.CellResult>();
+
+        for (int i = 0 ; i < cells.size() ; i++) {
+            List<JobResult> jobs = new ArrayList<JobResult>();
+            List<JobTimeline> timelines = new ArrayList<JobTimeline>();
+
+            for (CompletableFuture<JobResult> future : futures.get(i)) {
+                JobResult result = future.join();
+
+                jobs.add(result);
+                timelines.add(result.getJobUuid() != null ? _timelines.get(result.getJobUuid()) : null);
+            }
+
+            ParameterSweep.CellResult result = ParameterSweep.summarize(cells.get(i), jobs, timelines);
+
+            System.out.println("parameter sweep " + result);
+
+            results.add(result);
+        }
+
+        ParameterSweep.writeReport(axes, results, report);
+
+        System.out.println("parameter sweep report written to " + report + ".json and " + report + ".csv");
+
+        for (ParameterSweep.CellResult result : results)
+            Assert.assertEquals(result.getFailures(), 0, result.toString());
+    }
+
+
+    /**
+     * MPI scaling benchmark, enabled by setting TAPIS_MPI_WORKERS to a comma-separated
+     * list of worker counts, e.g. "1,2,4". Registers a variant of the MPI pi app for every
+     * worker count and each of the TAPIS_MPI_SLOTS slots per worker, runs each variant
+     * TAPIS_MPI_REPEATS times, one variant at a time, and reports a strong scaling table.
      *
      * @throws HttpException
      * @throws InterruptedException
      * @throws IOException
      */
+    @Test
+    public void mpiScalingBenchmarkTest() throws HttpException, IOException, InterruptedException
+    {
+        String workers = EnvSettings.getString("TAPIS_MPI_WORKERS", null);
+
+        if (workers == null)
+            throw new SkipException("TAPIS_MPI_WORKERS is not set");
+
+        String slots = EnvSettings.getString("TAPIS_MPI_SLOTS", "1");
+        int repeats = EnvSettings.getInt("TAPIS_MPI_REPEATS", 3);
+        String report = EnvSettings.getString("TAPIS_MPI_REPORT", "mpi_scaling");
+        MpiScalingBenchmark benchmark = new MpiScalingBenchmark(readResource("mpi_pi_app.json"), readResource("mpi_pi_job.json"));
+        PollingPolicy policy = getPollingPolicy("MPI");
+        List<MpiScalingBenchmark.VariantResult> results = new ArrayList<MpiScalingBenchmark.VariantResult>();
+
+        for (MpiScalingBenchmark.Variant variant : MpiScalingBenchmark.parseVariants(workers, slots)) {
+            registerApp(_definitions.createApp(benchmark.getAppId(variant), benchmark.createAppConfig(variant)));
+
+            JobSubmission submission = new JobSubmission(_definitions.createJob(variant.toString(), benchmark.createJobConfig(variant)), null, "FINISHED", policy);
+            List<CompletableFuture<MpiScalingBenchmark.Sample>> futures = new ArrayList<CompletableFuture<MpiScalingBenchmark.Sample>>();
+
+            for (int i = 0 ; i < repeats ; i++)
+                futures.add(_jobSlots.run(() -> runJobAsync(submission).getResult()).thenCompose(this::getMpiSampleAsync));
+
+            List<MpiScalingBenchmark.Sample> samples = futures.stream().map(CompletableFuture::join).filter(sample -> sample != null).collect(Collectors.toList());
+            MpiScalingBenchmark.VariantResult result = MpiScalingBenchmark.summarize(variant, repeats, samples);
+
+            System.out.println("MPI scaling benchmark " + result);
+
+            results.add(result);
+        }
+
+        MpiScalingBenchmark.printTables(results);
+        MpiScalingBenchmark.writeReport(results, report);
+
+        System.out.println("MPI scaling report written to " + report + ".json and " + report + "_strong.csv");
+
+        for (MpiScalingBenchmark.VariantResult result : results)
+            Assert.assertEquals(result.getFailures(), 0, result.toString());
+    }
+
+    /**
+     * Soak run, enabled by setting TAPIS_SOAK_MINUTES. Starts the sleep, cancel and fail
+     * jobs in turn at TAPIS_SOAK_JOBS_PER_MINUTE for that many minutes, at most
+     * TAPIS_SOAK_CONCURRENCY at a time, while the client is sampled every
+     * TAPIS_SOAK_WINDOW_SECONDS; at the end, latencies and resource use that grew over
+     * the run by at least TAPIS_SOAK_DRIFT_THRESHOLD are reported as drift. Soak jobs are
+     * left out of the timeline report, and against the mock server, whose jobs share the
+     * heap, TAPIS_MOCK_JOB_RETENTION keeps finished jobs from reading as a leak.
+     *
+     * @throws InterruptedException
+     * @throws IOException
+     */
     @Test (dependsOnMethods="createAppTest")
-    public void failJobTest() throws HttpException, IOException, InterruptedException
+    public void soakTest() throws IOException, InterruptedException
     {
-        runSubmitJobTest("sleep_fail_job.json", "FAILED", new FinishWaiting());
+        int minutes = EnvSettings.getInt("TAPIS_SOAK_MINUTES", 0);
+
+        if (minutes <= 0)
+            throw new SkipException("TAPIS_SOAK_MINUTES is not set");
+
+        double jobsPerMinute = Double.parseDouble(EnvSettings.getString("TAPIS_SOAK_JOBS_PER_MINUTE", "6"));
+        long windowMillis = TimeUnit.SECONDS.toMillis(EnvSettings.getInt("TAPIS_SOAK_WINDOW_SECONDS", 60));
+        int warmupWindows = EnvSettings.getInt("TAPIS_SOAK_WARMUP_WINDOWS", 1);
+        double threshold = Double.parseDouble(EnvSettings.getString("TAPIS_SOAK_DRIFT_THRESHOLD", "0.1"));
+        String report = EnvSettings.getString("TAPIS_SOAK_REPORT", "soak_report");
+        AsyncSemaphore budget = new AsyncSemaphore(EnvSettings.getInt("TAPIS_SOAK_CONCURRENCY", 16), _pipelineExecutor);
+        PollingPolicy policy = getPollingPolicy("SOAK");
+        Map<String, JobSubmission> scenarios = new LinkedHashMap<String, JobSubmission>();
+        CancelJob cancel = new CancelJob();
+
+        scenarios.put("sleep", new JobSubmission("sleep_job.json", "FINISHED", policy));
+        scenarios.put("cancel", new JobSubmission("sleep_cancel_job.json", "CANCELLED", policy, cancel));
+        scenarios.put("fail", new JobSubmission("sleep_fail_job.json", "FAILED", policy));
+
+        List<String> names = new ArrayList<String>(scenarios.keySet());
+        Set<CompletableFuture<JobResult>> inFlight = ConcurrentHashMap.newKeySet();
+        long intervalNanos = (long) (TimeUnit.MINUTES.toNanos(1) / jobsPerMinute);
+        long start = System.nanoTime();
+        long end = start + TimeUnit.MINUTES.toNanos(minutes);
+        SoakMonitor monitor = new SoakMonitor(names, windowMillis, EnvSettings.getBoolean("TAPIS_SOAK_FORCE_GC", false));
+
+        System.out.println("soaking for " + minutes + " minutes at " + jobsPerMinute + " jobs per minute");
+
+        _client.getMetrics().setListener(monitor::recordRequest);
+
+        try {
+            for (int i = 0 ; start + i * intervalNanos < end ; i++) {
+                long wait = start + i * intervalNanos - System.nanoTime();
+
+                if (wait > 0)
+                    TimeUnit.NANOSECONDS.sleep(wait);
+
+                String scenario = names.get(i % names.size());
+                JobSubmission submission = scenarios.get(scenario);
+                CompletableFuture<JobResult> future = budget.run(() -> runJobAsync(submission).getResult());
+
+                inFlight.add(future);
+
+                future.thenAccept(result -> {
+                    inFlight.remove(future);
+                    monitor.recordJob(scenario, result);
+
+                    if (!result.isSuccess())
+                        System.out.println("soak job did not end as expected: " + result);
+
+                    if (result.getJobUuid() != null) {
+                        _timelines.remove(result.getJobUuid());
+                        cancel.remove(result.getJobUuid());
+                    }
+                });
+            }
+
+            CompletableFuture.allOf(inFlight.toArray(new CompletableFuture<?>[0])).join();
+        }
+        finally {
+            _client.getMetrics().setListener(null);
+            monitor.close();
+        }
+
+        List<SoakMonitor.Drift> drifts = monitor.analyze(warmupWindows, threshold);
+
+        monitor.writeReport(drifts, report);
+
+        System.out.println("soak report written to " + report + ".json and " + report + ".csv");
+
+        SoftAssert softAssert = new SoftAssert();
+
+        softAssert.assertEquals(monitor.getFailureCount(), 0, "soak jobs that did not end as expected");
+
+        for (SoakMonitor.Drift drift : drifts) {
+            System.out.println("soak drift " + drift);
+
+            softAssert.assertFalse(drift.isFlagged(), drift.toString());
+        }
+
+        softAssert.assertAll();
     }
 
 
@@ -255,425 +1145,875 @@ public class KubernetesTest
 
     /**
      *
-     * @param name
+     * @param name
+     * @return
+     * @throws IOException
+     */
+    private String readResource(String name) throws IOException
+    {
+        try (InputStream inStream = KubernetesTest.class.getClassLoader().getResourceAsStream(name)) {
+            String result = new String(inStream.readAllBytes());
+
+            return result;
+        }
+    }
+
+    /**
+     * Returns the polling policy named by TAPIS_POLLING_POLICY_&lt;test&gt;, falling back to
+     * TAPIS_POLLING_POLICY and then to the fixed 5 second interval.
+     *
+     * @param test
+     * @return
+     */
+    private PollingPolicy getPollingPolicy(String test)
+    {
+        String name = EnvSettings.getString("TAPIS_POLLING_POLICY_" + test, EnvSettings.getString("TAPIS_POLLING_POLICY", "fixed"));
+
+        return PollingPolicy.forName(name);
+    }
+
+    /**
+     *
+     * @param username
+     * @param password
+     * @return
+     * @throws HttpException
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    private TokenProvider.Token getToken(String username, String password) throws HttpException, IOException, InterruptedException
+    {
+        Map<String, String> headers = new TreeMap<String, String>();
+
+        headers.put("Content-type", "application/json");
+
+        StringBuilder body = new StringBuilder();
+
+        body.append("{\"username\":\"");
+        body.append(username);
+        body.append("\",\"password\":\"");
+        body.append(password);
+        body.append("\",\"grant_type\":\"password\"}");
+
+        String response = _client.getResponse("oauth2/tokens", headers, HttpMethod.POST, RequestBody.ofString(body.toString()));
+        JsonNode root = JsonFieldExtractor.READER.readTree(response);
+        String status = root.at("/status").asText();
+
+        if (!status.equals("success")) {
+            String location = _artifacts.write(username, "token", response);
+
+            throw new IOException("token generation status for user " + username + " is " + status + ", response written to " + location);
+        }
+
+        return TokenProvider.parseToken(root.at("/result/access_token"));
+    }
+
+    /**
+     *
+     * @param name
+     * @throws HttpException
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    private void runCreateAppTest(String name) throws HttpException, IOException, InterruptedException
+    {
+        registerApp(_definitions.getApp(name));
+    }
+
+    /**
+     * Creates the app, or undeletes it if it exists, and deletes it again at teardown.
+     *
+     * @param app
+     * @throws HttpException
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    private void registerApp(DefinitionRegistry.Definition app) throws HttpException, IOException, InterruptedException
+    {
+        String appId = app.getField("/id");
+        String appVersion = app.getField("/version");
+
+        System.out.println("running add application test using " + appId + ", version " + appVersion);
+
+        String status;
+
+        try {
+            status = createApp(app);
+        }
+        catch (HttpException err) {
+            if (err.getStatusCode() != 409)
+                throw err;
+
+            status = setAppDeleteState(appId, false);
+        }
+
+        Assert.assertEquals(status, "success");
+
+        _appIds.add(appId);
+    }
+
+    /**
+     *
+     * @param app
+     * @return
+     * @throws HttpException
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    private String createApp(DefinitionRegistry.Definition app) throws HttpException, IOException, InterruptedException
+    {
+        Map<String, String> headers = new TreeMap<String, String>();
+
+        headers.put("X-Tapis-Token", _tokenProvider.getToken());
+        headers.put("Content-type", "application/json");
+
+        String response = _client.getResponse("apps", headers, HttpMethod.POST, app.getBody());
+        String status = STATUS_FIELDS.extract(response)[0];
+        String appId = app.getField("/id");
+        String appVersion = app.getField("/version");
+
+        System.out.println("created app " + appId + ", version " + appVersion + ", status is " + status);
+
+        if (status.equals("success")) {
+            String appConfig = getApp(appId, appVersion);
+            String location = _artifacts.write(appId + "_" + appVersion, "config", appConfig);
+
+            System.out.println("configuration for app " + appId + ", version " + appVersion + " written to " + location);
+        }
+        else {
+            String location = _artifacts.write(appId + "_" + appVersion, "create", response);
+
+            System.out.println("response written to " + location);
+        }
+
+        return status;
+    }
+
+    /**
+     *
+     * @param appId
+     * @param appVersion
+     * @return
+     * @throws HttpException
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    private String getApp(String appId, String appVersion) throws HttpException, IOException, InterruptedException
+    {
+        StringBuilder path = new StringBuilder();
+
+        path.append("apps/");
+        path.append(appId);
+        path.append('/');
+        path.append(appVersion);
+
+        Map<String, String> headers = new TreeMap<String, String>();
+
+        headers.put("X-Tapis-Token", _tokenProvider.getToken());
+
+        return _client.getResponse(path.toString(), headers, HttpMethod.GET, null);
+    }
+
+    /**
+     *
+     * @param appId
+     * @param delete
+     * @return
+     * @throws HttpException
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    private String setAppDeleteState(String appId, boolean delete) throws HttpException, IOException, InterruptedException
+    {
+        String action = delete ? "delete" : "undelete";
+        StringBuilder path = new StringBuilder();
+
+        path.append("apps/");
+        path.append(appId);
+        path.append('/');
+        path.append(action);
+
+        Map<String, String> headers = new TreeMap<String, String>();
+
+        headers.put("X-Tapis-Token", _tokenProvider.getToken());
+
+        String response = _client.getResponse(path.toString(), headers, HttpMethod.POST, null);
+        String status = STATUS_FIELDS.extract(response)[0];
+
+        System.out.println(action + "d app " + appId + ", status is " + status);
+
+        if (!status.equals("success")) {
+            String location = _artifacts.write(appId, action, response);
+
+            System.out.println("response written to " + location);
+        }
+
+        return status;
+    }
+
+    /**
+     * Runs every job definition through the asynchronous pipeline, TAPIS_JOB_COPIES times
+     * each, then checks each job's terminal status. At most TAPIS_JOB_CONCURRENCY jobs are
+     * in flight across all the tests running at the time.
+     *
+     * @param submissions
+     */
+    private void runSubmitJobTests(JobSubmission... submissions)
+    {
+        List<CompletableFuture<JobResult>> futures = new ArrayList<CompletableFuture<JobResult>>();
+        long start = System.nanoTime();
+
+        for (JobSubmission submission : submissions) {
+            for (int copy = 0 ; copy < _jobCopies ; copy++)
+                futures.add(_jobSlots.run(() -> runJobAsync(submission).getResult()));
+        }
+
+        List<JobResult> results = new ArrayList<JobResult>(futures.size());
+
+        for (CompletableFuture<JobResult> future : futures)
+            results.add(future.join());
+
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        System.out.println("ran " + results.size() + " jobs with concurrency " + _jobConcurrency + " in " + elapsed + " ms");
+
+        SoftAssert softAssert = new SoftAssert();
+
+        for (JobResult result : results) {
+            System.out.println("  " + result);
+
+            softAssert.assertNull(result.getError(), result.getJobName());
+            softAssert.assertNotNull(result.getJobUuid(), result.getJobName());
+            softAssert.assertEquals(result.getStatus(), result.getExpectedStatus(), result.getJobName());
+        }
+
+        softAssert.assertAll();
+    }
+
+    /**
+     * Prints the distributions of the time cancel requests took to be accepted and the time
+     * from acceptance to the job being CANCELLED, as seen by polling or events and, for
+     * jobs whose history is in, as recorded by the gateway. They are kept out of the
+     * request metrics, which only hold what the client measured on the wire.
+     *
+     * @param jobName
+     * @param cancellations
+     */
+    private void reportCancellations(String jobName, Collection<JobCancellation> cancellations)
+    {
+        List<Long> send = new ArrayList<Long>();
+        List<Long> accept = new ArrayList<Long>();
+        List<Long> observed = new ArrayList<Long>();
+        List<Long> history = new ArrayList<Long>();
+        int requests = 0;
+
+        for (JobCancellation cancellation : cancellations) {
+            requests += cancellation.getAttempts();
+
+            if (cancellation.getSendMillis() >= 0)
+                send.add(cancellation.getSendMillis());
+
+            if (!cancellation.isAccepted())
+                continue;
+
+            accept.add(cancellation.getAcceptMillis());
+
+            if (cancellation.getTerminalMillis() >= 0)
+                observed.add(cancellation.getTerminalMillis());
+
+            JobTimeline timeline = _timelines.get(cancellation.getJobUuid());
+            Instant cancelledAt = timeline != null ? timeline.getHistoryTime("CANCELLED") : null;
+
+            if (cancelledAt != null)
+                history.add(cancellation.getMillisUntil(cancelledAt));
+        }
+
+        System.out.println("cancelled " + cancellations.size() + " " + jobName + " jobs with " + requests + " cancel requests, "
+                           + (cancellations.size() - accept.size()) + " not accepted and " + (accept.size() - observed.size()) + " not seen CANCELLED");
+        System.out.println("  RUNNING seen to cancel sent:   " + LatencySummary.createInstance(send));
+        System.out.println("  cancel sent to accepted:       " + LatencySummary.createInstance(accept));
+        System.out.println("  accepted to CANCELLED seen:    " + LatencySummary.createInstance(observed));
+
+        if (!history.isEmpty())
+            System.out.println("  accepted to CANCELLED history: " + LatencySummary.createInstance(history));
+    }
+
+    /**
+     * Starts a job down the pipeline: submit, wait for a terminal status, count the
+     * output files, then save or verify the output according to TAPIS_OUTPUT_MODE. Each
+     * stage starts when the one before it completes and completes the matching future of
+     * the returned run; a failure skips the stages after it.
+     *
+     * @param submission
+     * @return
+     */
+    private JobRun runJobAsync(JobSubmission submission)
+    {
+        JobRun run = new JobRun(submission._jobName, submission._expected);
+        JobStatusHandler[] handlers = new JobStatusHandler[submission._handlers.length + 1];
+
+        handlers[0] = run;
+
+        System.arraycopy(submission._handlers, 0, handlers, 1, submission._handlers.length);
+
+        System.out.println("running submit job test using " + submission._jobName);
+
+        // each stage follows the run's future for the one before it, rather than the stage
+        // itself, so that the run's futures are complete by the time finish() reads them
+
+        forward(submitJobAsync(submission._job), run.getSubmitted());
+
+        CompletableFuture<String> terminal = run.getSubmitted().thenComposeAsync(jobUuid -> {
+            if (jobUuid == null)
+                return CompletableFuture.completedFuture(null);
+
+            return waitForJobStatusAsync(jobUuid, submission._policy, handlers);
+        }, _pipelineExecutor);
+
+        forward(terminal, run.getTerminal());
+
+        CompletableFuture<Integer> outputCount = run.getTerminal().thenComposeAsync(status -> {
+            if (status == null)
+                return CompletableFuture.completedFuture(0);
+
+            return getJobOutputCountAsync(run.getSubmitted().join());
+        }, _pipelineExecutor);
+
+        forward(outputCount, run.getOutputCount());
+
+        CompletableFuture<DownloadResult> download = run.getOutputCount().thenComposeAsync(count -> {
+            String jobUuid = run.getSubmitted().join();
+            String status = run.getTerminal().join();
+            OutputRules rules = submission._rules != null && status != null && submission._rules.appliesTo(status) ? submission._rules : null;
+
+            if (count > 0)
+                return handleJobOutputAsync(jobUuid, rules);
+
+            if (rules != null)
+                return CompletableFuture.failedFuture(new IOException("job " + jobUuid + " has no output to verify"));
+
+            return CompletableFuture.completedFuture(null);
+        }, _pipelineExecutor);
+
+        forward(download, run.getDownload());
+
+        run.getDownload().whenComplete((result, err) -> run.finish(err != null ? TapisClient.unwrap(err) : null));
+
+        return run;
+    }
+
+    /**
+     * Reads the launcher marks from a finished MPI job's output.
+     *
+     * @param result
+     * @return the job's times, or null if the job did not finish or left no marks
+     */
+    private CompletableFuture<MpiScalingBenchmark.Sample> getMpiSampleAsync(JobResult result)
+    {
+        if (result.getError() != null || !"FINISHED".equals(result.getStatus())) {
+            System.out.println("MPI scaling job " + result + " did not finish");
+
+            return CompletableFuture.completedFuture(null);
+        }
+
+        JobTimeline timeline = _timelines.get(result.getJobUuid());
+        Instant runningAt = timeline != null ? timeline.getHistoryTime("RUNNING") : null;
+        StringBuilder path = new StringBuilder();
+
+        path.append("jobs/");
+        path.append(result.getJobUuid());
+        path.append("/output/download/?compress=true&format=zip");
+
+        return _downloadSlots.run(() -> callAsync(path.toString(), HttpMethod.GET, null, HttpResponse.BodyHandlers.ofInputStream()).thenApplyAsync(body -> {
+            try (InputStream inStream = body) {
+                MpiScalingBenchmark.Sample sample = MpiScalingBenchmark.parseSample(inStream, runningAt);
+
+                if (sample == null)
+                    System.out.println("output of MPI scaling job " + result.getJobUuid() + " has no launcher marks");
+
+                return sample;
+            }
+            catch (IOException err) {
+                throw new CompletionException(err);
+            }
+        }, _pipelineExecutor));
+    }
+
+    /**
+     *
+     * @param <T>
+     * @param source
+     * @param target
+     */
+    private static <T> void forward(CompletableFuture<T> source, CompletableFuture<T> target)
+    {
+        source.whenComplete((result, err) -> {
+            if (err != null)
+                target.completeExceptionally(TapisClient.unwrap(err));
+            else
+                target.complete(result);
+        });
+    }
+
+    /**
+     *
+     * @param job
      * @return
+     * @throws HttpException
+     * @throws InterruptedException
      * @throws IOException
      */
-    private String readResource(String name) throws IOException
+    private String submitJob(DefinitionRegistry.Definition job) throws HttpException, IOException, InterruptedException
     {
-        try (InputStream inStream = KubernetesTest.class.getClassLoader().getResourceAsStream(name)) {
-            String result = new String(inStream.readAllBytes());
-
-            return result;
-        }
+        return TapisClient.await(submitJobAsync(job));
     }
 
     /**
      *
-     * @param username
-     * @param password
-     * @return
-     * @throws HttpException
-     * @throws InterruptedException
-     * @throws IOException
+     * @param job
+     * @return the job UUID, or null if the gateway did not accept the job
      */
-    private String getToken(String username, String password) throws HttpException, IOException, InterruptedException
+    private CompletableFuture<String> submitJobAsync(DefinitionRegistry.Definition job)
     {
-        Map<String, String> headers = new TreeMap<String, String>();
+        long submitted = System.nanoTime();
 
-        headers.put("Content-type", "application/json");
+        return callAsync("jobs/submit", HttpMethod.POST, job.getBody()).thenApplyAsync(response -> {
+            try {
+                String[] fields = SUBMIT_FIELDS.extract(response);
+                String status = fields[0];
+                String jobUuid;
+                String jobId;
 
-        StringBuilder body = new StringBuilder();
+                if (status.equals("success")) {
+                    jobUuid = fields[1];
+                    jobId = jobUuid;
 
-        body.append("{\"username\":\"");
-        body.append(username);
-        body.append("\",\"password\":\"");
-        body.append(password);
-        body.append("\",\"grant_type\":\"password\"}");
+                    _timelines.put(jobUuid, new JobTimeline(jobUuid, job.getField("/appId"), submitted));
+                }
+                else {
+                    jobId = job.getField("/name");
+                    jobUuid = null;
+                }
 
-        String response = getResponse("oauth2/tokens", headers, HttpMethod.POST, body.toString());
-        JsonNode root = (new ObjectMapper()).readTree(response);
-        String status = root.at("/status").asText();
-        String token;
+                String location = _artifacts.write(jobId, "submit", response);
 
-        if (status.equals("success"))
-            token = root.at("/result/access_token/access_token").asText();
-        else {
-            String filename = username + "_token.json";
+                System.out.println("submitted job " + jobId + ", status is " + status + ", response written to " + location);
 
-            try (FileWriter writer = new FileWriter(filename)) {
-                writer.write(response);
+                return jobUuid;
             }
-
-            System.out.println("token generation status for user " + username + " is " + status + ", response written to " + filename);
-
-            token = null;
-        }
-
-        return token;
+            catch (IOException err) {
+                throw new CompletionException(err);
+            }
+        }, _pipelineExecutor);
     }
 
     /**
      *
-     * @param name
-     * @throws HttpException
-     * @throws InterruptedException
-     * @throws IOException
+     * @param jobUuid
+     * @param executor where the response is handled
+     * @return
      */
-    private void runCreateAppTest(String name) throws HttpException, IOException, InterruptedException
+    private CompletableFuture<String> cancelJobAsync(String jobUuid, Executor executor)
     {
-        String config = readResource(name);
-        JsonNode root = (new ObjectMapper()).readTree(config);
-        String appId = root.at("/id").asText();
-        String appVersion = root.at("/version").asText();
+        StringBuilder path = new StringBuilder();
 
-        System.out.println("running add application test using " + appId + ", version " + appVersion);
+        path.append("jobs/");
+        path.append(jobUuid);
+        path.append("/cancel");
 
-        String status;
+        return callAsync(path.toString(), HttpMethod.POST, null).thenApplyAsync(response -> {
+            String status = extractField(STATUS_FIELDS, response);
 
-        try {
-            status = createApp(config);
-        }
-        catch (HttpException err) {
-            if (err.getStatusCode() != 409)
-                throw err;
+            System.out.println("cancelled job " + jobUuid + ", status is " + status);
 
-            status = setAppDeleteState(appId, false);
-        }
+            if (!status.equals("success")) {
+                String location;
 
-        Assert.assertEquals(status, "success");
+                try {
+                    location = _artifacts.write(jobUuid, "cancel", response);
+                }
+                catch (IOException err) {
+                    throw new CompletionException(err);
+                }
 
-        _appIds.add(appId);
+                System.out.println("response written to " + location);
+            }
+
+            return status;
+        }, executor);
     }
 
     /**
      *
-     * @param config
+     * @param jobUuid
+     * @param policy
+     * @param handlers
      * @return
      * @throws HttpException
      * @throws InterruptedException
      * @throws IOException
      */
-    private String createApp(String config) throws HttpException, IOException, InterruptedException
+    private String waitForJobStatus(String jobUuid, PollingPolicy policy, JobStatusHandler... handlers) throws HttpException, IOException, InterruptedException
     {
-        String body = config.replaceAll("\\$\\{EXEC_SYSTEM_ID\\}", _execSystemId);
-        Map<String, String> headers = new TreeMap<String, String>();
+        return TapisClient.await(waitForJobStatusAsync(jobUuid, policy, handlers));
+    }
 
-        headers.put("X-Tapis-Token", _token);
-        headers.put("Content-type", "application/json");
+    /**
+     * Waits for a job, recording the statuses seen on its timeline ahead of the other
+     * handlers and adding the job history to the timeline once the job has finished.
+     * Status changes and handler calls are recorded as events and in the metrics. The
+     * job is polled on the pipeline executor, or by the shared status watcher if there
+     * is one, unless status events are on. Once the history is in, the delay between the
+     * gateway recording each status and its being seen here is recorded under the way
+     * the job was waited for, apart from the request metrics so that it does not mix
+     * with request latencies.
+     *
+     * @param jobUuid
+     * @param policy
+     * @param handlers
+     * @return the status at which a handler ended the wait
+     */
+    private CompletableFuture<String> waitForJobStatusAsync(String jobUuid, PollingPolicy policy, JobStatusHandler... handlers)
+    {
+        JobTimeline timeline = _timelines.get(jobUuid);
 
-        String response = getResponse("apps", headers, HttpMethod.POST, body);
-        ObjectMapper mapper = new ObjectMapper();
-        JsonNode root = mapper.readTree(response);
-        String status = root.at("/status").asText();
+        handlers = TapisEvents.instrument(_client.getMetrics(), handlers);
 
-        root = mapper.readTree(body);
+        if (timeline != null) {
+            JobStatusHandler[] recorded = new JobStatusHandler[handlers.length + 1];
+            String[] previous = new String[1];
 
-        String appId = root.at("/id").asText();
-        String appVersion = root.at("/version").asText();
+            recorded[0] = (status, uuid) -> {
+                JobTimeline.Transition transition = timeline.observe(status);
 
-        System.out.println("created app " + appId + ", version " + appVersion + ", status is " + status);
+                if (transition != null) {
+                    recordTransition(timeline, previous[0], transition);
 
-        if (status.equals("success")) {
-            String appConfig = getApp(appId, appVersion);
-            String filename = appId + "_" + appVersion + "_config.json";
+                    previous[0] = status;
+                }
 
-            try (FileWriter writer = new FileWriter(filename)) {
-                writer.write(appConfig);
-            }
+                return false;
+            };
+
+            System.arraycopy(handlers, 0, recorded, 1, handlers.length);
 
-            System.out.println("configuration for app " + appId + ", version " + appVersion + " written to " + filename);
+            handlers = recorded;
         }
-        else {
-            String filename = appId + "_" + appVersion + "_create.json";
 
-            try (FileWriter writer = new FileWriter(filename)) {
-                writer.write(response);
-            }
+        CompletableFuture<String> status;
+        String mode;
 
-            System.out.println("response written to " + filename);
+        if (_eventReceiver != null) {
+            mode = "events";
+            status = new EventWait(jobUuid, handlers).start();
         }
+        else if (_watcher != null) {
+            mode = "watcher";
 
-        return status;
+            System.out.println("waiting for status for job " + jobUuid + " using the status watcher...");
+
+            status = _watcher.watch(jobUuid, policy, handlers).thenApply(result -> {
+                System.out.println("finished waiting for status for job " + jobUuid + ", status is " + result);
+
+                return result;
+            });
+        }
+        else {
+            mode = "polling";
+            status = new StatusPoll(jobUuid, policy, handlers).start();
+        }
+
+        // a wait can end without a batch seeing the job end: a handler stopped it, it
+        // failed, or the statuses came from the per-job fallback
+
+        if (_batchedSource != null)
+            status = status.whenComplete((result, err) -> _batchedSource.untrack(jobUuid));
+
+        if (timeline == null || !_jobHistory)
+            return status;
+
+        return status.thenCompose(result -> {
+            if (!JobStatusHandler.isTerminal(result))
+                return CompletableFuture.completedFuture(result);
+
+            return getJobHistoryAsync(timeline).thenApply(ignored -> {
+                for (long millis : timeline.getDetectionMillis().values())
+                    _detectionMetrics.recordLatency("detect " + mode, TimeUnit.MILLISECONDS.toNanos(millis), false, -1);
+
+                return result;
+            });
+        });
     }
 
     /**
+     * Subscribes the event receiver to the job's status changes.
      *
-     * @param appId
-     * @param appVersion
+     * @param jobUuid
      * @return
-     * @throws HttpException
-     * @throws InterruptedException
-     * @throws IOException
      */
-    private String getApp(String appId, String appVersion) throws HttpException, IOException, InterruptedException
+    private CompletableFuture<String> subscribeAsync(String jobUuid)
     {
-        StringBuilder path = new StringBuilder();
+        ObjectNode request = JsonFieldExtractor.MAPPER.createObjectNode();
 
-        path.append("apps/");
-        path.append(appId);
-        path.append('/');
-        path.append(appVersion);
+        request.put("description", "status events for job " + jobUuid);
+        request.put("enabled", true);
+        request.put("eventCategoryFilter", "JOB_NEW_STATUS");
+        request.put("ttlMinutes", EVENT_SUBSCRIPTION_TTL_MINUTES);
 
-        Map<String, String> headers = new TreeMap<String, String>();
+        ObjectNode target = request.putArray("deliveryTargets").addObject();
 
-        headers.put("X-Tapis-Token", _token);
+        target.put("deliveryMethod", "WEBHOOK");
+        target.put("deliveryAddress", _eventReceiver.getDeliveryAddress());
 
-        return getResponse(path.toString(), headers, HttpMethod.GET, null);
+        try {
+            return callAsync("jobs/subscribe/" + jobUuid, HttpMethod.POST, RequestBody.ofJson(request));
+        }
+        catch (IOException err) {
+            return CompletableFuture.failedFuture(err);
+        }
     }
 
     /**
      *
-     * @param appId
-     * @param delete
-     * @return
-     * @throws HttpException
-     * @throws InterruptedException
-     * @throws IOException
+     * @param timeline
+     * @param previousStatus null for the first status seen
+     * @param transition
      */
-    private String setAppDeleteState(String appId, boolean delete) throws HttpException, IOException, InterruptedException
+    private void recordTransition(JobTimeline timeline, String previousStatus, JobTimeline.Transition transition)
     {
-        String action = delete ? "delete" : "undelete";
-        StringBuilder path = new StringBuilder();
-
-        path.append("apps/");
-        path.append(appId);
-        path.append('/');
-        path.append(action);
-
-        Map<String, String> headers = new TreeMap<String, String>();
-
-        headers.put("X-Tapis-Token", _token);
+        TapisEvents.JobStatusTransitionEvent event = new TapisEvents.JobStatusTransitionEvent();
+
+        if (event.shouldCommit()) {
+            event.jobUuid = timeline.getJobUuid();
+            event.appId = timeline.getAppId();
+            event.previousStatus = previousStatus;
+            event.status = transition.getStatus();
+            event.sinceSubmitMillis = transition.getOffsetMillis();
+            event.commit();
+        }
 
-        String response = getResponse(path.toString(), headers, HttpMethod.POST, null);
-        JsonNode root = (new ObjectMapper()).readTree(response);
-        String status = root.at("/status").asText();
+        _client.getMetrics().increment("status " + transition.getStatus());
+    }
 
-        System.out.println(action + "d app " + appId + ", status is " + status);
+    /**
+     * Adds the job's history to its timeline. The history is only diagnostic, so if it
+     * cannot be fetched or read for any reason the failure is logged and the timeline
+     * keeps the polled transitions only.
+     *
+     * @param timeline
+     * @return
+     */
+    private CompletableFuture<Void> getJobHistoryAsync(JobTimeline timeline)
+    {
+        StringBuilder path = new StringBuilder();
 
-        if (!status.equals("success")) {
-            String filename = appId + "_" + action + ".json";
+        path.append("jobs/");
+        path.append(timeline.getJobUuid());
+        path.append("/history");
 
-            try (FileWriter writer = new FileWriter(filename)) {
-                writer.write(response);
+        return callAsync(path.toString(), HttpMethod.GET, null).thenAccept(response -> {
+            try {
+                timeline.setHistory(JsonFieldExtractor.READER.readTree(response).at("/result"));
+            }
+            catch (IOException err) {
+                throw new CompletionException(err);
             }
+        })
+        .exceptionally(err -> {
+            Throwable cause = TapisClient.unwrap(err);
 
-            System.out.println("response written to " + filename);
-        }
+            if (cause instanceof HttpException)
+                System.out.println("history for job " + timeline.getJobUuid() + " is unavailable (" + ((HttpException) cause).getStatusCode() + ")");
+            else
+                System.out.println("history for job " + timeline.getJobUuid() + " could not be read: " + cause);
 
-        return status;
+            return null;
+        });
     }
 
     /**
      *
-     * @param name
-     * @param expected
-     * @param handlers
+     * @param jobUuid
+     * @return
      * @throws HttpException
      * @throws InterruptedException
      * @throws IOException
      */
-    private void runSubmitJobTest(String name, String expected, JobStatusHandler... handlers) throws HttpException, IOException, InterruptedException
+    private String getJobStatus(String jobUuid) throws HttpException, IOException, InterruptedException
     {
-        String config = readResource(name);
-        JsonNode root = (new ObjectMapper()).readTree(config);
-        String jobName = root.at("/name").asText();
-
-        System.out.println("running submit job test using " + jobName);
-
-        String jobUuid = submitJob(config);
-
-        Assert.assertNotNull(jobUuid);
+        StringBuilder path = new StringBuilder();
 
-        String status = waitForJobStatus(jobUuid, handlers);
+        path.append("jobs/");
+        path.append(jobUuid);
+        path.append("/status");
 
-        Assert.assertEquals(status, expected);
+        return TapisClient.await(callAsync(path.toString(), HttpMethod.GET, null).thenApply(response -> extractField(JOB_STATUS_FIELDS, response)));
     }
 
     /**
+     * Fetches the status of several jobs with one jobs search request, selecting only
+     * the uuid and status fields.
      *
-     * @param config
+     * @param jobUuids
      * @return
      * @throws HttpException
      * @throws InterruptedException
      * @throws IOException
      */
-    private String submitJob(String config) throws HttpException, IOException, InterruptedException
+    private Map<String, String> searchJobStatuses(List<String> jobUuids) throws HttpException, IOException, InterruptedException
     {
-        Map<String, String> headers = new TreeMap<String, String>();
-
-        headers.put("X-Tapis-Token", _token);
-        headers.put("Content-type", "application/json");
+        StringBuilder path = new StringBuilder();
 
-        String response = getResponse("jobs/submit", headers, HttpMethod.POST, config);
-        ObjectMapper mapper = new ObjectMapper();
-        JsonNode root = mapper.readTree(response);
-        String status = root.at("/status").asText();
-        String jobUuid;
-        String jobId;
+        path.append("jobs/search?select=uuid,status&computeTotal=false&limit=");
+        path.append(jobUuids.size());
+        path.append("&uuid.in=");
+        path.append(String.join(",", jobUuids));
 
-        if (status.equals("success")) {
-            jobUuid = root.at("/result/uuid").asText();
-            jobId = jobUuid;
-        }
-        else {
-            root = mapper.readTree(config);
-            jobId = root.at("/name").asText();
-            jobUuid = null;
-        }
+        Map<String, String> headers = new TreeMap<String, String>();
 
-        String filename = jobId + "_submit.json";
+        headers.put("X-Tapis-Token", _tokenProvider.getToken());
 
-        try (FileWriter writer = new FileWriter(filename)) {
-            writer.write(response);
-        }
+        String response = _client.getResponse(path.toString(), headers, HttpMethod.GET, null);
+        JsonNode root = JsonFieldExtractor.READER.readTree(response);
+        Map<String, String> statuses = new TreeMap<String, String>();
 
-        System.out.println("submitted job " + jobId + ", status is " + status + ", response written to " + filename);
+        for (JsonNode job : root.at("/result"))
+            statuses.put(job.at("/uuid").asText(), job.at("/status").asText());
 
-        return jobUuid;
+        return statuses;
     }
 
     /**
      *
      * @param jobUuid
      * @return
-     * @throws HttpException
-     * @throws InterruptedException
-     * @throws IOException
      */
-    private String cancelJob(String jobUuid) throws HttpException, IOException, InterruptedException
+    private CompletableFuture<Integer> getJobOutputCountAsync(String jobUuid)
     {
         StringBuilder path = new StringBuilder();
 
         path.append("jobs/");
         path.append(jobUuid);
-        path.append("/cancel");
-
-        Map<String, String> headers = new TreeMap<String, String>();
-
-        headers.put("X-Tapis-Token", _token);
-
-        String response = getResponse(path.toString(), headers, HttpMethod.POST, null);
-        JsonNode root = (new ObjectMapper()).readTree(response);
-        String status = root.at("/status").asText();
+        path.append("/output/list/");
 
-        System.out.println("cancelled job " + jobUuid + ", status is " + status);
+        return callAsync(path.toString(), HttpMethod.GET, null).thenApply(response -> {
+            try {
+                String[] fields = OUTPUT_LIST_FIELDS.extract(response);
 
-        if (!status.equals("success")) {
-            String filename = jobUuid + "_cancel.json";
+                if (fields[0].equals("success") && !fields[1].isEmpty())
+                    return Integer.parseInt(fields[1]);
 
-            try (FileWriter writer = new FileWriter(filename)) {
-                writer.write(response);
+                return 0;
             }
+            catch (NumberFormatException err) {
+                // a null or non-integer count reads as no output, as JsonNode.asInt() had it
 
-            System.out.println("response written to " + filename);
-        }
-
-        return status;
+                return 0;
+            }
+            catch (IOException err) {
+                throw new CompletionException(err);
+            }
+        });
     }
 
     /**
+     * Deals with a job's output according to TAPIS_OUTPUT_MODE. In the default "save"
+     * mode the archive is downloaded and then checked against any rules. In "verify" mode
+     * the archive is only read as a stream and checked, and is downloaded only if it
+     * fails; "verify-discard" keeps no archives at all. Either way, output without rules
+     * to check is not fetched.
      *
      * @param jobUuid
-     * @param handlers
-     * @return
-     * @throws HttpException
-     * @throws InterruptedException
-     * @throws IOException
+     * @param rules the output rules that apply to the job, or null
+     * @return the saved archive, or null if none was saved; fails with an IOException
+     *         if the output fails verification
      */
-    private String waitForJobStatus(String jobUuid, JobStatusHandler... handlers) throws HttpException, IOException, InterruptedException
+    private CompletableFuture<DownloadResult> handleJobOutputAsync(String jobUuid, OutputRules rules)
     {
-        StringBuilder pathBuilder = new StringBuilder();
-
-        pathBuilder.append("jobs/");
-        pathBuilder.append(jobUuid);
-        pathBuilder.append("/status");
-
-        String path = pathBuilder.toString();
-        Map<String, String> headers = new TreeMap<String, String>();
-
-        headers.put("X-Tapis-Token", _token);
-
-        ObjectMapper mapper = new ObjectMapper();
-        String status;
-
-        System.out.println("waiting for status for job " + jobUuid + "...");
-
-        while (true) {
-            Thread.sleep(5000);
-
-            String response = getResponse(path, headers, HttpMethod.GET, null);
-            JsonNode root = mapper.readTree(response);
+        if (_outputMode.equals("save")) {
+            return downloadJobOutputAsync(jobUuid).thenApplyAsync(download -> {
+                System.out.println("saved output for job " + jobUuid + " to " + download);
+
+                if (rules != null) {
+                    try (InputStream inStream = Files.newInputStream(Paths.get(download.getFilename()))) {
+                        checkJobOutput(jobUuid, rules.verify(inStream));
+                    }
+                    catch (IOException err) {
+                        throw new CompletionException(err);
+                    }
+                }
 
-            status = root.at("/result/status").asText();
+                return download;
+            }, _pipelineExecutor);
+        }
 
-            System.out.println("status is " + status);
+        if (rules == null)
+            return CompletableFuture.completedFuture(null);
 
-            boolean terminate = false;
+        return verifyJobOutputAsync(jobUuid, rules).thenCompose(failures -> {
+            if (failures.isEmpty() || !_outputMode.equals("verify")) {
+                checkJobOutput(jobUuid, failures);
 
-            for (JobStatusHandler handler : handlers) {
-                if (handler.handleStatus(status, jobUuid))
-                    terminate = true;
+                return CompletableFuture.completedFuture(null);
             }
 
-            if (terminate) {
-                String filename = jobUuid + "_status.json";
+            return downloadJobOutputAsync(jobUuid).thenApply(download -> {
+                System.out.println("saved failing output for job " + jobUuid + " to " + download);
 
-                try (FileWriter writer = new FileWriter(filename)) {
-                    writer.write(response);
-                }
+                checkJobOutput(jobUuid, failures);
 
-                System.out.println("finished waiting for status for job " + jobUuid + ", response written to " + filename);
+                return download;
+            });
+        });
+    }
 
-                break;
-            }
-        }
+    /**
+     *
+     * @param jobUuid
+     * @param failures
+     * @throws CompletionException with an IOException if there are failures
+     */
+    private static void checkJobOutput(String jobUuid, List<String> failures)
+    {
+        if (!failures.isEmpty())
+            throw new CompletionException(new IOException("output of job " + jobUuid + " failed verification: " + String.join("; ", failures)));
 
-        return status;
+        System.out.println("verified output for job " + jobUuid);
     }
 
     /**
+     * Streams a job's output archive through the rules without writing it to disk. The
+     * stream is read on the pipeline executor, since reading it blocks until the client
+     * has received the data.
      *
      * @param jobUuid
-     * @return
-     * @throws HttpException
-     * @throws InterruptedException
-     * @throws IOException
+     * @param rules
+     * @return the rules the archive breaks
      */
-    private int getJobOutputCount(String jobUuid) throws HttpException, IOException, InterruptedException
+    private CompletableFuture<List<String>> verifyJobOutputAsync(String jobUuid, OutputRules rules)
     {
         StringBuilder path = new StringBuilder();
 
         path.append("jobs/");
         path.append(jobUuid);
-        path.append("/output/list/");
-
-        Map<String, String> headers = new TreeMap<String, String>();
-
-        headers.put("X-Tapis-Token", _token);
-
-        String response = getResponse(path.toString(), headers, HttpMethod.GET, null);
-        JsonNode root = (new ObjectMapper()).readTree(response);
-        String status = root.at("/status").asText();
-        int count;
-
-        if (status.equals("success"))
-            count = root.at("/metadata/recordCount").asInt();
-        else
-            count = 0;
+        path.append("/output/download/?compress=true&format=zip");
 
-        return count;
+        return _downloadSlots.run(() -> callAsync(path.toString(), HttpMethod.GET, null, HttpResponse.BodyHandlers.ofInputStream()).thenApplyAsync(body -> {
+            try (InputStream inStream = body) {
+                return rules.verify(inStream);
+            }
+            catch (IOException err) {
+                throw new CompletionException(err);
+            }
+        }, _pipelineExecutor));
     }
 
     /**
      *
      * @param jobUuid
      * @return
-     * @throws HttpException
-     * @throws InterruptedException
-     * @throws IOException
      */
-    private String downloadJobOutput(String jobUuid) throws HttpException, IOException, InterruptedException
+    private CompletableFuture<DownloadResult> downloadJobOutputAsync(String jobUuid)
     {
         StringBuilder path = new StringBuilder();
 
@@ -681,103 +2021,73 @@ public class KubernetesTest
         path.append(jobUuid);
         path.append("/output/download/?compress=true&format=zip");
 
-        Map<String, String> headers = new TreeMap<String, String>();
-
-        headers.put("X-Tapis-Token", _token);
-
         String filename = jobUuid + "_output.zip";
 
-        downloadFile(path.toString(), headers, HttpMethod.GET, null, filename);
+        // bounds the downloads in flight when many jobs finish together
 
-        return filename;
+        return _downloadSlots.run(() -> _tokenProvider.getTokenAsync()
+            .thenCompose(token -> _client.downloadFileAsync(path.toString(), createHeaders(token, null), HttpMethod.GET, null, filename, _downloadAttempts)));
     }
 
     /**
      *
      * @param path
-     * @param headers
      * @param method
      * @param body
      * @return
-     * @throws HttpException
-     * @throws InterruptedException
-     * @throws IOException
      */
-    private String getResponse(String path, Map<String, String> headers, HttpMethod method, String body) throws HttpException, IOException, InterruptedException
+    private CompletableFuture<String> callAsync(String path, HttpMethod method, RequestBody body)
     {
-        return getHttpResponse(path, headers, method, body, HttpResponse.BodyHandlers.ofString());
+        return callAsync(path, method, body, HttpResponse.BodyHandlers.ofString());
     }
 
     /**
+     * Calls the gateway with the current token, sending the body as JSON.
      *
+     * @param <T>
      * @param path
-     * @param headers
      * @param method
      * @param body
-     * @param filename
-     * @throws HttpException
-     * @throws InterruptedException
-     * @throws IOException
+     * @param handler
+     * @return
      */
-    private void downloadFile(String path, Map<String, String> headers, HttpMethod method, String body, String filename) throws HttpException, IOException, InterruptedException
+    private <T> CompletableFuture<T> callAsync(String path, HttpMethod method, RequestBody body, HttpResponse.BodyHandler<T> handler)
     {
-        InputStream inStream = getHttpResponse(path, headers, method, body, HttpResponse.BodyHandlers.ofInputStream());
-
-        try (FileOutputStream outStream = new FileOutputStream(filename)) {
-            byte[] readBuffer = new byte[8192];
-            int bytesRead;
-
-            while ((bytesRead = inStream.read(readBuffer, 0, readBuffer.length)) >= 0)
-                outStream.write(readBuffer, 0, bytesRead);
-        }
+        return _tokenProvider.getTokenAsync().thenCompose(token -> _client.getHttpResponseAsync(path, createHeaders(token, body), method, body, handler));
     }
 
     /**
      *
-     * @param <T>
-     * @param path
-     * @param headers
-     * @param method
+     * @param token
      * @param body
-     * @param handler
-     * @return
-     * @throws HttpException
-     * @throws InterruptedException
-     * @throws IOException
+     * @return the token header, and a JSON content type if there is a body
      */
-    private <T> T getHttpResponse(String path, Map<String, String> headers, HttpMethod method, String body, HttpResponse.BodyHandler<T> handler) throws HttpException, IOException, InterruptedException
+    private static Map<String, String> createHeaders(String token, RequestBody body)
     {
-        String url = _tapisUrlBase + "/v3/" + path;
-        HttpRequest.Builder builder = HttpRequest.newBuilder().uri(URI.create(url));
+        Map<String, String> headers = new TreeMap<String, String>();
 
-        if (headers != null) {
-            for (Map.Entry<String, String> entry : headers.entrySet())
-                builder.header(entry.getKey(), entry.getValue());
-        }
+        headers.put("X-Tapis-Token", token);
 
-        if (method == HttpMethod.DELETE)
-            builder.DELETE();
-        else if (method != HttpMethod.GET) {
-            HttpRequest.BodyPublisher publisher;
+        if (body != null)
+            headers.put("Content-type", "application/json");
 
-            if (body != null)
-                publisher = HttpRequest.BodyPublishers.ofString(body);
-            else
-                publisher = HttpRequest.BodyPublishers.noBody();
+        return headers;
+    }
 
-            if (method == HttpMethod.POST)
-                builder.POST(publisher);
-            else if (method == HttpMethod.PUT)
-                builder.PUT(publisher);
+    /**
+     *
+     * @param fields
+     * @param response
+     * @return the first field
+     * @throws CompletionException with an IOException if the response cannot be parsed
+     */
+    private static String extractField(JsonFieldExtractor fields, String response)
+    {
+        try {
+            return fields.extract(response)[0];
+        }
+        catch (IOException err) {
+            throw new CompletionException(err);
         }
-
-        HttpRequest request = builder.build();
-        HttpClient client = HttpClient.newHttpClient();
-        HttpResponse<T> response = client.send(request, handler);
-
-        if (response.statusCode() >= 300)
-            throw HttpException.createInstance(response.statusCode(), response.body());
-
-        return response.body();
     }
 }
@@ -0,0 +1,185 @@
+package edu.utexas.tacc.tapis.kubernetes;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+
+/**
+ * Count, mean and nearest-rank percentiles of a set of latency samples in milliseconds.
+ */
+class LatencySummary
+{
+    // data fields
+
+
+    private final int _count;
+    private final double _mean;
+    private final long _min;
+    private final long _p50;
+    private final long _p90;
+    private final long _p99;
+    private final long _max;
+
+
+    // constructors
+
+
+    /**
+     *
+     * @param sorted
+     */
+    private LatencySummary(long[] sorted)
+    {
+        _count = sorted.length;
+
+        if (_count == 0) {
+            _mean = 0.0;
+            _min = 0;
+            _p50 = 0;
+            _p90 = 0;
+            _p99 = 0;
+            _max = 0;
+        }
+        else {
+            long total = 0;
+
+            for (long value : sorted)
+                total += value;
+
+            _mean = (double) total / _count;
+            _min = sorted[0];
+            _p50 = percentile(sorted, 50.0);
+            _p90 = percentile(sorted, 90.0);
+            _p99 = percentile(sorted, 99.0);
+            _max = sorted[_count - 1];
+        }
+    }
+
+
+    // public methods
+
+
+    /**
+     *
+     * @param samples
+     * @return
+     */
+    public static LatencySummary createInstance(Collection<Long> samples)
+    {
+        long[] sorted = new long[samples.size()];
+        int index = 0;
+
+        for (Long sample : samples)
+            sorted[index++] = sample;
+
+        Arrays.sort(sorted);
+
+        return new LatencySummary(sorted);
+    }
+
+    /**
+     *
+     * @param sorted
+     * @param percent
+     * @return
+     */
+    public static long percentile(long[] sorted, double percent)
+    {
+        if (sorted.length == 0)
+            return 0;
+
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+
+        return sorted[Math.max(rank, 1) - 1];
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int getCount()
+    {
+        return _count;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public double getMean()
+    {
+        return _mean;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public long getMin()
+    {
+        return _min;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public long getP50()
+    {
+        return _p50;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public long getP90()
+    {
+        return _p90;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public long getP99()
+    {
+        return _p99;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public long getMax()
+    {
+        return _max;
+    }
+
+    /**
+     *
+     * @param node
+     */
+    public void writeTo(ObjectNode node)
+    {
+        node.put("count", _count);
+        node.put("mean", _mean);
+        node.put("min", _min);
+        node.put("p50", _p50);
+        node.put("p90", _p90);
+        node.put("p99", _p99);
+        node.put("max", _max);
+    }
+
+    /**
+     *
+     * @return
+     */
+    @Override
+    public String toString()
+    {
+        return String.format("n=%d p50=%d p90=%d p99=%d max=%d ms", _count, _p50, _p90, _p99, _max);
+    }
+}
@@ -0,0 +1,249 @@
+package edu.utexas.tacc.tapis.kubernetes;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+
+/**
+ * In-process counters and latency histograms, cheap enough to update on every request
+ * from any number of threads. Latencies go into fixed buckets rather than being kept
+ * as samples, so memory stays constant over long runs; percentiles are reported as the
+ * upper bound of the bucket they fall in, capped at the maximum.
+ */
+class MetricsRegistry
+{
+    // nested classes
+
+
+    /**
+     * Sees every latency as it is recorded, on the recording thread.
+     */
+    @FunctionalInterface
+    interface LatencyListener
+    {
+        /**
+         *
+         * @param name
+         * @param nanos
+         * @param error
+         */
+        void latencyRecorded(String name, long nanos, boolean error);
+    }
+
+    /**
+     *
+     */
+    private static class Timer
+    {
+        private final LongAdder _count = new LongAdder();
+        private final LongAdder _errors = new LongAdder();
+        private final LongAdder _bytes = new LongAdder();
+        private final LongAdder _totalMicros = new LongAdder();
+        private final AtomicLong _maxMicros = new AtomicLong();
+        private final LongAdder[] _buckets;
+
+
+        /**
+         *
+         */
+        private Timer()
+        {
+            _buckets = new LongAdder[BUCKET_BOUNDS_MICROS.length + 1];
+
+            for (int i = 0 ; i < _buckets.length ; i++)
+                _buckets[i] = new LongAdder();
+        }
+
+        /**
+         *
+         * @param micros
+         * @param error
+         * @param bytes
+         */
+        private void record(long micros, boolean error, long bytes)
+        {
+            int bucket = 0;
+
+            while (bucket < BUCKET_BOUNDS_MICROS.length && micros > BUCKET_BOUNDS_MICROS[bucket])
+                bucket += 1;
+
+            _count.increment();
+            _buckets[bucket].increment();
+            _totalMicros.add(micros);
+            _maxMicros.accumulateAndGet(micros, Math::max);
+
+            if (error)
+                _errors.increment();
+
+            if (bytes > 0)
+                _bytes.add(bytes);
+        }
+
+        /**
+         *
+         * @param percentile
+         * @return upper bound of the bucket holding the percentile, or the maximum if that
+         *         is lower, in microseconds
+         */
+        private long getPercentileMicros(double percentile)
+        {
+            long count = _count.sum();
+            long rank = (long) Math.ceil(percentile / 100.0 * count);
+            long seen = 0;
+
+            for (int i = 0 ; i < BUCKET_BOUNDS_MICROS.length ; i++) {
+                seen += _buckets[i].sum();
+
+                if (seen >= rank)
+                    return Math.min(BUCKET_BOUNDS_MICROS[i], _maxMicros.get());
+            }
+
+            return _maxMicros.get();
+        }
+    }
+
+
+    // constants
+
+
+    private static final long[] BUCKET_BOUNDS_MICROS = {
+        250, 500, 1000, 2000, 5000, 10000, 20000, 50000, 100000, 200000, 500000,
+        1000000, 2000000, 5000000, 10000000, 30000000, 60000000
+    };
+
+
+    // data fields
+
+
+    private final Map<String, Timer> _timers;
+    private final Map<String, LongAdder> _counters;
+    private volatile LatencyListener _listener;
+
+
+    // constructors
+
+
+    /**
+     *
+     */
+    public MetricsRegistry()
+    {
+        _timers = new ConcurrentHashMap<String, Timer>();
+        _counters = new ConcurrentHashMap<String, LongAdder>();
+    }
+
+
+    // public methods
+
+
+    /**
+     *
+     * @param name
+     * @param nanos
+     * @param error
+     * @param bytes response size, or a negative value if unknown
+     */
+    public void recordLatency(String name, long nanos, boolean error, long bytes)
+    {
+        _timers.computeIfAbsent(name, key -> new Timer()).record(TimeUnit.NANOSECONDS.toMicros(nanos), error, bytes);
+
+        LatencyListener listener = _listener;
+
+        if (listener != null)
+            listener.latencyRecorded(name, nanos, error);
+    }
+
+    /**
+     *
+     * @param listener null to stop passing latencies on
+     */
+    public void setListener(LatencyListener listener)
+    {
+        _listener = listener;
+    }
+
+    /**
+     *
+     * @param name
+     */
+    public void increment(String name)
+    {
+        _counters.computeIfAbsent(name, key -> new LongAdder()).increment();
+    }
+
+    /**
+     * Prints one line per timer and counter, in name order.
+     */
+    public void print()
+    {
+        for (Map.Entry<String, Timer> entry : new TreeMap<String, Timer>(_timers).entrySet()) {
+            Timer timer = entry.getValue();
+            long count = timer._count.sum();
+
+            System.out.println(String.format(Locale.ROOT, "%-45s %7d calls %5d errors  mean %8.1f ms  p50 %7.1f ms  p99 %7.1f ms  max %8.1f ms  %10d bytes",
+                                             entry.getKey(), count, timer._errors.sum(),
+                                             count == 0 ? 0.0 : timer._totalMicros.sum() / 1000.0 / count,
+                                             timer.getPercentileMicros(50.0) / 1000.0, timer.getPercentileMicros(99.0) / 1000.0,
+                                             timer._maxMicros.get() / 1000.0, timer._bytes.sum()));
+        }
+
+        for (Map.Entry<String, LongAdder> entry : new TreeMap<String, LongAdder>(_counters).entrySet())
+            System.out.println(String.format(Locale.ROOT, "%-45s %7d", entry.getKey(), entry.getValue().sum()));
+    }
+
+    /**
+     *
+     * @param filename
+     * @throws IOException
+     */
+    public void writeReport(String filename) throws IOException
+    {
+        ObjectNode root = JsonFieldExtractor.MAPPER.createObjectNode();
+        ObjectNode timers = root.putObject("timers");
+
+        for (Map.Entry<String, Timer> entry : new TreeMap<String, Timer>(_timers).entrySet()) {
+            Timer timer = entry.getValue();
+            ObjectNode node = timers.putObject(entry.getKey());
+            long count = timer._count.sum();
+
+            node.put("count", count);
+            node.put("errors", timer._errors.sum());
+            node.put("bytes", timer._bytes.sum());
+            node.put("meanMicros", count == 0 ? 0.0 : (double) timer._totalMicros.sum() / count);
+            node.put("p50Micros", timer.getPercentileMicros(50.0));
+            node.put("p90Micros", timer.getPercentileMicros(90.0));
+            node.put("p99Micros", timer.getPercentileMicros(99.0));
+            node.put("maxMicros", timer._maxMicros.get());
+
+            ArrayNode histogram = node.putArray("histogram");
+
+            for (int i = 0 ; i < timer._buckets.length ; i++) {
+                ObjectNode bucket = histogram.addObject();
+
+                if (i < BUCKET_BOUNDS_MICROS.length)
+                    bucket.put("leMicros", BUCKET_BOUNDS_MICROS[i]);
+                else
+                    bucket.putNull("leMicros");
+
+                bucket.put("count", timer._buckets[i].sum());
+            }
+        }
+
+        ObjectNode counters = root.putObject("counters");
+
+        for (Map.Entry<String, LongAdder> entry : new TreeMap<String, LongAdder>(_counters).entrySet())
+            counters.put(entry.getKey(), entry.getValue().sum());
+
+        JsonFieldExtractor.MAPPER.writerWithDefaultPrettyPrinter().writeValue(new File(filename), root);
+    }
+}
@@ -0,0 +1,1201 @@
+package edu.utexas.tacc.tapis.kubernetes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+
+/**
+ * Embedded stand-in for the parts of the Tapis API used by the tests, so the suite and
+ * the load modes can run without a Tapis deployment or a Kubernetes cluster. Submitted
+ * jobs walk through the Tapis job states on a schedule fixed at submission time:
+ *
+ *   PENDING, PROCESSING_INPUTS, STAGING_INPUTS, STAGING_JOB, SUBMITTING_JOB and QUEUED
+ *   each last the configured state delay, RUNNING lasts the simulated run time, then
+ *   ARCHIVING lasts one state delay before FINISHED or FAILED.
+ *
+ * The run time of a job whose app launches sleep is the sleep argument given in the
+ * job's scheduler options, scaled by the time scale; without an argument the job fails,
+ * as sleep would. Other apps run for the default run time, and any job fails with the
+ * configured failure rate. Cancelling a job that has not finished makes it CANCELLED
+ * after the cancel delay, standing in for pod termination; with the cancel failure rate
+ * a cancel request is answered with an error and has no effect. Status is computed from the clock when requested, so the
+ * server needs no timers and can carry thousands of jobs.
+ *
+ * Output archives are generated once a job has reached a terminal state and served with
+ * a sha-256 Digest header, a strong ETag and byte range support that honours If-Range;
+ * with the download failure rate a transfer is cut off halfway, so that resumed downloads
+ * can be exercised. An MPI app
+ * whose launcher prints MPI_MARK timestamps gets them in its output as well, placed
+ * within the job's RUNNING time.
+ *
+ * A job subscribed through jobs/subscribe/{uuid} has each status it enters posted to the
+ * subscription's webhook as a Tapis notification, found by a scan of the subscribed jobs
+ * every few milliseconds and sent after the configured notification delay; the drop rate
+ * loses some of them, so that the pollers behind event-driven waits are exercised. With a
+ * job retention time, jobs are forgotten that long after they have finished.
+ */
+class MockTapisServer implements AutoCloseable
+{
+    // nested classes
+
+
+    /**
+     * Simulation settings, read from TAPIS_MOCK_* environment variables by fromEnv().
+     */
+    static class Options
+    {
+        long stateDelayMillis = 200;
+        long defaultRunMillis = 10000;
+        double timeScale = 0.1;
+        double failureRate = 0.0;
+        int outputSize = 1024;
+        int threads = 16;
+        long tokenTtlSeconds = 14400;
+        double downloadFailureRate = 0.0;
+        double rateLimit = 0.0;
+        double unavailableRate = 0.0;
+        long notificationDelayMillis = 0;
+        double notificationDropRate = 0.0;
+        long jobRetentionSeconds = 0;
+        long cancelDelayMillis = 200;
+        double cancelFailureRate = 0.0;
+
+
+        /**
+         *
+         * @return
+         */
+        static Options fromEnv()
+        {
+            Options options = new Options();
+
+            options.stateDelayMillis = EnvSettings.getInt("TAPIS_MOCK_STATE_DELAY", (int) options.stateDelayMillis);
+            options.defaultRunMillis = EnvSettings.getInt("TAPIS_MOCK_RUN_TIME", (int) options.defaultRunMillis);
+            options.timeScale = Double.parseDouble(EnvSettings.getString("TAPIS_MOCK_TIME_SCALE", String.valueOf(options.timeScale)));
+            options.failureRate = Double.parseDouble(EnvSettings.getString("TAPIS_MOCK_FAILURE_RATE", String.valueOf(options.failureRate)));
+            options.outputSize = EnvSettings.getInt("TAPIS_MOCK_OUTPUT_SIZE", options.outputSize);
+            options.threads = EnvSettings.getInt("TAPIS_MOCK_THREADS", options.threads);
+            options.tokenTtlSeconds = EnvSettings.getInt("TAPIS_MOCK_TOKEN_TTL", (int) options.tokenTtlSeconds);
+            options.downloadFailureRate = Double.parseDouble(EnvSettings.getString("TAPIS_MOCK_DOWNLOAD_FAILURE_RATE", String.valueOf(options.downloadFailureRate)));
+            options.rateLimit = Double.parseDouble(EnvSettings.getString("TAPIS_MOCK_RATE_LIMIT", String.valueOf(options.rateLimit)));
+            options.unavailableRate = Double.parseDouble(EnvSettings.getString("TAPIS_MOCK_UNAVAILABLE_RATE", String.valueOf(options.unavailableRate)));
+            options.notificationDelayMillis = EnvSettings.getInt("TAPIS_MOCK_NOTIFICATION_DELAY", (int) options.notificationDelayMillis);
+            options.notificationDropRate = Double.parseDouble(EnvSettings.getString("TAPIS_MOCK_NOTIFICATION_DROP_RATE", String.valueOf(options.notificationDropRate)));
+            options.jobRetentionSeconds = EnvSettings.getInt("TAPIS_MOCK_JOB_RETENTION", (int) options.jobRetentionSeconds);
+            options.cancelDelayMillis = EnvSettings.getInt("TAPIS_MOCK_CANCEL_DELAY", (int) options.cancelDelayMillis);
+            options.cancelFailureRate = Double.parseDouble(EnvSettings.getString("TAPIS_MOCK_CANCEL_FAILURE_RATE", String.valueOf(options.cancelFailureRate)));
+
+            return options;
+        }
+    }
+
+    /**
+     *
+     */
+    private static class MockApp
+    {
+        private final JsonNode _config;
+        private volatile boolean _deleted;
+
+
+        /**
+         *
+         * @param config
+         */
+        private MockApp(JsonNode config)
+        {
+            _config = config;
+        }
+    }
+
+    /**
+     *
+     */
+    private static class MockJob
+    {
+        private final String _uuid;
+        private final String _name;
+        private final String _appId;
+        private final boolean _mpi;
+        private final boolean _marks;
+        private final long _createdNanos;
+        private final Instant _createdAt;
+        private final long[] _offsetNanos;
+        private final String _outcome;
+        private volatile boolean _cancelRequested;
+        private volatile long _cancelledNanos;
+        private volatile String _deliveryAddress;
+        private int _notifiedCount;
+        private byte[] _output;
+
+
+        /**
+         *
+         * @param uuid
+         * @param name
+         * @param appId
+         * @param mpi
+         * @param marks true if the launcher prints MPI_MARK lines
+         * @param offsetNanos
+         * @param outcome
+         */
+        private MockJob(String uuid, String name, String appId, boolean mpi, boolean marks, long[] offsetNanos, String outcome)
+        {
+            _uuid = uuid;
+            _name = name;
+            _appId = appId;
+            _mpi = mpi;
+            _marks = marks;
+            _createdNanos = System.nanoTime();
+            _createdAt = Instant.now();
+            _offsetNanos = offsetNanos;
+            _outcome = outcome;
+        }
+
+        /**
+         *
+         * @return
+         */
+        private String getStatus()
+        {
+            long now = System.nanoTime();
+            String status = null;
+
+            for (int i = 0 ; i < _offsetNanos.length ; i++) {
+                if (now - _createdNanos < _offsetNanos[i])
+                    break;
+
+                status = i < STATES.length ? STATES[i] : _outcome;
+            }
+
+            if (_cancelRequested && now - _cancelledNanos >= 0 && !JobStatusHandler.isTerminal(status))
+                status = "CANCELLED";
+
+            return status;
+        }
+
+        /**
+         * Lists the states the job has entered so far, with the times it entered them,
+         * on the same schedule as getStatus().
+         *
+         * @return
+         */
+        private NavigableMap<Instant, String> getTransitions()
+        {
+            NavigableMap<Instant, String> transitions = new TreeMap<Instant, String>();
+            long now = System.nanoTime();
+
+            for (int i = 0 ; i < _offsetNanos.length ; i++) {
+                long entered = _createdNanos + _offsetNanos[i];
+
+                if (_cancelRequested && entered - _cancelledNanos > 0) {
+                    if (now - _cancelledNanos >= 0)
+                        transitions.put(_createdAt.plusNanos(_cancelledNanos - _createdNanos), "CANCELLED");
+
+                    break;
+                }
+
+                if (now - entered < 0)
+                    break;
+
+                transitions.put(_createdAt.plusNanos(_offsetNanos[i]), i < STATES.length ? STATES[i] : _outcome);
+            }
+
+            return transitions;
+        }
+    }
+
+    /**
+     *
+     */
+    private static class MockResponse
+    {
+        private final int _code;
+        private final byte[] _body;
+        private final String _contentType;
+        private final Map<String, String> _headers;
+        private final boolean _download;
+
+
+        /**
+         *
+         * @param code
+         * @param body
+         * @param contentType
+         */
+        private MockResponse(int code, byte[] body, String contentType)
+        {
+            this(code, body, contentType, Map.of(), false);
+        }
+
+        /**
+         *
+         * @param code
+         * @param body
+         * @param contentType
+         * @param headers
+         * @param download true if the body can be requested in byte ranges
+         */
+        private MockResponse(int code, byte[] body, String contentType, Map<String, String> headers, boolean download)
+        {
+            _code = code;
+            _body = body;
+            _contentType = contentType;
+            _headers = headers;
+            _download = download;
+        }
+    }
+
+
+    // constants
+
+
+    private static final String[] STATES = { "PENDING", "PROCESSING_INPUTS", "STAGING_INPUTS", "STAGING_JOB", "SUBMITTING_JOB", "QUEUED", "RUNNING", "ARCHIVING" };
+    private static final int RUNNING_INDEX = 6;
+    private static final Pattern SLEEP_ARG = Pattern.compile("args\\+=\"(\\d+)\"");
+    private static final Pattern BYTE_RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+    private static final String PI_OUTPUT = "pi is approximately 3.1415926544231341, Error is 0.0000000008333410\n";
+    private static final String MPI_MARK = "MPI_MARK";
+    private static final long NOTIFIER_INTERVAL_MILLIS = 25;
+
+
+    // data fields
+
+
+    private final Options _options;
+    private final HttpServer _server;
+    private final ExecutorService _executor;
+    private final Map<String, Instant> _tokens;
+    private final Map<String, MockApp> _apps;
+    private final Map<String, MockJob> _jobs;
+    private final AtomicLong _requestCount;
+    private final AtomicLong _throttledCount;
+    private final ScheduledExecutorService _scheduler;
+    private final HttpClient _notificationClient;
+    private final AtomicLong _notificationCount;
+    private final AtomicLong _droppedNotificationCount;
+    private final AtomicLong _cancelCount;
+    private double _permits;
+    private long _permitsUpdatedNanos;
+
+
+    // constructors
+
+
+    /**
+     *
+     * @param options
+     * @throws IOException
+     */
+    public MockTapisServer(Options options) throws IOException
+    {
+        if (System.getProperty("sun.net.httpserver.nodelay") == null)
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+
+        _options = options;
+        _server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+        _executor = Executors.newFixedThreadPool(options.threads);
+        _tokens = new ConcurrentHashMap<String, Instant>();
+        _apps = new ConcurrentHashMap<String, MockApp>();
+        _jobs = new ConcurrentHashMap<String, MockJob>();
+        _requestCount = new AtomicLong();
+        _throttledCount = new AtomicLong();
+        _scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "mock-scheduler");
+
+            thread.setDaemon(true);
+
+            return thread;
+        });
+        _notificationClient = HttpClient.newBuilder().executor(_executor).build();
+        _notificationCount = new AtomicLong();
+        _droppedNotificationCount = new AtomicLong();
+        _cancelCount = new AtomicLong();
+        _permits = options.rateLimit;
+        _permitsUpdatedNanos = System.nanoTime();
+
+        _server.setExecutor(_executor);
+        _server.createContext("/v3/", this::handle);
+        _server.start();
+
+        _scheduler.scheduleWithFixedDelay(this::notifySubscribers, NOTIFIER_INTERVAL_MILLIS, NOTIFIER_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+
+        if (options.jobRetentionSeconds > 0)
+            _scheduler.scheduleWithFixedDelay(this::removeExpiredJobs, 1, 1, TimeUnit.SECONDS);
+    }
+
+
+    // public methods
+
+
+    /**
+     *
+     * @return
+     */
+    public String getUrlBase()
+    {
+        return "http://" + _server.getAddress().getHostString() + ":" + _server.getAddress().getPort();
+    }
+
+    /**
+     *
+     * @return
+     */
+    public long getRequestCount()
+    {
+        return _requestCount.get();
+    }
+
+    /**
+     *
+     * @return the number of requests answered with 429 or 503
+     */
+    public long getThrottledCount()
+    {
+        return _throttledCount.get();
+    }
+
+    /**
+     *
+     * @return the number of job status notifications delivered and dropped on purpose
+     */
+    public long[] getNotificationCounts()
+    {
+        return new long[] { _notificationCount.get(), _droppedNotificationCount.get() };
+    }
+
+    /**
+     *
+     * @return the number of job cancel requests received
+     */
+    public long getCancelCount()
+    {
+        return _cancelCount.get();
+    }
+
+    /**
+     *
+     */
+    @Override
+    public void close()
+    {
+        _scheduler.shutdownNow();
+        _server.stop(0);
+        _executor.shutdownNow();
+    }
+
+
+    // private methods
+
+
+    /**
+     *
+     * @param exchange
+     * @throws IOException
+     */
+    private void handle(HttpExchange exchange) throws IOException
+    {
+        _requestCount.incrementAndGet();
+
+        try (exchange) {
+            String method = exchange.getRequestMethod();
+            String[] path = exchange.getRequestURI().getPath().substring("/v3/".length()).split("/");
+            byte[] body = exchange.getRequestBody().readAllBytes();
+            MockResponse response;
+
+            try {
+                if ((response = throttle()) != null)
+                    _throttledCount.incrementAndGet();
+                else if (path[0].equals("oauth2") && path.length > 1 && path[1].equals("tokens"))
+                    response = createToken();
+                else if (!isValidToken(exchange.getRequestHeaders().getFirst("X-Tapis-Token")))
+                    response = error(401, "TAPIS_SECURITY_NO_TOKEN invalid, expired or missing token");
+                else if (path[0].equals("apps"))
+                    response = handleApps(method, path, body);
+                else if (path[0].equals("jobs"))
+                    response = handleJobs(method, path, body, exchange.getRequestURI().getRawQuery());
+                else
+                    response = error(404, "unknown endpoint");
+            }
+            catch (IOException | RuntimeException err) {
+                response = error(500, err.toString());
+            }
+
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+
+            if (response._download && response._code == 200 && range != null && (ifRange == null || ifRange.equals(response._headers.get("ETag"))))
+                response = getRange(response, range);
+
+            if (response._contentType != null)
+                exchange.getResponseHeaders().set("Content-Type", response._contentType);
+
+            for (Map.Entry<String, String> entry : response._headers.entrySet())
+                exchange.getResponseHeaders().set(entry.getKey(), entry.getValue());
+
+            exchange.sendResponseHeaders(response._code, response._body.length == 0 ? -1 : response._body.length);
+
+            if (response._body.length > 0) {
+                if (response._download && ThreadLocalRandom.current().nextDouble() < _options.downloadFailureRate) {
+                    // closing the exchange, rather than its stream, short of the declared
+                    // length drops the connection
+
+                    exchange.getResponseBody().write(response._body, 0, response._body.length / 2);
+                    exchange.getResponseBody().flush();
+
+                    return;
+                }
+
+                try (OutputStream outStream = exchange.getResponseBody()) {
+                    outStream.write(response._body);
+                }
+            }
+        }
+    }
+
+    /**
+     * Turns a request away, as a gateway would, when it exceeds the configured request
+     * rate or falls within the configured share of unavailable responses. The request is
+     * not processed either way.
+     *
+     * @return a 429 or 503 response with a Retry-After, or null to go ahead
+     */
+    private MockResponse throttle()
+    {
+        if (_options.rateLimit > 0.0 && !takePermit())
+            return retryLater(429, "TAPIS_TOO_MANY_REQUESTS request rate exceeded");
+
+        if (_options.unavailableRate > 0.0 && ThreadLocalRandom.current().nextDouble() < _options.unavailableRate)
+            return retryLater(503, "service temporarily unavailable");
+
+        return null;
+    }
+
+    /**
+     * Takes a permit from a bucket that holds one second's worth of requests.
+     *
+     * @return false if the bucket is empty
+     */
+    private synchronized boolean takePermit()
+    {
+        long now = System.nanoTime();
+
+        _permits = Math.min(_permits + (now - _permitsUpdatedNanos) / 1e9 * _options.rateLimit, _options.rateLimit);
+        _permitsUpdatedNanos = now;
+
+        if (_permits < 1.0)
+            return false;
+
+        _permits -= 1.0;
+
+        return true;
+    }
+
+    /**
+     * Serves a single "bytes=start-" or "bytes=start-end" range of a download.
+     *
+     * @param response
+     * @param range
+     * @return
+     */
+    private static MockResponse getRange(MockResponse response, String range)
+    {
+        Matcher matcher = BYTE_RANGE.matcher(range);
+        int length = response._body.length;
+
+        if (!matcher.matches())
+            return response;
+
+        int start = Integer.parseInt(matcher.group(1));
+        int end = matcher.group(2).isEmpty() ? length - 1 : Math.min(Integer.parseInt(matcher.group(2)), length - 1);
+
+        if (start >= length || start > end) {
+            Map<String, String> headers = Map.of("Content-Range", "bytes */" + length);
+
+            return new MockResponse(416, new byte[0], null, headers, false);
+        }
+
+        Map<String, String> headers = new TreeMap<String, String>(response._headers);
+
+        headers.put("Content-Range", "bytes " + start + "-" + end + "/" + length);
+
+        return new MockResponse(206, Arrays.copyOfRange(response._body, start, end + 1), response._contentType, headers, true);
+    }
+
+    /**
+     *
+     * @param value
+     * @return
+     */
+    private boolean isValidToken(String value)
+    {
+        Instant expiresAt = value != null ? _tokens.get(value) : null;
+
+        return expiresAt != null && Instant.now().isBefore(expiresAt);
+    }
+
+    /**
+     * Issues a new token on every request, valid for the configured time to live.
+     *
+     * @return
+     * @throws IOException
+     */
+    private MockResponse createToken() throws IOException
+    {
+        ObjectNode token = JsonFieldExtractor.MAPPER.createObjectNode();
+        String value = "mock-" + UUID.randomUUID();
+        long expiresIn = _options.tokenTtlSeconds;
+        Instant expiresAt = Instant.now().plusSeconds(expiresIn);
+
+        _tokens.put(value, expiresAt);
+
+        token.put("access_token", value);
+        token.put("expires_in", expiresIn);
+        token.put("expires_at", expiresAt.toString());
+
+        ObjectNode result = JsonFieldExtractor.MAPPER.createObjectNode();
+
+        result.set("access_token", token);
+
+        return success(result);
+    }
+
+    /**
+     *
+     * @param method
+     * @param path
+     * @param body
+     * @return
+     * @throws IOException
+     */
+    private MockResponse handleApps(String method, String[] path, byte[] body) throws IOException
+    {
+        if (path.length == 1 && method.equals("POST")) {
+            JsonNode config = JsonFieldExtractor.READER.readTree(body);
+            String appId = config.at("/id").asText();
+
+            if (_apps.putIfAbsent(appId, new MockApp(config)) != null)
+                return error(409, "APPAPI_APP_EXISTS app " + appId + " already exists");
+
+            ObjectNode result = JsonFieldExtractor.MAPPER.createObjectNode();
+
+            result.put("url", getUrlBase() + "/v3/apps/" + appId);
+
+            return success(result);
+        }
+
+        if (path.length != 3)
+            return error(404, "unknown apps endpoint");
+
+        MockApp app = _apps.get(path[1]);
+
+        if (method.equals("GET")) {
+            if (app == null || app._deleted || !app._config.at("/version").asText().equals(path[2]))
+                return error(404, "APPAPI_NOT_FOUND app " + path[1] + " version " + path[2] + " not found");
+
+            return success(app._config);
+        }
+
+        if (method.equals("POST") && (path[2].equals("delete") || path[2].equals("undelete"))) {
+            if (app == null)
+                return error(404, "APPAPI_NOT_FOUND app " + path[1] + " not found");
+
+            app._deleted = path[2].equals("delete");
+
+            ObjectNode result = JsonFieldExtractor.MAPPER.createObjectNode();
+
+            result.put("changes", 1);
+
+            return success(result);
+        }
+
+        return error(404, "unknown apps endpoint");
+    }
+
+    /**
+     *
+     * @param method
+     * @param path
+     * @param body
+     * @param query
+     * @return
+     * @throws IOException
+     */
+    private MockResponse handleJobs(String method, String[] path, byte[] body, String query) throws IOException
+    {
+        if (path.length == 2 && path[1].equals("submit") && method.equals("POST"))
+            return submitJob(body);
+
+        if (path.length == 2 && path[1].equals("search") && method.equals("GET"))
+            return searchJobs(query);
+
+        if (path.length == 3 && path[1].equals("subscribe") && method.equals("POST"))
+            return subscribe(path[2], body);
+
+        if (path.length < 3)
+            return error(404, "unknown jobs endpoint");
+
+        MockJob job = _jobs.get(path[1]);
+
+        if (job == null)
+            return error(404, "JOBS_JOB_NOT_FOUND job " + path[1] + " not found");
+
+        if (path[2].equals("status") && method.equals("GET")) {
+            ObjectNode result = JsonFieldExtractor.MAPPER.createObjectNode();
+
+            result.put("status", job.getStatus());
+
+            return success(result);
+        }
+
+        if (path[2].equals("history") && method.equals("GET")) {
+            ArrayNode result = JsonFieldExtractor.MAPPER.createArrayNode();
+
+            for (Map.Entry<Instant, String> transition : job.getTransitions().entrySet()) {
+                ObjectNode event = result.addObject();
+
+                event.put("event", "JOB_NEW_STATUS");
+                event.put("created", transition.getKey().toString());
+                event.put("eventDetail", transition.getValue());
+                event.put("description", "The job has transitioned to a new status: " + transition.getValue() + ".");
+            }
+
+            return success(result);
+        }
+
+        if (path[2].equals("cancel") && method.equals("POST")) {
+            _cancelCount.incrementAndGet();
+
+            if (_options.cancelFailureRate > 0.0 && ThreadLocalRandom.current().nextDouble() < _options.cancelFailureRate)
+                return error(500, "JOBS_CANCEL_FAILED unable to cancel job " + job._uuid);
+
+            synchronized (job) {
+                if (!JobStatusHandler.isTerminal(job.getStatus()) && !job._cancelRequested) {
+                    job._cancelledNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(_options.cancelDelayMillis);
+                    job._cancelRequested = true;
+                }
+            }
+
+            ObjectNode result = JsonFieldExtractor.MAPPER.createObjectNode();
+
+            result.put("message", "cancel requested for job " + job._uuid);
+
+            return success(result);
+        }
+
+        if (path[2].equals("output") && path.length > 3 && method.equals("GET")) {
+            if (path[3].equals("list"))
+                return listOutput(job);
+
+            if (path[3].equals("download"))
+                return getOutputZip(job);
+        }
+
+        return error(404, "unknown jobs endpoint");
+    }
+
+    /**
+     *
+     * @param body
+     * @return
+     * @throws IOException
+     */
+    private MockResponse submitJob(byte[] body) throws IOException
+    {
+        JsonNode request = JsonFieldExtractor.READER.readTree(body);
+        String appId = request.at("/appId").asText();
+        MockApp app = _apps.get(appId);
+
+        if (app == null || app._deleted)
+            return error(400, "JOBS_APP_NOT_FOUND app " + appId + " not found");
+
+        String appConfig = app._config.toString();
+        boolean sleep = appConfig.contains("\\\"sleep\\\"");
+        boolean mpi = app._config.at("/jobAttributes/isMpi").asBoolean();
+        boolean marks = mpi && appConfig.contains(MPI_MARK);
+        String sleepArg = null;
+
+        for (JsonNode option : request.at("/parameterSet/schedulerOptions")) {
+            Matcher matcher = SLEEP_ARG.matcher(option.at("/arg").asText());
+
+            if (matcher.find())
+                sleepArg = matcher.group(1);
+        }
+
+        String outcome = "FINISHED";
+        long runMillis;
+
+        if (sleep) {
+            if (sleepArg != null)
+                runMillis = (long) (Long.parseLong(sleepArg) * 1000 * _options.timeScale);
+            else {
+                runMillis = 0;
+                outcome = "FAILED";
+            }
+        }
+        else
+            runMillis = _options.defaultRunMillis;
+
+        if (_options.failureRate > 0.0 && ThreadLocalRandom.current().nextDouble() < _options.failureRate)
+            outcome = "FAILED";
+
+        long[] offsetNanos = new long[STATES.length + 1];
+        long offset = 0;
+
+        for (int i = 0 ; i < offsetNanos.length ; i++) {
+            offsetNanos[i] = offset;
+            offset += TimeUnit.MILLISECONDS.toNanos(i == RUNNING_INDEX ? runMillis : _options.stateDelayMillis);
+        }
+
+        MockJob job = new MockJob(UUID.randomUUID() + "-007", request.at("/name").asText(), appId, mpi, marks, offsetNanos, outcome);
+
+        _jobs.put(job._uuid, job);
+
+        ObjectNode result = JsonFieldExtractor.MAPPER.createObjectNode();
+
+        result.put("uuid", job._uuid);
+        result.put("name", job._name);
+        result.put("appId", job._appId);
+        result.put("status", "PENDING");
+
+        return success(result);
+    }
+
+    /**
+     *
+     * @param query
+     * @return
+     * @throws IOException
+     */
+    private MockResponse searchJobs(String query) throws IOException
+    {
+        Map<String, String> params = parseQuery(query);
+        String uuids = params.get("uuid.in");
+        ArrayNode result = JsonFieldExtractor.MAPPER.createArrayNode();
+
+        if (uuids != null) {
+            for (String uuid : uuids.split(",")) {
+                MockJob job = _jobs.get(uuid);
+
+                if (job != null) {
+                    ObjectNode entry = result.addObject();
+
+                    entry.put("uuid", job._uuid);
+                    entry.put("status", job.getStatus());
+                }
+            }
+        }
+
+        return success(result);
+    }
+
+    /**
+     *
+     * @param job
+     * @return
+     * @throws IOException
+     */
+    private MockResponse listOutput(MockJob job) throws IOException
+    {
+        List<String> files = getOutputFiles(job);
+        ArrayNode result = JsonFieldExtractor.MAPPER.createArrayNode();
+
+        for (String file : files) {
+            ObjectNode entry = result.addObject();
+
+            entry.put("name", file);
+            entry.put("type", "file");
+            entry.put("path", file);
+        }
+
+        ObjectNode response = createEnvelope();
+
+        response.set("result", result);
+        response.putObject("metadata").put("recordCount", files.size());
+
+        return new MockResponse(200, JsonFieldExtractor.MAPPER.writeValueAsBytes(response), "application/json");
+    }
+
+    /**
+     *
+     * @param job
+     * @return
+     */
+    private List<String> getOutputFiles(MockJob job)
+    {
+        List<String> files = new ArrayList<String>(Arrays.asList("tapisjob.out", "tapisjob.err"));
+
+        if (_options.outputSize > 0)
+            files.add("output.dat");
+
+        return files;
+    }
+
+    /**
+     * Returns the job's output archive. Once the job has reached a terminal state the
+     * archive is kept, so that every download and range of it sees the same bytes.
+     *
+     * @param job
+     * @return
+     * @throws IOException
+     */
+    private MockResponse getOutputZip(MockJob job) throws IOException
+    {
+        byte[] zip;
+
+        synchronized (job) {
+            zip = job._output;
+
+            if (zip == null) {
+                boolean terminal = JobStatusHandler.isTerminal(job.getStatus());
+
+                zip = createOutputZip(job);
+
+                if (terminal)
+                    job._output = zip;
+            }
+        }
+
+        Map<String, String> headers = new TreeMap<String, String>();
+
+        headers.put("Accept-Ranges", "bytes");
+
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(zip);
+
+            headers.put("Digest", "sha-256=" + Base64.getEncoder().encodeToString(digest));
+            headers.put("ETag", "\"" + HexFormat.of().formatHex(digest, 0, 16) + "\"");
+        }
+        catch (NoSuchAlgorithmException err) {
+            throw new IllegalStateException(err);
+        }
+
+        return new MockResponse(200, zip, "application/zip", headers, true);
+    }
+
+    /**
+     *
+     * @param job
+     * @return
+     * @throws IOException
+     */
+    private byte[] createOutputZip(MockJob job) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            for (String file : getOutputFiles(job)) {
+                zip.putNextEntry(new ZipEntry(file));
+
+                if (file.equals("tapisjob.out") && job._mpi && job.getStatus().equals("FINISHED"))
+                    zip.write(getPiOutput(job).getBytes(StandardCharsets.UTF_8));
+                else if (file.equals("tapisjob.err") && job.getStatus().equals("FAILED") && !job._mpi)
+                    zip.write("sleep: missing operand\n".getBytes(StandardCharsets.UTF_8));
+                else if (file.equals("output.dat")) {
+                    byte[] block = new byte[8192];
+
+                    for (int remaining = _options.outputSize ; remaining > 0 ; remaining -= block.length) {
+                        ThreadLocalRandom.current().nextBytes(block);
+                        zip.write(block, 0, Math.min(block.length, remaining));
+                    }
+                }
+
+                zip.closeEntry();
+            }
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Returns the output of the pi program, surrounded by the marks a launcher script
+     * would print: the launcher starts 30% of the way into RUNNING, the ranks are up at
+     * 40% and the program ends with RUNNING.
+     *
+     * @param job
+     * @return
+     */
+    private static String getPiOutput(MockJob job)
+    {
+        if (!job._marks)
+            return PI_OUTPUT;
+
+        long running = job._offsetNanos[RUNNING_INDEX];
+        long span = job._offsetNanos[RUNNING_INDEX + 1] - running;
+        long start = job._createdAt.plusNanos(running + span * 3 / 10).toEpochMilli();
+        long wired = job._createdAt.plusNanos(running + span * 4 / 10).toEpochMilli();
+        long done = job._createdAt.plusNanos(running + span).toEpochMilli();
+
+        return MPI_MARK + " start " + start + "\n" + MPI_MARK + " wired " + wired + "\n" + PI_OUTPUT + MPI_MARK + " done " + done + "\n";
+    }
+
+    /**
+     * Subscribes a webhook to a job's status changes. Only the first WEBHOOK delivery
+     * target is used, and a job has at most one subscription.
+     *
+     * @param jobUuid
+     * @param body
+     * @return
+     * @throws IOException
+     */
+    private MockResponse subscribe(String jobUuid, byte[] body) throws IOException
+    {
+        MockJob job = _jobs.get(jobUuid);
+
+        if (job == null)
+            return error(404, "JOBS_JOB_NOT_FOUND job " + jobUuid + " not found");
+
+        JsonNode request = JsonFieldExtractor.READER.readTree(body);
+        String deliveryAddress = null;
+
+        for (JsonNode target : request.path("deliveryTargets")) {
+            if (target.at("/deliveryMethod").asText().equals("WEBHOOK")) {
+                deliveryAddress = target.at("/deliveryAddress").asText();
+
+                break;
+            }
+        }
+
+        if (deliveryAddress == null || deliveryAddress.isEmpty())
+            return error(400, "JOBS_SUBSCRIPTION_INVALID no webhook delivery target");
+
+        job._deliveryAddress = deliveryAddress;
+
+        ObjectNode result = JsonFieldExtractor.MAPPER.createObjectNode();
+
+        result.put("url", getUrlBase() + "/v3/notifications/subscriptions/" + jobUuid);
+
+        return success(result);
+    }
+
+    /**
+     * Posts each status a subscribed job has entered since the last scan to its webhook,
+     * in order, after the configured notification delay. With the notification drop rate
+     * some are never sent, as a lost delivery would be.
+     */
+    private void notifySubscribers()
+    {
+        for (MockJob job : _jobs.values()) {
+            String deliveryAddress = job._deliveryAddress;
+
+            if (deliveryAddress == null)
+                continue;
+
+            List<Map.Entry<Instant, String>> transitions = new ArrayList<Map.Entry<Instant, String>>(job.getTransitions().entrySet());
+
+            for (int i = job._notifiedCount ; i < transitions.size() ; i++) {
+                if (ThreadLocalRandom.current().nextDouble() < _options.notificationDropRate) {
+                    _droppedNotificationCount.incrementAndGet();
+
+                    continue;
+                }
+
+                String previous = i > 0 ? transitions.get(i - 1).getValue() : null;
+                HttpRequest request;
+
+                try {
+                    request = HttpRequest.newBuilder(URI.create(deliveryAddress))
+                                         .header("Content-Type", "application/json")
+                                         .POST(HttpRequest.BodyPublishers.ofByteArray(createNotification(job, transitions.get(i), previous)))
+                                         .build();
+                }
+                catch (IOException | IllegalArgumentException err) {
+                    _droppedNotificationCount.incrementAndGet();
+
+                    continue;
+                }
+
+                Executor delayed = CompletableFuture.delayedExecutor(_options.notificationDelayMillis, TimeUnit.MILLISECONDS, _scheduler);
+
+                CompletableFuture.supplyAsync(() -> _notificationClient.sendAsync(request, HttpResponse.BodyHandlers.discarding()), delayed)
+                                 .thenCompose(Function.identity())
+                                 .whenComplete((response, err) -> {
+                                     if (err == null && response.statusCode() == 200)
+                                         _notificationCount.incrementAndGet();
+                                     else
+                                         _droppedNotificationCount.incrementAndGet();
+                                 });
+            }
+
+            job._notifiedCount = transitions.size();
+        }
+    }
+
+    /**
+     * Forgets jobs that reached a terminal state more than the retention time ago, so
+     * that a long run against the mock does not keep every job it has submitted.
+     */
+    private void removeExpiredJobs()
+    {
+        Instant expired = Instant.now().minusSeconds(_options.jobRetentionSeconds);
+
+        _jobs.values().removeIf(job -> {
+            Map.Entry<Instant, String> last = job.getTransitions().lastEntry();
+
+            return last != null && JobStatusHandler.isTerminal(last.getValue()) && last.getKey().isBefore(expired);
+        });
+    }
+
+    /**
+     * Builds a notification as the Tapis notifications service delivers it, with the job
+     * status event's data as a JSON string.
+     *
+     * @param job
+     * @param transition
+     * @param previousStatus
+     * @return
+     * @throws IOException
+     */
+    private static byte[] createNotification(MockJob job, Map.Entry<Instant, String> transition, String previousStatus) throws IOException
+    {
+        ObjectNode data = JsonFieldExtractor.MAPPER.createObjectNode();
+
+        data.put("jobUuid", job._uuid);
+        data.put("jobName", job._name);
+        data.put("newJobStatus", transition.getValue());
+        data.put("oldJobStatus", previousStatus);
+
+        ObjectNode notification = JsonFieldExtractor.MAPPER.createObjectNode();
+
+        notification.put("uuid", UUID.randomUUID().toString());
+        notification.put("tenant", "mock");
+        notification.put("subscriptionName", "jobs-" + job._uuid);
+
+        ObjectNode event = notification.putObject("event");
+
+        event.put("source", "tapis.jobs");
+        event.put("type", "jobs.JOB_NEW_STATUS." + transition.getValue());
+        event.put("subject", job._uuid);
+        event.put("timestamp", transition.getKey().toString());
+        event.put("data", JsonFieldExtractor.MAPPER.writeValueAsString(data));
+
+        notification.put("created", Instant.now().toString());
+
+        return JsonFieldExtractor.MAPPER.writeValueAsBytes(notification);
+    }
+
+    /**
+     *
+     * @return
+     */
+    private ObjectNode createEnvelope()
+    {
+        ObjectNode response = JsonFieldExtractor.MAPPER.createObjectNode();
+
+        response.put("status", "success");
+        response.put("message", "ok");
+        response.put("version", "mock");
+
+        return response;
+    }
+
+    /**
+     *
+     * @param result
+     * @return
+     * @throws IOException
+     */
+    private MockResponse success(JsonNode result) throws IOException
+    {
+        ObjectNode response = createEnvelope();
+
+        response.set("result", result);
+        response.putNull("metadata");
+
+        return new MockResponse(200, JsonFieldExtractor.MAPPER.writeValueAsBytes(response), "application/json");
+    }
+
+    /**
+     *
+     * @param code
+     * @param message
+     * @return
+     */
+    private static MockResponse error(int code, String message)
+    {
+        ObjectNode response = JsonFieldExtractor.MAPPER.createObjectNode();
+
+        response.put("status", "error");
+        response.put("message", message);
+        response.put("version", "mock");
+        response.putNull("result");
+
+        return new MockResponse(code, response.toString().getBytes(StandardCharsets.UTF_8), "application/json");
+    }
+
+    /**
+     *
+     * @param code
+     * @param message
+     * @return an error response asking the client to retry in a second
+     */
+    private static MockResponse retryLater(int code, String message)
+    {
+        MockResponse response = error(code, message);
+
+        return new MockResponse(code, response._body, response._contentType, Map.of("Retry-After", "1"), false);
+    }
+
+    /**
+     *
+     * @param query
+     * @return
+     */
+    private static Map<String, String> parseQuery(String query)
+    {
+        Map<String, String> params = new TreeMap<String, String>();
+
+        if (query == null)
+            return params;
+
+        for (String pair : query.split("&")) {
+            int index = pair.indexOf('=');
+
+            if (index > 0)
+                params.put(URLDecoder.decode(pair.substring(0, index), StandardCharsets.UTF_8), URLDecoder.decode(pair.substring(index + 1), StandardCharsets.UTF_8));
+        }
+
+        return params;
+    }
+}
@@ -0,0 +1,497 @@
+package edu.utexas.tacc.tapis.kubernetes;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+
+/**
+ * Strong scaling benchmark for an MPIJob app. Each variant of the app runs W
+ * worker pods with S slots each and starts mpirun with -n W*S. Instead of mpirun, the
+ * launcher runs a short script that prints a timestamped mark when it starts, after an
+ * "mpirun hostname" that only brings up the ranks over ssh, and after the program
+ * itself. The time a job spends RUNNING then splits into pod startup (RUNNING until the
+ * launcher starts, which the MPI operator delays until the workers are ready), MPI setup
+ * (sshd on the workers reached and ranks started) and compute.
+ *
+ * The scaling table treats the compute times as one fixed problem divided among more
+ * ranks, with speedup and efficiency against the variant with the fewest ranks. There is
+ * no weak scaling table: the program is run with the same arguments for every variant,
+ * so the problem size does not grow with the rank count, and the ratio of compute times
+ * would only restate the strong scaling speedup under another name.
+ */
+class MpiScalingBenchmark
+{
+    // nested classes
+
+
+    /**
+     *
+     */
+    public static class Variant
+    {
+        private final int _workers;
+        private final int _slots;
+
+
+        /**
+         *
+         * @param workers
+         * @param slots slots per worker
+         */
+        private Variant(int workers, int slots)
+        {
+            _workers = workers;
+            _slots = slots;
+        }
+
+        /**
+         *
+         * @return the number of MPI ranks
+         */
+        public int getProcesses()
+        {
+            return _workers * _slots;
+        }
+
+        /**
+         *
+         * @return
+         */
+        @Override
+        public String toString()
+        {
+            return _workers + " workers x " + _slots + " slots";
+        }
+    }
+
+    /**
+     * Times taken from one job, in milliseconds.
+     */
+    public static class Sample
+    {
+        private final long _podStartup;
+        private final long _mpiSetup;
+        private final long _compute;
+
+
+        /**
+         *
+         * @param podStartup -1 if the time the job started RUNNING is unknown
+         * @param mpiSetup
+         * @param compute
+         */
+        private Sample(long podStartup, long mpiSetup, long compute)
+        {
+            _podStartup = podStartup;
+            _mpiSetup = mpiSetup;
+            _compute = compute;
+        }
+    }
+
+    /**
+     *
+     */
+    public static class VariantResult
+    {
+        private final Variant _variant;
+        private final int _jobs;
+        private final int _failures;
+        private final LatencySummary _podStartup;
+        private final LatencySummary _mpiSetup;
+        private final LatencySummary _compute;
+
+
+        /**
+         *
+         * @param variant
+         * @param jobs
+         * @param failures
+         * @param podStartup
+         * @param mpiSetup
+         * @param compute
+         */
+        private VariantResult(Variant variant, int jobs, int failures, LatencySummary podStartup, LatencySummary mpiSetup, LatencySummary compute)
+        {
+            _variant = variant;
+            _jobs = jobs;
+            _failures = failures;
+            _podStartup = podStartup;
+            _mpiSetup = mpiSetup;
+            _compute = compute;
+        }
+
+        /**
+         *
+         * @return the number of jobs that did not finish or left no marks
+         */
+        public int getFailures()
+        {
+            return _failures;
+        }
+
+        /**
+         *
+         * @return
+         */
+        @Override
+        public String toString()
+        {
+            return String.format("%s: %d jobs (%d failed); pod startup %s; MPI setup %s; compute %s",
+                                 _variant, _jobs, _failures, _podStartup, _mpiSetup, _compute);
+        }
+    }
+
+
+    // constants
+
+
+    private static final String MARK = "MPI_MARK";
+    private static final String WORKER_REPLICAS = "spec.mpiReplicaSpecs.Worker.replicas=";
+    private static final String SLOTS_PER_WORKER = "spec.slotsPerWorker=";
+    private static final String LAUNCHER_COMMAND = "spec.mpiReplicaSpecs.Launcher.template.spec.containers.command=";
+    private static final String LAUNCHER_ARGS = "spec.mpiReplicaSpecs.Launcher.template.spec.containers.args=";
+
+
+    // data fields
+
+
+    private final ObjectNode _app;
+    private final ObjectNode _job;
+    private final String _program;
+
+
+    // constructors
+
+
+    /**
+     *
+     * @param appConfig the MPI app to vary, launching mpirun -n N program
+     * @param jobConfig a job for the app
+     * @throws IOException
+     */
+    public MpiScalingBenchmark(String appConfig, String jobConfig) throws IOException
+    {
+        _app = (ObjectNode) JsonFieldExtractor.READER.readTree(appConfig);
+        _job = (ObjectNode) JsonFieldExtractor.READER.readTree(jobConfig);
+        _program = getProgram(_app);
+    }
+
+
+    // public methods
+
+
+    /**
+     * Returns every combination of the worker counts and slots per worker, in order of
+     * the number of ranks.
+     *
+     * @param workers comma-separated worker counts
+     * @param slots comma-separated slots per worker
+     * @return
+     */
+    public static List<Variant> parseVariants(String workers, String slots)
+    {
+        List<Variant> variants = new ArrayList<Variant>();
+
+        for (int workerCount : ThroughputBenchmark.parseLevels(workers)) {
+            for (int slotCount : ThroughputBenchmark.parseLevels(slots))
+                variants.add(new Variant(workerCount, slotCount));
+        }
+
+        variants.sort(Comparator.comparingInt(Variant::getProcesses).thenComparingInt(variant -> variant._workers));
+
+        return variants;
+    }
+
+    /**
+     *
+     * @param variant
+     * @return the app registered for the variant
+     */
+    public String getAppId(Variant variant)
+    {
+        return _app.at("/id").asText() + ".w" + variant._workers + "s" + variant._slots;
+    }
+
+    /**
+     *
+     * @param variant
+     * @return the app definition for the variant, with the launcher script in place of mpirun
+     */
+    public String createAppConfig(Variant variant)
+    {
+        ObjectNode app = _app.deepCopy();
+        ArrayNode options = app.withObject("/jobAttributes/parameterSet").withArray("schedulerOptions");
+        int processes = variant.getProcesses();
+        StringBuilder script = new StringBuilder();
+
+        script.append("set -e; ");
+        script.append(createMark("start"));
+        script.append("mpirun -n ").append(processes).append(" hostname > /dev/null; ");
+        script.append(createMark("wired"));
+        script.append("mpirun -n ").append(processes).append(' ').append(_program).append("; ");
+        script.append(createMark("done"));
+
+        app.put("id", getAppId(variant));
+        app.put("description", app.at("/description").asText() + ", " + variant);
+
+        ParameterSweep.setOption(options, WORKER_REPLICAS, WORKER_REPLICAS + variant._workers);
+        ParameterSweep.setOption(options, SLOTS_PER_WORKER, SLOTS_PER_WORKER + variant._slots);
+        ParameterSweep.setOption(options, LAUNCHER_COMMAND, LAUNCHER_COMMAND + "[\"/bin/sh\", \"-c\"]");
+        ParameterSweep.setOption(options, LAUNCHER_ARGS, LAUNCHER_ARGS + "[\"" + script.toString().trim() + "\"]");
+
+        return app.toString();
+    }
+
+    /**
+     *
+     * @param variant
+     * @return
+     */
+    public String createJobConfig(Variant variant)
+    {
+        ObjectNode job = _job.deepCopy();
+
+        job.put("appId", getAppId(variant));
+        job.put("name", job.at("/name").asText() + " [" + variant + "]");
+
+        return job.toString();
+    }
+
+    /**
+     * Reads the marks the launcher script wrote to tapisjob.out.
+     *
+     * @param zipStream the job's output archive
+     * @param runningAt when the job started RUNNING, or null if unknown
+     * @return the job's times, or null if the output has no complete set of marks
+     * @throws IOException
+     */
+    public static Sample parseSample(InputStream zipStream, Instant runningAt) throws IOException
+    {
+        Map<String, Long> marks = new HashMap<String, Long>();
+
+        try (ZipInputStream zip = new ZipInputStream(zipStream)) {
+            ZipEntry entry;
+
+            while ((entry = zip.getNextEntry()) != null) {
+                if (!entry.getName().endsWith("tapisjob.out"))
+                    continue;
+
+                BufferedReader reader = new BufferedReader(new InputStreamReader(zip, StandardCharsets.UTF_8));
+                String line;
+
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.trim().split("\\s+");
+
+                    if (fields.length == 3 && fields[0].equals(MARK))
+                        marks.put(fields[1], Long.parseLong(fields[2]));
+                }
+
+                break;
+            }
+        }
+
+        Long start = marks.get("start");
+        Long wired = marks.get("wired");
+        Long done = marks.get("done");
+
+        if (start == null || wired == null || done == null)
+            return null;
+
+        long podStartup = runningAt != null ? Math.max(start - runningAt.toEpochMilli(), 0) : -1;
+
+        return new Sample(podStartup, wired - start, done - wired);
+    }
+
+    /**
+     *
+     * @param variant
+     * @param jobs number of jobs run
+     * @param samples the samples of the jobs that finished with marks
+     * @return
+     */
+    public static VariantResult summarize(Variant variant, int jobs, List<Sample> samples)
+    {
+        List<Long> podStartup = new ArrayList<Long>();
+        List<Long> mpiSetup = new ArrayList<Long>();
+        List<Long> compute = new ArrayList<Long>();
+
+        for (Sample sample : samples) {
+            if (sample._podStartup >= 0)
+                podStartup.add(sample._podStartup);
+
+            mpiSetup.add(sample._mpiSetup);
+            compute.add(sample._compute);
+        }
+
+        return new VariantResult(variant, jobs, jobs - samples.size(), LatencySummary.createInstance(podStartup),
+                                 LatencySummary.createInstance(mpiSetup), LatencySummary.createInstance(compute));
+    }
+
+    /**
+     * Prints the strong scaling table.
+     *
+     * @param results
+     */
+    public static void printTables(List<VariantResult> results)
+    {
+        double baseline = getBaselineCompute(results);
+        int baseProcesses = results.isEmpty() ? 1 : results.get(0)._variant.getProcesses();
+
+        System.out.println("strong scaling (p50 ms):  ranks workers slots  pod startup  MPI setup  compute  speedup  efficiency");
+
+        for (VariantResult result : results) {
+            double speedup = getSpeedup(baseline, result);
+
+            System.out.println(String.format(Locale.ROOT, "%30d %7d %5d %12d %10d %8d %8.2f %11.2f",
+                                             result._variant.getProcesses(), result._variant._workers, result._variant._slots,
+                                             result._podStartup.getP50(), result._mpiSetup.getP50(), result._compute.getP50(),
+                                             speedup, speedup * baseProcesses / result._variant.getProcesses()));
+        }
+    }
+
+    /**
+     * Writes the results to basename.json, and the table to basename_strong.csv.
+     *
+     * @param results
+     * @param basename
+     * @throws IOException
+     */
+    public static void writeReport(List<VariantResult> results, String basename) throws IOException
+    {
+        ObjectMapper mapper = JsonFieldExtractor.MAPPER;
+        ObjectNode root = mapper.createObjectNode();
+        ArrayNode variants = root.putArray("variants");
+        double baseline = getBaselineCompute(results);
+        int baseProcesses = results.isEmpty() ? 1 : results.get(0)._variant.getProcesses();
+
+        for (VariantResult result : results) {
+            ObjectNode variant = variants.addObject();
+            double speedup = getSpeedup(baseline, result);
+
+            variant.put("workers", result._variant._workers);
+            variant.put("slotsPerWorker", result._variant._slots);
+            variant.put("processes", result._variant.getProcesses());
+            variant.put("jobs", result._jobs);
+            variant.put("failures", result._failures);
+            variant.put("strongSpeedup", speedup);
+            variant.put("strongEfficiency", speedup * baseProcesses / result._variant.getProcesses());
+
+            result._podStartup.writeTo(variant.putObject("podStartupMillis"));
+            result._mpiSetup.writeTo(variant.putObject("mpiSetupMillis"));
+            result._compute.writeTo(variant.putObject("computeMillis"));
+        }
+
+        mapper.writerWithDefaultPrettyPrinter().writeValue(new File(basename + ".json"), root);
+
+        String columns = "processes,workers,slots_per_worker,jobs,failures,pod_startup_p50_ms,mpi_setup_p50_ms,compute_p50_ms,compute_max_ms";
+
+        try (FileWriter writer = new FileWriter(basename + "_strong.csv")) {
+            writer.write(columns + ",speedup,efficiency\n");
+
+            for (VariantResult result : results) {
+                double speedup = getSpeedup(baseline, result);
+
+                writer.write(formatRow(result));
+                writer.write(String.format(Locale.ROOT, ",%.3f,%.3f\n", speedup, speedup * baseProcesses / result._variant.getProcesses()));
+            }
+        }
+    }
+
+
+    // private methods
+
+
+    /**
+     *
+     * @param app
+     * @return the program and arguments the app's launcher passes to mpirun after -n N
+     * @throws IOException
+     */
+    private static String getProgram(ObjectNode app) throws IOException
+    {
+        for (JsonNode option : app.at("/jobAttributes/parameterSet/schedulerOptions")) {
+            String arg = option.at("/arg").asText();
+
+            if (!arg.startsWith(LAUNCHER_ARGS))
+                continue;
+
+            List<String> program = new ArrayList<String>();
+            JsonNode args = JsonFieldExtractor.READER.readTree(arg.substring(LAUNCHER_ARGS.length()));
+
+            for (int i = 0 ; i < args.size() ; i++) {
+                if (args.get(i).asText().equals("-n"))
+                    i += 1;
+                else
+                    program.add(args.get(i).asText());
+            }
+
+            return String.join(" ", program);
+        }
+
+        throw new IOException("app " + app.at("/id").asText() + " has no launcher args");
+    }
+
+    /**
+     *
+     * @param name
+     * @return
+     */
+    private static String createMark(String name)
+    {
+        return "echo " + MARK + " " + name + " $(date +%s%3N); ";
+    }
+
+    /**
+     *
+     * @param results
+     * @return median compute time of the variant with the fewest ranks
+     */
+    private static double getBaselineCompute(List<VariantResult> results)
+    {
+        return results.isEmpty() ? 0.0 : results.get(0)._compute.getP50();
+    }
+
+    /**
+     *
+     * @param baseline
+     * @param result
+     * @return
+     */
+    private static double getSpeedup(double baseline, VariantResult result)
+    {
+        long compute = result._compute.getP50();
+
+        return compute == 0 ? 0.0 : baseline / compute;
+    }
+
+    /**
+     *
+     * @param result
+     * @return
+     */
+    private static String formatRow(VariantResult result)
+    {
+        return String.format(Locale.ROOT, "%d,%d,%d,%d,%d,%d,%d,%d,%d", result._variant.getProcesses(), result._variant._workers,
+                             result._variant._slots, result._jobs, result._failures, result._podStartup.getP50(),
+                             result._mpiSetup.getP50(), result._compute.getP50(), result._compute.getMax());
+    }
+}
@@ -0,0 +1,239 @@
+package edu.utexas.tacc.tapis.kubernetes;
+
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+
+/**
+ * Checks on the contents of a job's zipped output, declared in a resource next to the
+ * job definition: the rules for mpi_pi_job.json are read from mpi_pi_job_output.json.
+ * A rules file has the form
+ *
+ *   {
+ *       "status": "FINISHED",
+ *       "entries": [
+ *           { "name": "tapisjob.out", "pattern": "pi is approximately 3\\.14159" },
+ *           { "name": "tapisjob.err", "empty": true }
+ *       ]
+ *   }
+ *
+ * and only applies to jobs that ended in the given status. An entry is matched by its
+ * name or the last segment of its path, must be present unless "required" is false, and
+ * is checked for being empty or for containing a line matching the pattern. Archives are
+ * read as a stream, so they never have to be written to disk, and only the entries with
+ * rules are decoded.
+ */
+class OutputRules
+{
+    // nested classes
+
+
+    /**
+     *
+     */
+    private static class EntryRule
+    {
+        private final String _name;
+        private final boolean _required;
+        private final boolean _empty;
+        private final Pattern _pattern;
+
+
+        /**
+         *
+         * @param node
+         */
+        private EntryRule(JsonNode node)
+        {
+            _name = node.at("/name").asText();
+            _required = node.path("required").asBoolean(true);
+            _empty = node.path("empty").asBoolean(false);
+            _pattern = node.has("pattern") ? Pattern.compile(node.at("/pattern").asText()) : null;
+        }
+
+        /**
+         *
+         * @param entryName
+         * @return
+         */
+        private boolean matches(String entryName)
+        {
+            return entryName.equals(_name) || entryName.endsWith("/" + _name);
+        }
+    }
+
+    /**
+     * Keeps the reader wrapped around an entry from closing the archive stream.
+     */
+    private static class EntryInputStream extends FilterInputStream
+    {
+        /**
+         *
+         * @param inStream
+         */
+        private EntryInputStream(InputStream inStream)
+        {
+            super(inStream);
+        }
+
+        @Override
+        public void close()
+        {
+        }
+    }
+
+
+    // data fields
+
+
+    private final String _status;
+    private final List<EntryRule> _rules;
+
+
+    // constructors
+
+
+    /**
+     *
+     * @param root
+     */
+    private OutputRules(JsonNode root)
+    {
+        _status = root.at("/status").asText();
+        _rules = new ArrayList<EntryRule>();
+
+        for (JsonNode entry : root.at("/entries"))
+            _rules.add(new EntryRule(entry));
+    }
+
+
+    // public methods
+
+
+    /**
+     * Loads the rules declared for a job definition resource.
+     *
+     * @param jobResource
+     * @return the rules, or null if the job declares none
+     * @throws IOException
+     */
+    public static OutputRules forJob(String jobResource) throws IOException
+    {
+        String name = jobResource.replaceFirst("\\.json$", "") + "_output.json";
+
+        try (InputStream inStream = OutputRules.class.getClassLoader().getResourceAsStream(name)) {
+            if (inStream == null)
+                return null;
+
+            return new OutputRules(JsonFieldExtractor.READER.readTree(inStream));
+        }
+    }
+
+    /**
+     *
+     * @param status
+     * @return true if the rules apply to a job that ended in this status
+     */
+    public boolean appliesTo(String status)
+    {
+        return _status.isEmpty() || _status.equals(status);
+    }
+
+    /**
+     * Reads a zip archive from the stream, checking each entry that has a rule. The
+     * stream is read to its end but not closed.
+     *
+     * @param zipStream
+     * @return a description of each rule the archive breaks, empty if it passes
+     * @throws IOException if reading the stream fails
+     */
+    public List<String> verify(InputStream zipStream) throws IOException
+    {
+        List<String> failures = new ArrayList<String>();
+        boolean[] seen = new boolean[_rules.size()];
+
+        try {
+            ZipInputStream zip = new ZipInputStream(new EntryInputStream(zipStream));
+            ZipEntry entry;
+
+            while ((entry = zip.getNextEntry()) != null) {
+                for (int i = 0 ; i < seen.length ; i++) {
+                    EntryRule rule = _rules.get(i);
+
+                    if (seen[i] || !rule.matches(entry.getName()))
+                        continue;
+
+                    seen[i] = true;
+
+                    String failure = checkEntry(rule, zip);
+
+                    if (failure != null)
+                        failures.add(entry.getName() + " " + failure);
+
+                    break;
+                }
+            }
+
+            // the central directory follows the last entry; reading it lets the
+            // connection be reused
+
+            zipStream.transferTo(OutputStream.nullOutputStream());
+        }
+        catch (ZipException err) {
+            failures.add("invalid archive: " + err.getMessage());
+
+            return failures;
+        }
+
+        for (int i = 0 ; i < seen.length ; i++) {
+            if (!seen[i] && _rules.get(i)._required)
+                failures.add(_rules.get(i)._name + " is missing");
+        }
+
+        return failures;
+    }
+
+
+    // private methods
+
+
+    /**
+     *
+     * @param rule
+     * @param zip positioned at the start of the entry's data
+     * @return a description of the failure, or null if the entry passes
+     * @throws IOException
+     */
+    private static String checkEntry(EntryRule rule, ZipInputStream zip) throws IOException
+    {
+        if (rule._empty && zip.read() >= 0)
+            return "is not empty";
+
+        if (rule._pattern != null) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new EntryInputStream(zip), StandardCharsets.UTF_8));
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                if (rule._pattern.matcher(line).find())
+                    return null;
+            }
+
+            return "has no line matching " + rule._pattern.pattern();
+        }
+
+        return null;
+    }
+}
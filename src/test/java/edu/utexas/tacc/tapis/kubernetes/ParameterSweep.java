@@ -0,0 +1,523 @@
+package edu.utexas.tacc.tapis.kubernetes;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+
+/**
+ * Parameter sweep over a base job definition. Each axis names a job setting and the
+ * values to try: the sleep duration, container image and cpu and memory limits become
+ * schedulerOptions args for the job's container, coresPerNode and memoryMB are set as
+ * job attributes. The axes expand into the cells of their Cartesian product, or a
+ * seeded random sample of it, and each cell is summarized by the overhead of its jobs
+ * (submission until RUNNING, i.e. queueing and pod startup) and their runtime (time
+ * spent RUNNING), taken from the job timelines.
+ */
+class ParameterSweep
+{
+    // nested classes
+
+
+    /**
+     *
+     */
+    public static class Axis
+    {
+        private final String _name;
+        private final List<String> _values;
+
+
+        /**
+         *
+         * @param name
+         * @param values
+         */
+        private Axis(String name, List<String> values)
+        {
+            _name = name;
+            _values = values;
+        }
+    }
+
+    /**
+     * One combination of axis values.
+     */
+    public static class Cell
+    {
+        private final Map<String, String> _values;
+        private final ObjectNode _job;
+
+
+        /**
+         *
+         * @param values
+         * @param job
+         */
+        private Cell(Map<String, String> values, ObjectNode job)
+        {
+            _values = values;
+            _job = job;
+        }
+
+        /**
+         *
+         * @return e.g. "sleep=5 cpu=500m"
+         */
+        public String getLabel()
+        {
+            StringBuilder label = new StringBuilder();
+
+            for (Map.Entry<String, String> value : _values.entrySet()) {
+                if (label.length() > 0)
+                    label.append(' ');
+
+                label.append(value.getKey());
+                label.append('=');
+                label.append(value.getValue());
+            }
+
+            return label.toString();
+        }
+
+        /**
+         *
+         * @return the job definition to submit for this cell
+         */
+        public String getConfig()
+        {
+            return _job.toString();
+        }
+    }
+
+    /**
+     *
+     */
+    public static class CellResult
+    {
+        private final Cell _cell;
+        private final int _jobs;
+        private final int _failures;
+        private final Map<String, Integer> _statuses;
+        private final LatencySummary _overhead;
+        private final LatencySummary _runtime;
+        private final LatencySummary _endToEnd;
+
+
+        /**
+         *
+         * @param cell
+         * @param jobs
+         * @param failures
+         * @param statuses
+         * @param overhead
+         * @param runtime
+         * @param endToEnd
+         */
+        private CellResult(Cell cell, int jobs, int failures, Map<String, Integer> statuses, LatencySummary overhead, LatencySummary runtime, LatencySummary endToEnd)
+        {
+            _cell = cell;
+            _jobs = jobs;
+            _failures = failures;
+            _statuses = statuses;
+            _overhead = overhead;
+            _runtime = runtime;
+            _endToEnd = endToEnd;
+        }
+
+        /**
+         *
+         * @return the number of jobs the pipeline could not follow to a terminal status
+         */
+        public int getFailures()
+        {
+            return _failures;
+        }
+
+        /**
+         *
+         * @return
+         */
+        @Override
+        public String toString()
+        {
+            return String.format("%s: %d jobs (%d failed) %s; overhead %s; runtime %s; end-to-end %s",
+                                 _cell.getLabel(), _jobs, _failures, _statuses, _overhead, _runtime, _endToEnd);
+        }
+    }
+
+
+    // constants
+
+
+    public static final String SLEEP = "sleep";
+    public static final String IMAGE = "image";
+    public static final String CPU = "cpu";
+    public static final String MEMORY = "memory";
+    public static final String CORES_PER_NODE = "coresPerNode";
+    public static final String MEMORY_MB = "memoryMB";
+
+    private static final Set<String> AXIS_NAMES = Set.of(SLEEP, IMAGE, CPU, MEMORY, CORES_PER_NODE, MEMORY_MB);
+    private static final long MAX_CELLS = 10000;
+    private static final String CONTAINER = "spec.template.spec.containers.";
+
+
+    // data fields
+
+
+    private final ObjectNode _base;
+    private final List<Axis> _axes;
+    private final long _cellCount;
+
+
+    // constructors
+
+
+    /**
+     *
+     * @param config the base job definition
+     * @param axes
+     * @throws IOException
+     */
+    public ParameterSweep(String config, List<Axis> axes) throws IOException
+    {
+        _base = (ObjectNode) JsonFieldExtractor.READER.readTree(config);
+        _axes = axes;
+
+        long cells = 1;
+
+        for (Axis axis : axes)
+            cells = Math.multiplyExact(cells, axis._values.size());
+
+        _cellCount = cells;
+    }
+
+
+    // public methods
+
+
+    /**
+     * Parses axes given as "name=value,value;name=value,...", e.g.
+     * "sleep=5,30;cpu=500m,1;memoryMB=500,1000".
+     *
+     * @param spec
+     * @return
+     */
+    public static List<Axis> parseAxes(String spec)
+    {
+        List<Axis> axes = new ArrayList<Axis>();
+
+        for (String entry : spec.split(";")) {
+            if (entry.isBlank())
+                continue;
+
+            int separator = entry.indexOf('=');
+
+            if (separator < 0)
+                throw new IllegalArgumentException("axis " + entry.trim() + " has no values");
+
+            String name = entry.substring(0, separator).trim();
+
+            if (!AXIS_NAMES.contains(name))
+                throw new IllegalArgumentException("unknown sweep axis " + name + ", expected one of " + new TreeSet<String>(AXIS_NAMES));
+
+            List<String> values = new ArrayList<String>();
+
+            for (String value : entry.substring(separator + 1).split(",")) {
+                if (!value.isBlank())
+                    values.add(value.trim());
+            }
+
+            if (values.isEmpty())
+                throw new IllegalArgumentException("axis " + name + " has no values");
+
+            axes.add(new Axis(name, values));
+        }
+
+        return axes;
+    }
+
+    /**
+     *
+     * @return the number of cells in the full Cartesian product
+     */
+    public long getCellCount()
+    {
+        return _cellCount;
+    }
+
+    /**
+     * Returns every cell, or a random sample of them in product order. The full product
+     * is limited to 10000 cells; larger sweeps have to be sampled.
+     *
+     * @param samples number of distinct cells to pick, or 0 for all of them
+     * @param seed
+     * @return
+     */
+    public List<Cell> getCells(int samples, long seed)
+    {
+        List<Cell> cells = new ArrayList<Cell>();
+
+        if (samples <= 0 || samples >= _cellCount) {
+            if (_cellCount > MAX_CELLS)
+                throw new IllegalArgumentException("sweep has " + _cellCount + " cells, sample at most " + MAX_CELLS + " of them");
+
+            for (long index = 0 ; index < _cellCount ; index++)
+                cells.add(createCell(index));
+        }
+        else {
+            Random random = new Random(seed);
+            TreeSet<Long> picked = new TreeSet<Long>();
+
+            while (picked.size() < samples)
+                picked.add(Math.floorMod(random.nextLong(), _cellCount));
+
+            for (long index : picked)
+                cells.add(createCell(index));
+        }
+
+        return cells;
+    }
+
+    /**
+     * Summarizes the jobs run for a cell. A job that ends in any status other than the
+     * one its submission expected is tallied under that status but counts as a failure,
+     * and its timings are left out. The overhead and runtime of a job come from its
+     * timeline, and are left out for a job that never reached RUNNING.
+     *
+     * @param cell
+     * @param results
+     * @param timelines the timeline of each job, or null where there is none
+     * @return
+     */
+    public static CellResult summarize(Cell cell, List<JobResult> results, List<JobTimeline> timelines)
+    {
+        Map<String, Integer> statuses = new TreeMap<String, Integer>();
+        List<Long> overhead = new ArrayList<Long>();
+        List<Long> runtime = new ArrayList<Long>();
+        List<Long> endToEnd = new ArrayList<Long>();
+        int failures = 0;
+
+        for (int i = 0 ; i < results.size() ; i++) {
+            JobResult result = results.get(i);
+
+            if (result.getError() != null || result.getStatus() == null) {
+                failures += 1;
+
+                continue;
+            }
+
+            statuses.merge(result.getStatus(), 1, Integer::sum);
+
+            if (!result.getStatus().equals(result.getExpectedStatus())) {
+                failures += 1;
+
+                continue;
+            }
+
+            endToEnd.add(result.getElapsedMillis());
+
+            JobTimeline timeline = timelines.get(i);
+
+            if (timeline == null)
+                continue;
+
+            Map<String, Long> phases = timeline.getPhaseMillis();
+
+            if (!phases.containsKey("RUNNING"))
+                continue;
+
+            long beforeRunning = 0;
+
+            for (Map.Entry<String, Long> phase : phases.entrySet()) {
+                if (phase.getKey().equals("RUNNING"))
+                    break;
+
+                beforeRunning += phase.getValue();
+            }
+
+            overhead.add(beforeRunning);
+            runtime.add(phases.get("RUNNING"));
+        }
+
+        return new CellResult(cell, results.size(), failures, statuses, LatencySummary.createInstance(overhead),
+                              LatencySummary.createInstance(runtime), LatencySummary.createInstance(endToEnd));
+    }
+
+    /**
+     * Writes the results to basename.json and basename.csv, with one row per cell.
+     *
+     * @param axes
+     * @param results
+     * @param basename
+     * @throws IOException
+     */
+    public static void writeReport(List<Axis> axes, List<CellResult> results, String basename) throws IOException
+    {
+        ObjectMapper mapper = JsonFieldExtractor.MAPPER;
+        ObjectNode root = mapper.createObjectNode();
+        ObjectNode axisNode = root.putObject("axes");
+
+        for (Axis axis : axes) {
+            ArrayNode values = axisNode.putArray(axis._name);
+
+            for (String value : axis._values)
+                values.add(value);
+        }
+
+        ArrayNode cells = root.putArray("cells");
+
+        for (CellResult result : results) {
+            ObjectNode cell = cells.addObject();
+            ObjectNode values = cell.putObject("values");
+
+            for (Map.Entry<String, String> value : result._cell._values.entrySet())
+                values.put(value.getKey(), value.getValue());
+
+            cell.put("jobs", result._jobs);
+            cell.put("failures", result._failures);
+
+            ObjectNode statuses = cell.putObject("statuses");
+
+            for (Map.Entry<String, Integer> status : result._statuses.entrySet())
+                statuses.put(status.getKey(), status.getValue());
+
+            result._overhead.writeTo(cell.putObject("overheadMillis"));
+            result._runtime.writeTo(cell.putObject("runtimeMillis"));
+            result._endToEnd.writeTo(cell.putObject("endToEndMillis"));
+        }
+
+        mapper.writerWithDefaultPrettyPrinter().writeValue(new File(basename + ".json"), root);
+
+        try (FileWriter writer = new FileWriter(basename + ".csv")) {
+            for (Axis axis : axes)
+                writer.write(axis._name + ",");
+
+            writer.write("jobs,failures,finished");
+
+            for (String metric : new String[] { "overhead", "runtime", "end_to_end" }) {
+                for (String stat : new String[] { "p50", "max" })
+                    writer.write("," + metric + "_" + stat + "_ms");
+            }
+
+            writer.write('\n');
+
+            for (CellResult result : results) {
+                for (Axis axis : axes)
+                    writer.write(result._cell._values.get(axis._name) + ",");
+
+                writer.write(String.format(Locale.ROOT, "%d,%d,%d", result._jobs, result._failures, result._statuses.getOrDefault("FINISHED", 0)));
+
+                for (LatencySummary summary : new LatencySummary[] { result._overhead, result._runtime, result._endToEnd })
+                    writer.write(String.format(Locale.ROOT, ",%d,%d", summary.getP50(), summary.getMax()));
+
+                writer.write('\n');
+            }
+        }
+    }
+
+
+    // private methods
+
+
+    /**
+     *
+     * @param index position of the cell in the product, with the last axis varying fastest
+     * @return
+     */
+    private Cell createCell(long index)
+    {
+        String[] picked = new String[_axes.size()];
+        long remaining = index;
+
+        for (int i = picked.length - 1 ; i >= 0 ; i--) {
+            List<String> values = _axes.get(i)._values;
+
+            picked[i] = values.get((int) (remaining % values.size()));
+
+            remaining /= values.size();
+        }
+
+        Map<String, String> values = new LinkedHashMap<String, String>();
+
+        for (int i = 0 ; i < picked.length ; i++)
+            values.put(_axes.get(i)._name, picked[i]);
+
+        Cell cell = new Cell(values, _base.deepCopy());
+
+        applyValues(cell);
+
+        return cell;
+    }
+
+    /**
+     *
+     * @param cell
+     */
+    private static void applyValues(Cell cell)
+    {
+        ObjectNode job = cell._job;
+        ArrayNode options = job.withObject("/parameterSet").withArray("schedulerOptions");
+
+        for (Map.Entry<String, String> value : cell._values.entrySet()) {
+            switch (value.getKey()) {
+                case SLEEP:
+                    setOption(options, CONTAINER + "args+=", CONTAINER + "args+=\"" + Long.parseLong(value.getValue()) + "\"");
+                    break;
+                case IMAGE:
+                    setOption(options, CONTAINER + "image=", CONTAINER + "image=" + value.getValue());
+                    break;
+                case CPU:
+                    setOption(options, CONTAINER + "resources.limits.cpu=", CONTAINER + "resources.limits.cpu=" + value.getValue());
+                    break;
+                case MEMORY:
+                    setOption(options, CONTAINER + "resources.limits.memory=", CONTAINER + "resources.limits.memory=" + value.getValue());
+                    break;
+                case CORES_PER_NODE:
+                    job.put("coresPerNode", Integer.parseInt(value.getValue()));
+                    break;
+                case MEMORY_MB:
+                    job.put("memoryMB", Integer.parseInt(value.getValue()));
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown sweep axis " + value.getKey());
+            }
+        }
+
+        job.put("name", job.at("/name").asText() + " [" + cell.getLabel() + "]");
+    }
+
+    /**
+     * Replaces the option whose arg starts with the prefix, or adds one.
+     *
+     * @param options
+     * @param prefix
+     * @param arg
+     */
+    static void setOption(ArrayNode options, String prefix, String arg)
+    {
+        for (JsonNode option : options) {
+            if (option.at("/arg").asText().startsWith(prefix)) {
+                ((ObjectNode) option).put("arg", arg);
+
+                return;
+            }
+        }
+
+        options.addObject().put("arg", arg);
+    }
+}
@@ -0,0 +1,35 @@
+package edu.utexas.tacc.tapis.kubernetes;
+
+
+/**
+ * Decides how long to wait before the next job status poll. Implementations must be
+ * stateless, since one policy is shared by every job being tracked.
+ */
+@FunctionalInterface
+interface PollingPolicy
+{
+    /**
+     *
+     * @param status the last observed status, or null before the first poll
+     * @param samePolls number of consecutive polls that have returned this status
+     * @return
+     */
+    long getDelayMillis(String status, int samePolls);
+
+    /**
+     * Selects a policy by name: "fixed" for the original 5 second interval, or "adaptive".
+     *
+     * @param name
+     * @return
+     */
+    static PollingPolicy forName(String name)
+    {
+        if (name == null || name.equals("fixed"))
+            return new FixedPollingPolicy(FixedPollingPolicy.DEFAULT_INTERVAL_MILLIS);
+
+        if (name.equals("adaptive"))
+            return AdaptivePollingPolicy.createDefault();
+
+        throw new IllegalArgumentException("unknown polling policy " + name);
+    }
+}
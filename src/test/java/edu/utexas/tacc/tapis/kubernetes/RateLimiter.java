@@ -0,0 +1,114 @@
+package edu.utexas.tacc.tapis.kubernetes;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * A token bucket shared by every thread calling one class of endpoints. Permits are
+ * handed out at the configured rate with bursts of up to the bucket size; callers that
+ * find the bucket empty are given a later slot and sleep until it arrives, so the
+ * gateway sees an even stream rather than a burst followed by errors.
+ *
+ * When the gateway throttles a request the rate is halved, down to a tenth of the
+ * configured rate, and recovers by a twentieth of it with every success that follows.
+ * A Retry-After from the gateway stops the whole class until it has passed, whether or
+ * not a rate is configured.
+ */
+class RateLimiter
+{
+    // data fields
+
+
+    private final double _maxRate;
+    private final int _burst;
+    private double _rate;
+    private long _theoreticalArrivalNanos;
+    private long _pausedUntilNanos;
+
+
+    // constructors
+
+
+    /**
+     *
+     * @param permitsPerSecond the highest rate to allow, or 0 for no limit
+     * @param burst the number of permits that may be taken at once
+     */
+    public RateLimiter(double permitsPerSecond, int burst)
+    {
+        _maxRate = permitsPerSecond;
+        _burst = Math.max(burst, 1);
+        _rate = permitsPerSecond;
+        _theoreticalArrivalNanos = System.nanoTime();
+        _pausedUntilNanos = _theoreticalArrivalNanos;
+    }
+
+
+    // public methods
+
+
+    /**
+     * Books the next free slot, in the manner of the generic cell rate algorithm. The
+     * caller is expected to wait the returned time before sending its request.
+     *
+     * @return nanoseconds until the slot, 0 if a permit is available now
+     */
+    public synchronized long reserve()
+    {
+        long now = System.nanoTime();
+        long start = now;
+
+        if (_pausedUntilNanos - start > 0)
+            start = _pausedUntilNanos;
+
+        if (_rate <= 0.0)
+            return start - now;
+
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / _rate);
+        long earliest = _theoreticalArrivalNanos - (_burst - 1) * intervalNanos;
+
+        if (earliest - start > 0)
+            start = earliest;
+
+        _theoreticalArrivalNanos = Math.max(_theoreticalArrivalNanos - start, 0) + start + intervalNanos;
+
+        return start - now;
+    }
+
+    /**
+     * Slows the rate after the gateway rejected a request, and holds back every caller
+     * for the time the gateway asked for.
+     *
+     * @param retryAfterMillis the gateway's Retry-After, or a negative value if it sent none
+     */
+    public synchronized void onThrottled(long retryAfterMillis)
+    {
+        if (_maxRate > 0.0)
+            _rate = Math.max(_rate / 2.0, _maxRate / 10.0);
+
+        if (retryAfterMillis > 0) {
+            long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(retryAfterMillis);
+
+            if (until - _pausedUntilNanos > 0)
+                _pausedUntilNanos = until;
+        }
+    }
+
+    /**
+     *
+     */
+    public synchronized void onSuccess()
+    {
+        if (_rate < _maxRate)
+            _rate = Math.min(_rate + _maxRate / 20.0, _maxRate);
+    }
+
+    /**
+     *
+     * @return the current rate in permits per second, or 0 if there is no limit
+     */
+    public synchronized double getRate()
+    {
+        return _rate;
+    }
+}
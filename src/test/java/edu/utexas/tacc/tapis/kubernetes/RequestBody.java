@@ -0,0 +1,86 @@
+package edu.utexas.tacc.tapis.kubernetes;
+
+import java.io.IOException;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+
+/**
+ * A request body serialized once. The bytes are never handed out, so one body can be
+ * sent any number of times, from any thread, without being copied or encoded again.
+ */
+final class RequestBody
+{
+    // data fields
+
+
+    private final byte[] _bytes;
+
+
+    // constructors
+
+
+    /**
+     *
+     * @param bytes
+     */
+    private RequestBody(byte[] bytes)
+    {
+        _bytes = bytes;
+    }
+
+
+    // public methods
+
+
+    /**
+     *
+     * @param text
+     * @return
+     */
+    public static RequestBody ofString(String text)
+    {
+        return new RequestBody(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     *
+     * @param node
+     * @return the node written as compact JSON
+     * @throws IOException
+     */
+    public static RequestBody ofJson(JsonNode node) throws IOException
+    {
+        return new RequestBody(JsonFieldExtractor.MAPPER.writeValueAsBytes(node));
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int length()
+    {
+        return _bytes.length;
+    }
+
+    /**
+     *
+     * @return a publisher reading the body in place
+     */
+    public HttpRequest.BodyPublisher getPublisher()
+    {
+        return HttpRequest.BodyPublishers.ofByteArray(_bytes);
+    }
+
+    /**
+     *
+     * @return
+     */
+    @Override
+    public String toString()
+    {
+        return new String(_bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,510 @@
+package edu.utexas.tacc.tapis.kubernetes;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.UnixOperatingSystemMXBean;
+
+
+/**
+ * Samples a soak run in fixed windows: the request latencies and job end-to-end times
+ * completed in each window, and at the end of each window the client's heap, thread
+ * count and open file descriptors. The heap a leak shows up in is the part that
+ * survives collection, so each window also keeps the smallest heap left after any
+ * garbage collection that ran in it, or after one forced at its end when asked to. At
+ * the end of the run each series is tested for a trend, leaving out the warm-up windows
+ * in which connection pools, caches and compiled code are still growing.
+ */
+class SoakMonitor implements AutoCloseable
+{
+    // nested classes
+
+
+    /**
+     *
+     */
+    static class Window
+    {
+        private final int _index;
+        private final long _endMillis;
+        private final int _jobs;
+        private final int _failures;
+        private final LatencySummary _requests;
+        private final Map<String, LatencySummary> _scenarios;
+        private final double _heapUsedMB;
+        private final double _heapAfterGcMB;
+        private final int _threads;
+        private final long _openFiles;
+
+
+        /**
+         *
+         * @param index
+         * @param endMillis
+         * @param jobs
+         * @param failures
+         * @param requests
+         * @param scenarios
+         * @param heapUsedMB
+         * @param heapAfterGcMB NaN if no collection ran in the window
+         * @param threads
+         * @param openFiles -1 if the platform does not report it
+         */
+        private Window(int index, long endMillis, int jobs, int failures, LatencySummary requests, Map<String, LatencySummary> scenarios,
+                       double heapUsedMB, double heapAfterGcMB, int threads, long openFiles)
+        {
+            _index = index;
+            _endMillis = endMillis;
+            _jobs = jobs;
+            _failures = failures;
+            _requests = requests;
+            _scenarios = scenarios;
+            _heapUsedMB = heapUsedMB;
+            _heapAfterGcMB = heapAfterGcMB;
+            _threads = threads;
+            _openFiles = openFiles;
+        }
+
+        /**
+         *
+         * @return
+         */
+        @Override
+        public String toString()
+        {
+            return String.format(Locale.ROOT, "window %d at %d s: %d jobs (%d failed), requests %s, heap %.1f MB (%.1f MB after gc), %d threads, %d open files",
+                                 _index, _endMillis / 1000, _jobs, _failures, _requests, _heapUsedMB, _heapAfterGcMB, _threads, _openFiles);
+        }
+    }
+
+    /**
+     *
+     */
+    static class Drift
+    {
+        private final String _metric;
+        private final TrendAnalysis _trend;
+        private final boolean _flagged;
+
+
+        /**
+         *
+         * @param metric
+         * @param trend
+         * @param flagged
+         */
+        private Drift(String metric, TrendAnalysis trend, boolean flagged)
+        {
+            _metric = metric;
+            _trend = trend;
+            _flagged = flagged;
+        }
+
+        /**
+         *
+         * @return true if the metric grew significantly over the run
+         */
+        public boolean isFlagged()
+        {
+            return _flagged;
+        }
+
+        /**
+         *
+         * @return
+         */
+        @Override
+        public String toString()
+        {
+            return _metric + ": " + _trend + (_flagged ? " DRIFT" : "");
+        }
+    }
+
+
+    // constants
+
+
+    private static final double ALPHA = 0.01;
+    private static final double MEGABYTE = 1024.0 * 1024.0;
+
+
+    // data fields
+
+
+    private final List<String> _scenarioNames;
+    private final long _windowMillis;
+    private final boolean _forceGc;
+    private final long _startNanos;
+    private final ScheduledExecutorService _scheduler;
+    private final Set<String> _heapPools;
+    private final NotificationListener _gcListener;
+    private final List<Window> _windows;
+    private List<Long> _requestMillis;
+    private Map<String, List<Long>> _jobMillis;
+    private int _jobs;
+    private int _failures;
+    private int _totalFailures;
+    private long _minHeapAfterGc;
+
+
+    // constructors
+
+
+    /**
+     *
+     * @param scenarioNames
+     * @param windowMillis
+     * @param forceGc true to run a collection at the end of every window
+     */
+    public SoakMonitor(List<String> scenarioNames, long windowMillis, boolean forceGc)
+    {
+        _scenarioNames = scenarioNames;
+        _windowMillis = windowMillis;
+        _forceGc = forceGc;
+        _startNanos = System.nanoTime();
+        _scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "soak-monitor");
+
+            thread.setDaemon(true);
+
+            return thread;
+        });
+        _heapPools = new HashSet<String>();
+        _gcListener = this::handleGcNotification;
+        _windows = new ArrayList<Window>();
+        _minHeapAfterGc = Long.MAX_VALUE;
+
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP)
+                _heapPools.add(pool.getName());
+        }
+
+        resetSamples();
+
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (collector instanceof NotificationEmitter)
+                ((NotificationEmitter) collector).addNotificationListener(_gcListener, null, null);
+        }
+
+        _scheduler.scheduleAtFixedRate(this::closeWindow, windowMillis, windowMillis, TimeUnit.MILLISECONDS);
+    }
+
+
+    // public methods
+
+
+    /**
+     * Takes request latencies from the client's metrics; other timers are ignored.
+     *
+     * @param name
+     * @param nanos
+     * @param error
+     */
+    public void recordRequest(String name, long nanos, boolean error)
+    {
+        if (!isRequest(name))
+            return;
+
+        synchronized (this) {
+            _requestMillis.add(TimeUnit.NANOSECONDS.toMillis(nanos));
+        }
+    }
+
+    /**
+     *
+     * @param scenario
+     * @param result
+     */
+    public synchronized void recordJob(String scenario, JobResult result)
+    {
+        _jobs += 1;
+
+        if (!result.isSuccess()) {
+            _failures += 1;
+            _totalFailures += 1;
+
+            return;
+        }
+
+        _jobMillis.get(scenario).add(result.getElapsedMillis());
+    }
+
+    /**
+     *
+     * @return the number of jobs that did not end as expected
+     */
+    public synchronized int getFailureCount()
+    {
+        return _totalFailures;
+    }
+
+    /**
+     * Stops sampling, keeping the last window if it ran for at least half its length.
+     */
+    @Override
+    public void close()
+    {
+        _scheduler.shutdownNow();
+
+        try {
+            _scheduler.awaitTermination(10, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException err) {
+            Thread.currentThread().interrupt();
+        }
+
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (collector instanceof NotificationEmitter) {
+                try {
+                    ((NotificationEmitter) collector).removeNotificationListener(_gcListener);
+                }
+                catch (ListenerNotFoundException err) {
+                    // not every collector took the listener
+                }
+            }
+        }
+
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - _startNanos);
+
+        synchronized (this) {
+            if (elapsedMillis - _windows.size() * _windowMillis >= _windowMillis / 2)
+                closeWindow();
+        }
+    }
+
+    /**
+     * Tests each sampled series for growth.
+     *
+     * @param warmupWindows windows to leave out at the start
+     * @param minRelativeChange smallest growth over the run that is flagged, e.g. 0.1
+     * @return
+     */
+    public synchronized List<Drift> analyze(int warmupWindows, double minRelativeChange)
+    {
+        List<Window> windows = _windows.subList(Math.min(warmupWindows, _windows.size()), _windows.size());
+        Map<String, ToDoubleFunction<Window>> metrics = new LinkedHashMap<String, ToDoubleFunction<Window>>();
+
+        metrics.put("request p50 ms", window -> window._requests.getCount() > 0 ? window._requests.getP50() : Double.NaN);
+        metrics.put("request p90 ms", window -> window._requests.getCount() > 0 ? window._requests.getP90() : Double.NaN);
+
+        for (String scenario : _scenarioNames)
+            metrics.put(scenario + " job p50 ms", window -> window._scenarios.get(scenario).getCount() > 0 ? window._scenarios.get(scenario).getP50() : Double.NaN);
+
+        metrics.put("heap after gc MB", window -> window._heapAfterGcMB);
+        metrics.put("threads", window -> window._threads);
+        metrics.put("open files", window -> window._openFiles >= 0 ? window._openFiles : Double.NaN);
+
+        List<Drift> drifts = new ArrayList<Drift>();
+
+        for (Map.Entry<String, ToDoubleFunction<Window>> metric : metrics.entrySet()) {
+            TrendAnalysis trend = TrendAnalysis.analyze(windows.stream().mapToDouble(metric.getValue()).toArray());
+
+            drifts.add(new Drift(metric.getKey(), trend, trend.isIncreasing(ALPHA, minRelativeChange)));
+        }
+
+        return drifts;
+    }
+
+    /**
+     * Writes the windows and drift tests to basename.json and the windows to
+     * basename.csv.
+     *
+     * @param drifts
+     * @param basename
+     * @throws IOException
+     */
+    public synchronized void writeReport(List<Drift> drifts, String basename) throws IOException
+    {
+        ObjectMapper mapper = JsonFieldExtractor.MAPPER;
+        ObjectNode root = mapper.createObjectNode();
+
+        root.put("windowMillis", _windowMillis);
+        root.put("forceGc", _forceGc);
+
+        ArrayNode windows = root.putArray("windows");
+
+        for (Window window : _windows) {
+            ObjectNode node = windows.addObject();
+
+            node.put("index", window._index);
+            node.put("endMillis", window._endMillis);
+            node.put("jobs", window._jobs);
+            node.put("failures", window._failures);
+            node.put("heapUsedMB", window._heapUsedMB);
+
+            if (Double.isNaN(window._heapAfterGcMB))
+                node.putNull("heapAfterGcMB");
+            else
+                node.put("heapAfterGcMB", window._heapAfterGcMB);
+
+            node.put("threads", window._threads);
+            node.put("openFiles", window._openFiles);
+
+            window._requests.writeTo(node.putObject("requestMillis"));
+
+            ObjectNode scenarios = node.putObject("jobMillis");
+
+            for (Map.Entry<String, LatencySummary> scenario : window._scenarios.entrySet())
+                scenario.getValue().writeTo(scenarios.putObject(scenario.getKey()));
+        }
+
+        ArrayNode driftNodes = root.putArray("drift");
+
+        for (Drift drift : drifts) {
+            ObjectNode node = driftNodes.addObject();
+
+            node.put("metric", drift._metric);
+            node.put("windows", drift._trend.getCount());
+            node.put("slopePerWindow", drift._trend.getSlope());
+            node.put("relativeChange", drift._trend.getRelativeChange());
+            node.put("pValue", drift._trend.getPValue());
+            node.put("flagged", drift._flagged);
+        }
+
+        mapper.writerWithDefaultPrettyPrinter().writeValue(new File(basename + ".json"), root);
+
+        try (FileWriter writer = new FileWriter(basename + ".csv")) {
+            writer.write("window,end_ms,jobs,failures,requests,request_p50_ms,request_p90_ms,request_p99_ms");
+
+            for (String scenario : _scenarioNames)
+                writer.write("," + scenario + "_jobs," + scenario + "_p50_ms");
+
+            writer.write(",heap_used_mb,heap_after_gc_mb,threads,open_files\n");
+
+            for (Window window : _windows) {
+                writer.write(String.format(Locale.ROOT, "%d,%d,%d,%d,%d,%d,%d,%d", window._index, window._endMillis, window._jobs, window._failures,
+                                           window._requests.getCount(), window._requests.getP50(), window._requests.getP90(), window._requests.getP99()));
+
+                for (String scenario : _scenarioNames)
+                    writer.write(String.format(Locale.ROOT, ",%d,%d", window._scenarios.get(scenario).getCount(), window._scenarios.get(scenario).getP50()));
+
+                writer.write(String.format(Locale.ROOT, ",%.2f,%s,%d,%d\n", window._heapUsedMB,
+                                           Double.isNaN(window._heapAfterGcMB) ? "" : String.format(Locale.ROOT, "%.2f", window._heapAfterGcMB),
+                                           window._threads, window._openFiles));
+            }
+        }
+    }
+
+
+    // private methods
+
+
+    /**
+     * Summarizes the samples taken since the last window and starts the next.
+     */
+    private void closeWindow()
+    {
+        if (_forceGc)
+            System.gc();
+
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        long openFiles = os instanceof UnixOperatingSystemMXBean ? ((UnixOperatingSystemMXBean) os).getOpenFileDescriptorCount() : -1;
+        int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+        Window window;
+
+        synchronized (this) {
+            // the notification for a forced collection may only arrive after this window
+            // has closed, and the heap straight after it is close enough
+
+            if (_forceGc)
+                _minHeapAfterGc = Math.min(_minHeapAfterGc, heap.getUsed());
+
+            Map<String, LatencySummary> scenarios = new LinkedHashMap<String, LatencySummary>();
+
+            for (String scenario : _scenarioNames)
+                scenarios.put(scenario, LatencySummary.createInstance(_jobMillis.get(scenario)));
+
+            window = new Window(_windows.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - _startNanos), _jobs, _failures,
+                                LatencySummary.createInstance(_requestMillis), scenarios, heap.getUsed() / MEGABYTE,
+                                _minHeapAfterGc == Long.MAX_VALUE ? Double.NaN : _minHeapAfterGc / MEGABYTE, threads, openFiles);
+
+            _windows.add(window);
+
+            resetSamples();
+        }
+
+        System.out.println("soak " + window);
+    }
+
+    /**
+     *
+     */
+    private void resetSamples()
+    {
+        _requestMillis = new ArrayList<Long>();
+        _jobMillis = new LinkedHashMap<String, List<Long>>();
+        _jobs = 0;
+        _failures = 0;
+        _minHeapAfterGc = Long.MAX_VALUE;
+
+        for (String scenario : _scenarioNames)
+            _jobMillis.put(scenario, new ArrayList<Long>());
+    }
+
+    /**
+     *
+     * @param notification
+     * @param handback
+     */
+    private void handleGcNotification(Notification notification, Object handback)
+    {
+        if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION))
+            return;
+
+        GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+        long used = 0;
+
+        for (Map.Entry<String, MemoryUsage> pool : info.getGcInfo().getMemoryUsageAfterGc().entrySet()) {
+            if (_heapPools.contains(pool.getKey()))
+                used += pool.getValue().getUsed();
+        }
+
+        synchronized (this) {
+            _minHeapAfterGc = Math.min(_minHeapAfterGc, used);
+        }
+    }
+
+    /**
+     *
+     * @param name
+     * @return true if the timer is that of a request, e.g. "GET jobs/{jobUuid}/status"
+     */
+    private static boolean isRequest(String name)
+    {
+        for (HttpMethod method : HttpMethod.values()) {
+            if (name.startsWith(method.name()) && name.length() > method.name().length() && name.charAt(method.name().length()) == ' ')
+                return true;
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,1011 @@
+package edu.utexas.tacc.tapis.kubernetes;
+
+import java.io.InputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/**
+ * Shared, thread-safe HTTP layer for the calls made against a Tapis gateway. One
+ * HttpClient is configured per instance and reused for every request, so connections
+ * are kept alive and multiplexed over HTTP/2 where the gateway supports it instead of
+ * being re-established for every poll, submit or download.
+ *
+ * Downloads are written by the client straight into a file channel. A transfer that is
+ * cut off is resumed with a byte range request for the rest only if the first response
+ * carried a strong validator, an ETag or Last-Modified, which is sent back as If-Range:
+ * output archives are built for each request, so the server then sends the whole of a
+ * changed archive rather than the end of it. Without a validator the transfer starts
+ * over. The finished file is checked against the length the server announced and, when
+ * the server sends a Digest header, against its checksum before it is moved into place.
+ *
+ * Requests are sent with HttpClient.sendAsync, and each call has an asynchronous form
+ * returning a CompletableFuture; rate limit waits and retry backoff are scheduled
+ * rather than slept, so no thread is held while a request is pending. The synchronous
+ * calls wait on the asynchronous ones.
+ *
+ * Every exchange is recorded as a TapisEvents.RequestEvent for Flight Recorder and in
+ * the client's metrics, grouped by method and endpoint, and by the HTTP recorder, if
+ * one is set, in full.
+ *
+ * Requests wait for a permit from the rate limiter of their endpoint class. Throttled
+ * (429) and unavailable (502, 503, 504) responses and failed connections are retried
+ * with jittered exponential backoff, or after the Retry-After the gateway sent, when
+ * the call is idempotent. A job submission is only resent when the gateway answered
+ * 429, or 503 with a Retry-After, since both mean the request was turned away before
+ * it was processed; anything else could leave a duplicate job behind. Cancel requests
+ * are treated the same way, because the caller retries them itself and counts each
+ * attempt.
+ */
+class TapisClient implements AutoCloseable
+{
+    // nested classes
+
+
+    /**
+     *
+     */
+    private static class ClientThreadFactory implements ThreadFactory
+    {
+        private final AtomicInteger _count = new AtomicInteger();
+
+
+        @Override
+        public Thread newThread(Runnable task)
+        {
+            Thread thread = new Thread(task, "tapis-client-" + _count.incrementAndGet());
+
+            thread.setDaemon(true);
+
+            return thread;
+        }
+    }
+
+    /**
+     * Writes successful responses into the partial download file, appending for a range
+     * response and replacing it otherwise, and keeps the validator a full response came
+     * with for resuming it. Error responses are read as text.
+     */
+    static class DownloadHandler implements HttpResponse.BodyHandler<String>
+    {
+        private final Path _part;
+        private volatile String _validator;
+
+
+        /**
+         *
+         * @param part
+         */
+        DownloadHandler(Path part)
+        {
+            _part = part;
+        }
+
+        /**
+         *
+         * @return the strong ETag or the Last-Modified of the last full response, or null
+         *         if it had neither
+         */
+        String getValidator()
+        {
+            return _validator;
+        }
+
+        @Override
+        public HttpResponse.BodySubscriber<String> apply(HttpResponse.ResponseInfo info)
+        {
+            if (info.statusCode() == 200) {
+                String etag = info.headers().firstValue("ETag").orElse(null);
+
+                _validator = etag != null && !etag.startsWith("W/") ? etag : info.headers().firstValue("Last-Modified").orElse(null);
+            }
+
+            if (info.statusCode() == 206)
+                return HttpResponse.BodySubscribers.mapping(HttpResponse.BodySubscribers.ofFile(_part, StandardOpenOption.WRITE, StandardOpenOption.APPEND), file -> null);
+
+            if (info.statusCode() == 200)
+                return HttpResponse.BodySubscribers.mapping(HttpResponse.BodySubscribers.ofFile(_part, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING), file -> null);
+
+            return HttpResponse.BodySubscribers.ofString(StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * One download, resumed or restarted until it verifies or runs out of attempts. Each
+     * attempt is started from the completion of the one before, so the fields are only
+     * ever touched by one attempt at a time.
+     */
+    private class Download
+    {
+        private final String _path;
+        private final Map<String, String> _headers;
+        private final HttpMethod _method;
+        private final RequestBody _body;
+        private final String _filename;
+        private final int _maxAttempts;
+        private final Path _part;
+        private final DownloadHandler _handler;
+        private int _attempt;
+        private int _rejections;
+
+
+        /**
+         *
+         * @param path
+         * @param headers
+         * @param method
+         * @param body
+         * @param filename
+         * @param maxAttempts
+         */
+        private Download(String path, Map<String, String> headers, HttpMethod method, RequestBody body, String filename, int maxAttempts)
+        {
+            _path = path;
+            _headers = headers;
+            _method = method;
+            _body = body;
+            _filename = filename;
+            _maxAttempts = maxAttempts;
+            _part = Paths.get(filename + ".part");
+            _handler = new DownloadHandler(_part);
+        }
+
+        /**
+         *
+         * @return
+         */
+        private CompletableFuture<DownloadResult> start()
+        {
+            try {
+                Files.deleteIfExists(_part);
+            }
+            catch (IOException err) {
+                return CompletableFuture.failedFuture(err);
+            }
+
+            return next();
+        }
+
+        /**
+         *
+         * @return
+         */
+        private CompletableFuture<DownloadResult> next()
+        {
+            long received;
+
+            _attempt += 1;
+
+            try {
+                received = Files.exists(_part) ? Files.size(_part) : 0;
+
+                // without a validator the rest could come from a different archive
+
+                if (received > 0 && _handler.getValidator() == null) {
+                    System.out.println("download of " + _filename + " has no ETag or Last-Modified to resume against, restarting");
+
+                    Files.deleteIfExists(_part);
+
+                    received = 0;
+                }
+            }
+            catch (IOException err) {
+                return CompletableFuture.failedFuture(err);
+            }
+
+            long offset = received;
+            Map<String, String> requestHeaders = new TreeMap<String, String>(_headers);
+
+            if (offset > 0) {
+                requestHeaders.put("Range", "bytes=" + offset + "-");
+                requestHeaders.put("If-Range", _handler.getValidator());
+            }
+
+            return sendAsync(_path, _method, buildRequest(_path, requestHeaders, _method, _body), _body, _handler).handle((response, err) -> {
+                try {
+                    if (err != null)
+                        return onFailure(unwrap(err));
+
+                    return onResponse(response, offset);
+                }
+                catch (IOException ioErr) {
+                    return CompletableFuture.<DownloadResult>failedFuture(ioErr);
+                }
+            })
+            .thenCompose(Function.identity());
+        }
+
+        /**
+         *
+         * @param err
+         * @return
+         * @throws IOException
+         */
+        private CompletableFuture<DownloadResult> onFailure(Throwable err) throws IOException
+        {
+            if (!(err instanceof IOException) || _attempt >= _maxAttempts)
+                return CompletableFuture.failedFuture(err);
+
+            System.out.println("download of " + _filename + " interrupted after " + (Files.exists(_part) ? Files.size(_part) : 0) + " bytes (" + err + "), trying again");
+
+            return next();
+        }
+
+        /**
+         *
+         * @param response
+         * @param offset
+         * @return
+         * @throws IOException
+         */
+        private CompletableFuture<DownloadResult> onResponse(HttpResponse<String> response, long offset) throws IOException
+        {
+            int code = response.statusCode();
+
+            // a request the gateway turned away is retried up to the request attempt limit,
+            // without counting as a download attempt
+
+            if (RETRYABLE_CODES.contains(code) && ++_rejections < TapisClient.this._maxAttempts) {
+                long delay = getRetryDelayMillis(response, _rejections);
+
+                if (delay >= 0) {
+                    _metrics.increment("retried " + _method.name() + " " + TapisEvents.getEndpoint(_path));
+
+                    _attempt -= 1;
+
+                    return retryAfter(delay, this::next);
+                }
+            }
+
+            if (code == 416 && offset > 0 && _attempt < _maxAttempts) {
+                Files.deleteIfExists(_part);
+
+                return next();
+            }
+
+            if (code >= 300)
+                return CompletableFuture.failedFuture(HttpException.createInstance(code, response.body()));
+
+            String error = verifyDownload(response, _part);
+
+            if (error == null) {
+                long size = Files.size(_part);
+
+                Files.move(_part, Paths.get(_filename), StandardCopyOption.REPLACE_EXISTING);
+
+                return CompletableFuture.completedFuture(new DownloadResult(_filename, size, _attempt));
+            }
+
+            Files.deleteIfExists(_part);
+
+            if (_attempt >= _maxAttempts)
+                return CompletableFuture.failedFuture(new IOException("download of " + _filename + " failed verification: " + error));
+
+            System.out.println("download of " + _filename + " failed verification (" + error + "), restarting");
+
+            return next();
+        }
+    }
+
+
+    // constants
+
+
+    public static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    public static final Duration DEFAULT_REQUEST_TIMEOUT = Duration.ofSeconds(60);
+    public static final int DEFAULT_THREADS = 4;
+    public static final int DEFAULT_DOWNLOAD_ATTEMPTS = 3;
+    public static final int DEFAULT_REQUEST_ATTEMPTS = 4;
+    public static final Duration DEFAULT_RETRY_BASE_DELAY = Duration.ofMillis(500);
+    public static final Duration DEFAULT_RETRY_MAX_DELAY = Duration.ofSeconds(30);
+
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+)");
+    private static final Pattern RATE_LIMIT = Pattern.compile("(\\w+)=([\\d.]+)(?:/(\\d+))?");
+    private static final Set<Integer> RETRYABLE_CODES = Set.of(429, 502, 503, 504);
+    private static final Set<String> IDEMPOTENT_POSTS = Set.of("jobs/search", "apps/{appId}/delete", "apps/{appId}/undelete",
+                                                               "apps/{appId}/enable", "apps/{appId}/disable");
+
+
+    // data fields
+
+
+    private final String _tapisUrlBase;
+    private final Duration _requestTimeout;
+    private final ExecutorService _executor;
+    private final HttpClient _client;
+    private final MetricsRegistry _metrics;
+    private final Map<EndpointClass, RateLimiter> _limiters;
+    private volatile HttpRecorder _recorder;
+    private int _maxAttempts;
+    private long _retryBaseDelayMillis;
+    private long _retryMaxDelayMillis;
+
+
+    // constructors
+
+
+    /**
+     *
+     * @param tapisUrlBase
+     * @param connectTimeout
+     * @param requestTimeout
+     * @param threads
+     */
+    public TapisClient(String tapisUrlBase, Duration connectTimeout, Duration requestTimeout, int threads)
+    {
+        _tapisUrlBase = tapisUrlBase;
+        _requestTimeout = requestTimeout;
+        _executor = Executors.newFixedThreadPool(threads, new ClientThreadFactory());
+        _client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(connectTimeout)
+            .followRedirects(HttpClient.Redirect.NEVER)
+            .executor(_executor)
+            .build();
+        _metrics = new MetricsRegistry();
+        _limiters = new EnumMap<EndpointClass, RateLimiter>(EndpointClass.class);
+        _maxAttempts = DEFAULT_REQUEST_ATTEMPTS;
+        _retryBaseDelayMillis = DEFAULT_RETRY_BASE_DELAY.toMillis();
+        _retryMaxDelayMillis = DEFAULT_RETRY_MAX_DELAY.toMillis();
+
+        for (EndpointClass endpointClass : EndpointClass.values())
+            _limiters.put(endpointClass, new RateLimiter(0.0, 1));
+    }
+
+
+    // public methods
+
+
+    /**
+     * Creates a client using the TAPIS_CONNECT_TIMEOUT and TAPIS_REQUEST_TIMEOUT (seconds)
+     * and TAPIS_CLIENT_THREADS environment variables, falling back to the defaults.
+     *
+     * @param tapisUrlBase
+     * @return
+     */
+    public static TapisClient createInstance(String tapisUrlBase)
+    {
+        Duration connectTimeout = Duration.ofSeconds(EnvSettings.getInt("TAPIS_CONNECT_TIMEOUT", (int) DEFAULT_CONNECT_TIMEOUT.toSeconds()));
+        Duration requestTimeout = Duration.ofSeconds(EnvSettings.getInt("TAPIS_REQUEST_TIMEOUT", (int) DEFAULT_REQUEST_TIMEOUT.toSeconds()));
+        int threads = EnvSettings.getInt("TAPIS_CLIENT_THREADS", DEFAULT_THREADS);
+        TapisClient client = new TapisClient(tapisUrlBase, connectTimeout, requestTimeout, threads);
+
+        client.setRetries(EnvSettings.getInt("TAPIS_REQUEST_ATTEMPTS", DEFAULT_REQUEST_ATTEMPTS),
+                          Duration.ofMillis(EnvSettings.getInt("TAPIS_RETRY_BASE_DELAY", (int) DEFAULT_RETRY_BASE_DELAY.toMillis())),
+                          Duration.ofMillis(EnvSettings.getInt("TAPIS_RETRY_MAX_DELAY", (int) DEFAULT_RETRY_MAX_DELAY.toMillis())));
+
+        String rateLimits = EnvSettings.getString("TAPIS_RATE_LIMITS", null);
+
+        if (rateLimits != null) {
+            for (String limit : rateLimits.split(",")) {
+                Matcher matcher = RATE_LIMIT.matcher(limit.trim());
+
+                if (!matcher.matches())
+                    throw new IllegalArgumentException("invalid rate limit " + limit + ", expected class=rate or class=rate/burst");
+
+                EndpointClass endpointClass = EndpointClass.valueOf(matcher.group(1).toUpperCase(Locale.ROOT));
+                int burst = matcher.group(3) != null ? Integer.parseInt(matcher.group(3)) : 1;
+
+                client.setRateLimit(endpointClass, Double.parseDouble(matcher.group(2)), burst);
+            }
+        }
+
+        return client;
+    }
+
+    /**
+     *
+     * @param endpointClass
+     * @param permitsPerSecond the highest request rate, or 0 for no limit
+     * @param burst
+     */
+    public void setRateLimit(EndpointClass endpointClass, double permitsPerSecond, int burst)
+    {
+        _limiters.put(endpointClass, new RateLimiter(permitsPerSecond, burst));
+    }
+
+    /**
+     *
+     * @param maxAttempts attempts per request, including the first
+     * @param baseDelay backoff before the first retry, doubled for each one after it
+     * @param maxDelay longest backoff, and the longest Retry-After that will be waited out
+     */
+    public void setRetries(int maxAttempts, Duration baseDelay, Duration maxDelay)
+    {
+        _maxAttempts = Math.max(maxAttempts, 1);
+        _retryBaseDelayMillis = baseDelay.toMillis();
+        _retryMaxDelayMillis = maxDelay.toMillis();
+    }
+
+    /**
+     *
+     * @param recorder null to stop recording exchanges
+     */
+    public void setRecorder(HttpRecorder recorder)
+    {
+        _recorder = recorder;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public String getTapisUrlBase()
+    {
+        return _tapisUrlBase;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public MetricsRegistry getMetrics()
+    {
+        return _metrics;
+    }
+
+    /**
+     *
+     * @param path
+     * @param headers
+     * @param method
+     * @param body
+     * @return
+     * @throws HttpException
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    public String getResponse(String path, Map<String, String> headers, HttpMethod method, RequestBody body) throws HttpException, IOException, InterruptedException
+    {
+        return await(getResponseAsync(path, headers, method, body));
+    }
+
+    /**
+     *
+     * @param path
+     * @param headers
+     * @param method
+     * @param body
+     * @return
+     */
+    public CompletableFuture<String> getResponseAsync(String path, Map<String, String> headers, HttpMethod method, RequestBody body)
+    {
+        return getHttpResponseAsync(path, headers, method, body, HttpResponse.BodyHandlers.ofString());
+    }
+
+    /**
+     *
+     * @param path
+     * @param headers
+     * @param method
+     * @param body
+     * @param filename
+     * @return
+     * @throws HttpException
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    public DownloadResult downloadFile(String path, Map<String, String> headers, HttpMethod method, RequestBody body, String filename) throws HttpException, IOException, InterruptedException
+    {
+        return downloadFile(path, headers, method, body, filename, DEFAULT_DOWNLOAD_ATTEMPTS);
+    }
+
+    /**
+     *
+     * @param path
+     * @param headers
+     * @param method
+     * @param body
+     * @param filename
+     * @param maxAttempts
+     * @return
+     * @throws HttpException
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    public DownloadResult downloadFile(String path, Map<String, String> headers, HttpMethod method, RequestBody body, String filename, int maxAttempts) throws HttpException, IOException, InterruptedException
+    {
+        return await(downloadFileAsync(path, headers, method, body, filename, maxAttempts));
+    }
+
+    /**
+     * Downloads into filename.part, resuming from its current length after a transfer
+     * is interrupted and starting over if the finished file fails verification, for at
+     * most maxAttempts requests. The verified file is then moved to filename.
+     *
+     * @param path
+     * @param headers
+     * @param method
+     * @param body
+     * @param filename
+     * @param maxAttempts
+     * @return
+     */
+    public CompletableFuture<DownloadResult> downloadFileAsync(String path, Map<String, String> headers, HttpMethod method, RequestBody body, String filename, int maxAttempts)
+    {
+        return new Download(path, headers, method, body, filename, maxAttempts).start();
+    }
+
+    /**
+     *
+     * @param <T>
+     * @param path
+     * @param headers
+     * @param method
+     * @param body
+     * @param handler
+     * @return
+     * @throws HttpException
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    public <T> T getHttpResponse(String path, Map<String, String> headers, HttpMethod method, RequestBody body, HttpResponse.BodyHandler<T> handler) throws HttpException, IOException, InterruptedException
+    {
+        return await(getHttpResponseAsync(path, headers, method, body, handler));
+    }
+
+    /**
+     * Sends a request without blocking the caller. The future completes with the body of
+     * the response, or with an HttpException if the gateway answered with an error once
+     * any retries have run out.
+     *
+     * @param <T>
+     * @param path
+     * @param headers
+     * @param method
+     * @param body
+     * @param handler
+     * @return
+     */
+    public <T> CompletableFuture<T> getHttpResponseAsync(String path, Map<String, String> headers, HttpMethod method, RequestBody body, HttpResponse.BodyHandler<T> handler)
+    {
+        HttpRequest request = buildRequest(path, headers, method, body);
+        boolean idempotent = method != HttpMethod.POST || IDEMPOTENT_POSTS.contains(TapisEvents.getEndpoint(path));
+
+        return sendWithRetries(path, method, request, body, handler, idempotent, 1).thenCompose(response -> {
+            if (response.statusCode() < 300)
+                return CompletableFuture.completedFuture(response.body());
+
+            try {
+                return CompletableFuture.failedFuture(HttpException.createInstance(response.statusCode(), response.body()));
+            }
+            catch (IOException err) {
+                return CompletableFuture.failedFuture(err);
+            }
+        });
+    }
+
+    /**
+     *
+     */
+    @Override
+    public void close()
+    {
+        _executor.shutdownNow();
+    }
+
+
+    // private methods
+
+
+    /**
+     * Sends a request, and again after a retryable failure for as long as the retry
+     * rules allow.
+     *
+     * @param <T>
+     * @param path
+     * @param method
+     * @param request
+     * @param body
+     * @param handler
+     * @param idempotent
+     * @param attempt counting from 1
+     * @return the last response
+     */
+    private <T> CompletableFuture<HttpResponse<T>> sendWithRetries(String path, HttpMethod method, HttpRequest request, RequestBody body, HttpResponse.BodyHandler<T> handler, boolean idempotent, int attempt)
+    {
+        return sendAsync(path, method, request, body, handler).handle((response, err) -> {
+            if (err != null) {
+                Throwable cause = unwrap(err);
+
+                if (!(cause instanceof IOException) || !idempotent || attempt >= _maxAttempts)
+                    return CompletableFuture.<HttpResponse<T>>failedFuture(cause);
+
+                _metrics.increment("retried " + method.name() + " " + TapisEvents.getEndpoint(path));
+
+                return retryAfter(getBackoffMillis(attempt), () -> sendWithRetries(path, method, request, body, handler, idempotent, attempt + 1));
+            }
+
+            int code = response.statusCode();
+            boolean rejected = code == 429 || (code == 503 && response.headers().firstValue("Retry-After").isPresent());
+            long delay = -1;
+
+            if (RETRYABLE_CODES.contains(code) && (idempotent || rejected) && attempt < _maxAttempts)
+                delay = getRetryDelayMillis(response, attempt);
+
+            if (delay < 0)
+                return CompletableFuture.completedFuture(response);
+
+            _metrics.increment("retried " + method.name() + " " + TapisEvents.getEndpoint(path));
+
+            discard(response);
+
+            return retryAfter(delay, () -> sendWithRetries(path, method, request, body, handler, idempotent, attempt + 1));
+        })
+        .thenCompose(Function.identity());
+    }
+
+    /**
+     * Sends a request once a permit is available from its rate limiter, recording it as
+     * an event, in the metrics and with the HTTP recorder.
+     *
+     * @param <T>
+     * @param path
+     * @param method
+     * @param request
+     * @param body the body the request was built with, for the recorder
+     * @param handler
+     * @return
+     */
+    private <T> CompletableFuture<HttpResponse<T>> sendAsync(String path, HttpMethod method, HttpRequest request, RequestBody body, HttpResponse.BodyHandler<T> handler)
+    {
+        RateLimiter limiter = _limiters.get(EndpointClass.of(path));
+        long delay = limiter.reserve();
+        CompletableFuture<Void> permit;
+
+        if (delay > 0)
+            permit = CompletableFuture.runAsync(() -> {}, CompletableFuture.delayedExecutor(delay, TimeUnit.NANOSECONDS, _executor));
+        else
+            permit = CompletableFuture.completedFuture(null);
+
+        return permit.thenCompose(ignored -> {
+            TapisEvents.RequestEvent event = new TapisEvents.RequestEvent();
+            String endpoint = TapisEvents.getEndpoint(path);
+            HttpRecorder recorder = _recorder;
+            HttpRecorder.Exchange exchange = recorder != null ? recorder.start(method, path, request, body) : null;
+            long start = System.nanoTime();
+
+            event.begin();
+
+            return _client.sendAsync(request, exchange != null ? exchange.capture(handler) : handler).whenComplete((response, err) -> {
+                event.end();
+
+                if (exchange != null)
+                    exchange.finish(err);
+
+                int statusCode = response != null ? response.statusCode() : 0;
+                long bytes = response != null ? getResponseBytes(response) : -1;
+
+                if (statusCode == 429 || statusCode == 503)
+                    limiter.onThrottled(getRetryAfterMillis(response));
+                else if (statusCode != 0 && statusCode < 500)
+                    limiter.onSuccess();
+
+                if (event.shouldCommit()) {
+                    event.endpoint = endpoint;
+                    event.method = method.name();
+                    event.statusCode = statusCode;
+                    event.bytes = bytes;
+                    event.error = err != null ? unwrap(err).toString() : null;
+                    event.commit();
+                }
+
+                _metrics.recordLatency(method.name() + " " + endpoint, System.nanoTime() - start, statusCode == 0 || statusCode >= 300, bytes);
+            });
+        });
+    }
+
+    /**
+     *
+     * @param <T>
+     * @param delayMillis
+     * @param retry
+     * @return
+     */
+    private <T> CompletableFuture<T> retryAfter(long delayMillis, Supplier<CompletableFuture<T>> retry)
+    {
+        Executor delayed = CompletableFuture.delayedExecutor(delayMillis, TimeUnit.MILLISECONDS, _executor);
+
+        return CompletableFuture.supplyAsync(retry, delayed).thenCompose(Function.identity());
+    }
+
+    /**
+     * Releases the body of a response that is about to be retried.
+     *
+     * @param response
+     */
+    private static void discard(HttpResponse<?> response)
+    {
+        if (response.body() instanceof InputStream) {
+            try {
+                ((InputStream) response.body()).close();
+            }
+            catch (IOException err) {
+                // the connection is dropped instead of reused
+            }
+        }
+    }
+
+    /**
+     * Waits out a Retry-After from the gateway, or backs off otherwise.
+     *
+     * @param response
+     * @param attempt the attempt that failed, counting from 1
+     * @return milliseconds to wait before the next attempt, or -1 if the gateway asked
+     *         for a longer wait than the maximum delay
+     */
+    private long getRetryDelayMillis(HttpResponse<?> response, int attempt)
+    {
+        long retryAfter = getRetryAfterMillis(response);
+
+        if (retryAfter > _retryMaxDelayMillis)
+            return -1;
+
+        return retryAfter >= 0 ? retryAfter : getBackoffMillis(attempt);
+    }
+
+    /**
+     * Exponential backoff with full jitter, so that clients throttled together do not
+     * all come back at the same moment.
+     *
+     * @param attempt the attempt that failed, counting from 1
+     * @return
+     */
+    private long getBackoffMillis(int attempt)
+    {
+        long ceiling = Math.min(_retryBaseDelayMillis << Math.min(attempt - 1, 20), _retryMaxDelayMillis);
+
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    /**
+     *
+     * @param response
+     * @return the wait a Retry-After header asks for, in delay seconds or as a date, or
+     *         -1 if there is none
+     */
+    private static long getRetryAfterMillis(HttpResponse<?> response)
+    {
+        String value = response.headers().firstValue("Retry-After").orElse(null);
+
+        if (value == null)
+            return -1;
+
+        try {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(value.trim()));
+        }
+        catch (NumberFormatException err) {
+            try {
+                Instant date = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+
+                return Math.max(Duration.between(Instant.now(), date).toMillis(), 0);
+            }
+            catch (DateTimeParseException parseErr) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     *
+     * @param response
+     * @return the Content-Length of the response, the length of a string body if there
+     *         is none, or -1
+     */
+    private static long getResponseBytes(HttpResponse<?> response)
+    {
+        long length = response.headers().firstValueAsLong("Content-Length").orElse(-1);
+
+        if (length < 0 && response.body() instanceof String)
+            length = ((String) response.body()).length();
+
+        return length;
+    }
+
+
+    // package methods
+
+
+    /**
+     * Waits for an asynchronous call, rethrowing its failure as the checked exception
+     * the synchronous call would have thrown.
+     *
+     * @param <T>
+     * @param future
+     * @return
+     * @throws HttpException
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    static <T> T await(CompletableFuture<T> future) throws HttpException, IOException, InterruptedException
+    {
+        try {
+            return future.get();
+        }
+        catch (ExecutionException err) {
+            Throwable cause = unwrap(err);
+
+            if (cause instanceof HttpException)
+                throw (HttpException) cause;
+
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+
+            if (cause instanceof InterruptedException)
+                throw (InterruptedException) cause;
+
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     *
+     * @param err
+     * @return the failure inside any CompletionException or ExecutionException wrappers
+     */
+    static Throwable unwrap(Throwable err)
+    {
+        while ((err instanceof CompletionException || err instanceof ExecutionException) && err.getCause() != null)
+            err = err.getCause();
+
+        return err;
+    }
+
+
+    /**
+     * Checks a finished download against the total length given by the Content-Range or
+     * Content-Length header and against any sha-256 or md5 value in a Digest header.
+     *
+     * @param response
+     * @param file
+     * @return a description of the mismatch, or null if the file checks out
+     * @throws IOException
+     */
+    static String verifyDownload(HttpResponse<?> response, Path file) throws IOException
+    {
+        long size = Files.size(file);
+        long expected;
+
+        if (response.statusCode() == 206) {
+            Matcher matcher = CONTENT_RANGE.matcher(response.headers().firstValue("Content-Range").orElse(""));
+
+            if (!matcher.matches())
+                return "missing or invalid Content-Range in a partial response";
+
+            expected = Long.parseLong(matcher.group(3));
+        }
+        else
+            expected = response.headers().firstValueAsLong("Content-Length").orElse(-1);
+
+        if (expected >= 0 && size != expected)
+            return "expected " + expected + " bytes, received " + size;
+
+        for (String value : response.headers().allValues("Digest")) {
+            for (String entry : value.split(",")) {
+                int separator = entry.indexOf('=');
+
+                if (separator < 0)
+                    continue;
+
+                String algorithm = entry.substring(0, separator).trim().toLowerCase(Locale.ROOT);
+                String encoded = entry.substring(separator + 1).trim();
+                String name = algorithm.equals("sha-256") ? "SHA-256" : algorithm.equals("md5") ? "MD5" : null;
+
+                if (name != null && !Base64.getEncoder().encodeToString(digest(file, name)).equals(encoded))
+                    return algorithm + " digest mismatch";
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     *
+     * @param file
+     * @param algorithm
+     * @return
+     * @throws IOException
+     */
+    static byte[] digest(Path file, String algorithm) throws IOException
+    {
+        MessageDigest digest;
+
+        try {
+            digest = MessageDigest.getInstance(algorithm);
+        }
+        catch (NoSuchAlgorithmException err) {
+            throw new IOException(err);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+
+        return digest.digest();
+    }
+
+
+    /**
+     *
+     * @param path
+     * @param headers
+     * @param method
+     * @param body
+     * @return
+     */
+    HttpRequest buildRequest(String path, Map<String, String> headers, HttpMethod method, RequestBody body)
+    {
+        String url = _tapisUrlBase + "/v3/" + path;
+        HttpRequest.Builder builder = HttpRequest.newBuilder().uri(URI.create(url)).timeout(_requestTimeout);
+
+        if (headers != null) {
+            for (Map.Entry<String, String> entry : headers.entrySet())
+                builder.header(entry.getKey(), entry.getValue());
+        }
+
+        if (method == HttpMethod.DELETE)
+            builder.DELETE();
+        else if (method != HttpMethod.GET) {
+            HttpRequest.BodyPublisher publisher;
+
+            if (body != null)
+                publisher = body.getPublisher();
+            else
+                publisher = HttpRequest.BodyPublishers.noBody();
+
+            if (method == HttpMethod.POST)
+                builder.POST(publisher);
+            else if (method == HttpMethod.PUT)
+                builder.PUT(publisher);
+        }
+
+        return builder.build();
+    }
+}
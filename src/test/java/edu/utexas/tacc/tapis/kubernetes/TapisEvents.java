@@ -0,0 +1,268 @@
+package edu.utexas.tacc.tapis.kubernetes;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+
+/**
+ * Java Flight Recorder events for the client's Tapis calls, the job status transitions
+ * it observes and the status handlers it runs. The events cost almost nothing unless a
+ * recording is running, and then appear under "Tapis" in JDK Mission Control or
+ * "jfr print --categories Tapis".
+ */
+final class TapisEvents
+{
+    // nested classes
+
+
+    /**
+     * One HTTP exchange with the gateway; the event duration is the request latency.
+     */
+    @Name("edu.utexas.tacc.tapis.Request")
+    @Label("Tapis Request")
+    @Category("Tapis")
+    @StackTrace(false)
+    static final class RequestEvent extends Event
+    {
+        @Label("Endpoint")
+        @Description("Request path with job UUIDs, app ids and versions replaced by placeholders")
+        String endpoint;
+
+        @Label("Method")
+        String method;
+
+        @Label("Status Code")
+        @Description("HTTP status code, or 0 if no response was received")
+        int statusCode;
+
+        @Label("Response Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Error")
+        String error;
+    }
+
+    /**
+     *
+     */
+    @Name("edu.utexas.tacc.tapis.JobStatusTransition")
+    @Label("Job Status Transition")
+    @Category("Tapis")
+    @StackTrace(false)
+    static final class JobStatusTransitionEvent extends Event
+    {
+        @Label("Job UUID")
+        String jobUuid;
+
+        @Label("App Id")
+        String appId;
+
+        @Label("Previous Status")
+        String previousStatus;
+
+        @Label("Status")
+        String status;
+
+        @Label("Since Submission")
+        @Description("Milliseconds from submission to the poll that saw the new status")
+        long sinceSubmitMillis;
+    }
+
+    /**
+     * One call to a JobStatusHandler; the event duration is the time the handler took.
+     */
+    @Name("edu.utexas.tacc.tapis.JobStatusHandler")
+    @Label("Job Status Handler")
+    @Category("Tapis")
+    @StackTrace(false)
+    static final class HandlerEvent extends Event
+    {
+        @Label("Handler")
+        String handler;
+
+        @Label("Job UUID")
+        String jobUuid;
+
+        @Label("Status")
+        String status;
+
+        @Label("Finished Waiting")
+        boolean finished;
+    }
+
+    /**
+     * Runs a handler inside a HandlerEvent and records its latency, in either form.
+     */
+    private static class InstrumentedHandler implements JobStatusHandler
+    {
+        private final JobStatusHandler _handler;
+        private final String _name;
+        private final MetricsRegistry _metrics;
+
+
+        /**
+         *
+         * @param handler
+         * @param metrics
+         */
+        private InstrumentedHandler(JobStatusHandler handler, MetricsRegistry metrics)
+        {
+            _handler = handler;
+            _name = getHandlerName(handler);
+            _metrics = metrics;
+        }
+
+        @Override
+        public boolean handleStatus(String status, String jobUuid) throws HttpException, IOException, InterruptedException
+        {
+            HandlerEvent event = new HandlerEvent();
+            long start = System.nanoTime();
+            boolean finished = false;
+            boolean failed = true;
+
+            event.begin();
+
+            try {
+                finished = _handler.handleStatus(status, jobUuid);
+                failed = false;
+
+                return finished;
+            }
+            finally {
+                event.end();
+
+                if (event.shouldCommit()) {
+                    event.handler = _name;
+                    event.jobUuid = jobUuid;
+                    event.status = status;
+                    event.finished = finished;
+                    event.commit();
+                }
+
+                _metrics.recordLatency("handler " + _name, System.nanoTime() - start, failed, -1);
+            }
+        }
+
+        @Override
+        public CompletableFuture<Boolean> handleStatusAsync(String status, String jobUuid, Executor executor)
+        {
+            HandlerEvent event = new HandlerEvent();
+            long start = System.nanoTime();
+
+            event.begin();
+
+            return _handler.handleStatusAsync(status, jobUuid, executor).whenComplete((finished, err) -> {
+                event.end();
+
+                if (event.shouldCommit()) {
+                    event.handler = _name;
+                    event.jobUuid = jobUuid;
+                    event.status = status;
+                    event.finished = finished != null && finished;
+                    event.commit();
+                }
+
+                _metrics.recordLatency("handler " + _name, System.nanoTime() - start, err != null, -1);
+            });
+        }
+    }
+
+
+    // constants
+
+
+    private static final Set<String> JOB_ACTIONS = Set.of("submit", "search", "list", "subscribe");
+    private static final Set<String> APP_ACTIONS = Set.of("delete", "undelete", "enable", "disable");
+
+
+    // constructors
+
+
+    /**
+     *
+     */
+    private TapisEvents()
+    {
+    }
+
+
+    // public methods
+
+
+    /**
+     * Reduces a request path to the endpoint it calls, e.g. "jobs/{jobUuid}/status" or
+     * "apps/{appId}/{appVersion}", so that requests can be grouped by endpoint.
+     *
+     * @param path request path relative to /v3/, with or without a query
+     * @return
+     */
+    public static String getEndpoint(String path)
+    {
+        int query = path.indexOf('?');
+
+        if (query >= 0)
+            path = path.substring(0, query);
+
+        String[] segments = path.split("/");
+
+        if (segments[0].equals("jobs") && segments.length > 1 && !JOB_ACTIONS.contains(segments[1]))
+            segments[1] = "{jobUuid}";
+        else if (segments[0].equals("jobs") && segments.length > 2 && segments[1].equals("subscribe"))
+            segments[2] = "{jobUuid}";
+        else if (segments[0].equals("apps") && segments.length > 1) {
+            segments[1] = "{appId}";
+
+            if (segments.length > 2 && !APP_ACTIONS.contains(segments[2]))
+                segments[2] = "{appVersion}";
+        }
+
+        return String.join("/", segments);
+    }
+
+    /**
+     * Wraps each handler so that its invocations are recorded as events and timed.
+     *
+     * @param metrics
+     * @param handlers
+     * @return
+     */
+    public static JobStatusHandler[] instrument(MetricsRegistry metrics, JobStatusHandler... handlers)
+    {
+        JobStatusHandler[] instrumented = new JobStatusHandler[handlers.length];
+
+        for (int i = 0 ; i < handlers.length ; i++)
+            instrumented[i] = new InstrumentedHandler(handlers[i], metrics);
+
+        return instrumented;
+    }
+
+
+    // private methods
+
+
+    /**
+     *
+     * @param handler
+     * @return the handler's class name, or "lambda" for a lambda
+     */
+    private static String getHandlerName(JobStatusHandler handler)
+    {
+        Class<?> type = handler.getClass();
+
+        if (type.isSynthetic() || type.getSimpleName().contains("$$Lambda"))
+            return "lambda";
+
+        return type.getSimpleName();
+    }
+}
@@ -0,0 +1,356 @@
+package edu.utexas.tacc.tapis.kubernetes;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+
+/**
+ * Closed-loop throughput benchmark. For each concurrency level N, N workers each submit
+ * a job, wait for it to reach a terminal state and immediately submit the next one, so
+ * that N jobs are always in flight. Submit latency, queue-to-running time (submit
+ * accepted until RUNNING is first observed) and end-to-end time are recorded per job
+ * and summarized per level together with the completed jobs per minute. A job that ends
+ * in any status other than FINISHED counts as a failure, not as throughput.
+ */
+class ThroughputBenchmark
+{
+    // nested classes
+
+
+    /**
+     * Records when RUNNING is first observed and stops waiting at a terminal status.
+     */
+    private static class PhaseTimer implements JobStatusHandler
+    {
+        private volatile long _runningNanos = -1;
+
+
+        @Override
+        public boolean handleStatus(String status, String jobUuid)
+        {
+            if (_runningNanos < 0 && status.equals("RUNNING"))
+                _runningNanos = System.nanoTime();
+
+            return JobStatusHandler.isTerminal(status);
+        }
+    }
+
+    /**
+     *
+     */
+    private static class JobSample
+    {
+        private final String _status;
+        private final long _submitMillis;
+        private final long _queueToRunningMillis;
+        private final long _endToEndMillis;
+        private final Throwable _error;
+
+
+        /**
+         *
+         * @param status
+         * @param submitMillis
+         * @param queueToRunningMillis
+         * @param endToEndMillis
+         * @param error
+         */
+        private JobSample(String status, long submitMillis, long queueToRunningMillis, long endToEndMillis, Throwable error)
+        {
+            _status = status;
+            _submitMillis = submitMillis;
+            _queueToRunningMillis = queueToRunningMillis;
+            _endToEndMillis = endToEndMillis;
+            _error = error;
+        }
+    }
+
+    /**
+     *
+     */
+    public static class LevelResult
+    {
+        private final int _concurrency;
+        private final int _jobs;
+        private final int _failures;
+        private final long _wallMillis;
+        private final LatencySummary _submit;
+        private final LatencySummary _queueToRunning;
+        private final LatencySummary _endToEnd;
+
+
+        /**
+         *
+         * @param concurrency
+         * @param jobs
+         * @param failures
+         * @param wallMillis
+         * @param submit
+         * @param queueToRunning
+         * @param endToEnd
+         */
+        private LevelResult(int concurrency, int jobs, int failures, long wallMillis, LatencySummary submit, LatencySummary queueToRunning, LatencySummary endToEnd)
+        {
+            _concurrency = concurrency;
+            _jobs = jobs;
+            _failures = failures;
+            _wallMillis = wallMillis;
+            _submit = submit;
+            _queueToRunning = queueToRunning;
+            _endToEnd = endToEnd;
+        }
+
+        /**
+         *
+         * @return
+         */
+        public int getFailures()
+        {
+            return _failures;
+        }
+
+        /**
+         *
+         * @return
+         */
+        public double getJobsPerMinute()
+        {
+            if (_wallMillis == 0)
+                return 0.0;
+
+            return (_jobs - _failures) * 60000.0 / _wallMillis;
+        }
+
+        /**
+         *
+         * @return
+         */
+        @Override
+        public String toString()
+        {
+            return String.format("concurrency %d: %d jobs (%d failed) in %d ms, %.2f jobs/min; submit %s; queue-to-running %s; end-to-end %s",
+                                 _concurrency, _jobs, _failures, _wallMillis, getJobsPerMinute(), _submit, _queueToRunning, _endToEnd);
+        }
+    }
+
+
+    // constants
+
+
+    private static final String EXPECTED_STATUS = "FINISHED";
+
+
+    // data fields
+
+
+    private final JobDriver _driver;
+    private final DefinitionRegistry.Definition _job;
+    private final int _rounds;
+
+
+    // constructors
+
+
+    /**
+     *
+     * @param driver
+     * @param job
+     * @param rounds number of jobs each worker runs back to back at every level
+     */
+    public ThroughputBenchmark(JobDriver driver, DefinitionRegistry.Definition job, int rounds)
+    {
+        _driver = driver;
+        _job = job;
+        _rounds = rounds;
+    }
+
+
+    // public methods
+
+
+    /**
+     *
+     * @param levels
+     * @return
+     * @throws InterruptedException
+     */
+    public List<LevelResult> run(List<Integer> levels) throws InterruptedException
+    {
+        List<LevelResult> results = new ArrayList<LevelResult>();
+
+        for (int concurrency : levels) {
+            LevelResult result = runLevel(concurrency);
+
+            System.out.println("throughput benchmark " + result);
+
+            results.add(result);
+        }
+
+        return results;
+    }
+
+    /**
+     *
+     * @param csv
+     * @return
+     */
+    public static List<Integer> parseLevels(String csv)
+    {
+        List<Integer> levels = new ArrayList<Integer>();
+
+        for (String value : csv.split(",")) {
+            if (!value.isBlank())
+                levels.add(Integer.parseInt(value.trim()));
+        }
+
+        return levels;
+    }
+
+    /**
+     * Writes the results to basename.json and basename.csv.
+     *
+     * @param results
+     * @param basename
+     * @throws IOException
+     */
+    public static void writeReport(List<LevelResult> results, String basename) throws IOException
+    {
+        ObjectMapper mapper = JsonFieldExtractor.MAPPER;
+        ArrayNode levels = mapper.createArrayNode();
+
+        for (LevelResult result : results) {
+            ObjectNode level = levels.addObject();
+
+            level.put("concurrency", result._concurrency);
+            level.put("jobs", result._jobs);
+            level.put("failures", result._failures);
+            level.put("wallMillis", result._wallMillis);
+            level.put("jobsPerMinute", result.getJobsPerMinute());
+
+            result._submit.writeTo(level.putObject("submitMillis"));
+            result._queueToRunning.writeTo(level.putObject("queueToRunningMillis"));
+            result._endToEnd.writeTo(level.putObject("endToEndMillis"));
+        }
+
+        ObjectNode root = mapper.createObjectNode();
+
+        root.set("levels", levels);
+
+        mapper.writerWithDefaultPrettyPrinter().writeValue(new File(basename + ".json"), root);
+
+        try (FileWriter writer = new FileWriter(basename + ".csv")) {
+            writer.write("concurrency,jobs,failures,wall_ms,jobs_per_min");
+
+            for (String metric : new String[] { "submit", "queue_to_running", "end_to_end" }) {
+                for (String stat : new String[] { "p50", "p90", "p99", "max" })
+                    writer.write("," + metric + "_" + stat + "_ms");
+            }
+
+            writer.write('\n');
+
+            for (LevelResult result : results) {
+                writer.write(String.format(Locale.ROOT, "%d,%d,%d,%d,%.3f", result._concurrency, result._jobs, result._failures, result._wallMillis, result.getJobsPerMinute()));
+
+                for (LatencySummary summary : new LatencySummary[] { result._submit, result._queueToRunning, result._endToEnd })
+                    writer.write(String.format(Locale.ROOT, ",%d,%d,%d,%d", summary.getP50(), summary.getP90(), summary.getP99(), summary.getMax()));
+
+                writer.write('\n');
+            }
+        }
+    }
+
+
+    // private methods
+
+
+    /**
+     *
+     * @param concurrency
+     * @return
+     * @throws InterruptedException
+     */
+    private LevelResult runLevel(int concurrency) throws InterruptedException
+    {
+        int jobs = concurrency * _rounds;
+        List<Callable<JobSample>> tasks = new ArrayList<Callable<JobSample>>(jobs);
+
+        for (int i = 0 ; i < jobs ; i++)
+            tasks.add(this::runJob);
+
+        long start = System.nanoTime();
+        List<ConcurrentJobRunner.TaskResult<JobSample>> outcomes;
+
+        try (ConcurrentJobRunner runner = new ConcurrentJobRunner(concurrency)) {
+            outcomes = runner.runAll(tasks);
+        }
+
+        long wallMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        List<Long> submit = new ArrayList<Long>();
+        List<Long> queueToRunning = new ArrayList<Long>();
+        List<Long> endToEnd = new ArrayList<Long>();
+        int failures = 0;
+
+        for (ConcurrentJobRunner.TaskResult<JobSample> outcome : outcomes) {
+            JobSample sample = outcome.getValue();
+
+            if (outcome.getError() != null)
+                System.out.println("benchmark job failed: " + outcome.getError());
+
+            if (sample == null || sample._error != null || !EXPECTED_STATUS.equals(sample._status)) {
+                failures += 1;
+
+                continue;
+            }
+
+            submit.add(sample._submitMillis);
+            endToEnd.add(sample._endToEndMillis);
+
+            if (sample._queueToRunningMillis >= 0)
+                queueToRunning.add(sample._queueToRunningMillis);
+        }
+
+        return new LevelResult(concurrency, jobs, failures, wallMillis, LatencySummary.createInstance(submit),
+                               LatencySummary.createInstance(queueToRunning), LatencySummary.createInstance(endToEnd));
+    }
+
+    /**
+     *
+     * @return
+     */
+    private JobSample runJob()
+    {
+        PhaseTimer timer = new PhaseTimer();
+        long start = System.nanoTime();
+        long submitted = start;
+        String status = null;
+        Throwable error = null;
+
+        try {
+            String jobUuid = _driver.submitJob(_job);
+
+            submitted = System.nanoTime();
+
+            if (jobUuid != null)
+                status = _driver.waitForJobStatus(jobUuid, timer);
+        }
+        catch (HttpException | IOException | InterruptedException err) {
+            error = err;
+        }
+
+        long end = System.nanoTime();
+        long queueToRunning = timer._runningNanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(timer._runningNanos - submitted);
+
+        return new JobSample(status, TimeUnit.NANOSECONDS.toMillis(submitted - start), queueToRunning,
+                             TimeUnit.NANOSECONDS.toMillis(end - start), error);
+    }
+}
@@ -0,0 +1,168 @@
+package edu.utexas.tacc.tapis.kubernetes;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+
+/**
+ * Aggregates job timelines by app: for every phase, a latency summary and a histogram of
+ * the time jobs spent in it, so that time lost to scheduling pods, pulling images or
+ * archiving shows up as the phase it belongs to. The report is written as JSON with the
+ * individual timelines included, and as CSV with one row per job and phase.
+ */
+final class TimelineReport
+{
+    // constants
+
+
+    private static final long[] BUCKET_BOUNDS = { 100, 250, 500, 1000, 2500, 5000, 10000, 25000, 60000, 120000, 300000, 600000 };
+
+
+    // constructors
+
+
+    /**
+     *
+     */
+    private TimelineReport()
+    {
+    }
+
+
+    // public methods
+
+
+    /**
+     *
+     * @param timelines
+     * @param basename written to basename.json and basename.csv
+     * @throws IOException
+     */
+    public static void write(Collection<JobTimeline> timelines, String basename) throws IOException
+    {
+        ObjectMapper mapper = JsonFieldExtractor.MAPPER;
+        ObjectNode root = mapper.createObjectNode();
+        ObjectNode apps = root.putObject("apps");
+
+        for (Map.Entry<String, Map<String, List<Long>>> app : groupPhases(timelines).entrySet()) {
+            ObjectNode phases = apps.putObject(app.getKey()).putObject("phases");
+
+            for (Map.Entry<String, List<Long>> phase : app.getValue().entrySet()) {
+                ObjectNode node = phases.putObject(phase.getKey());
+
+                LatencySummary.createInstance(phase.getValue()).writeTo(node.putObject("millis"));
+                writeHistogram(node.putArray("histogram"), phase.getValue());
+            }
+        }
+
+        ArrayNode jobs = root.putArray("jobs");
+
+        for (JobTimeline timeline : timelines)
+            timeline.writeTo(jobs.addObject());
+
+        mapper.writerWithDefaultPrettyPrinter().writeValue(new File(basename + ".json"), root);
+
+        try (FileWriter writer = new FileWriter(basename + ".csv")) {
+            writer.write("job_uuid,app_id,phase,millis,source\n");
+
+            for (JobTimeline timeline : timelines) {
+                String source = timeline.hasHistory() ? "history" : "observed";
+
+                for (Map.Entry<String, Long> phase : timeline.getPhaseMillis().entrySet())
+                    writer.write(timeline.getJobUuid() + "," + timeline.getAppId() + "," + phase.getKey() + "," + phase.getValue() + "," + source + "\n");
+            }
+        }
+    }
+
+    /**
+     * Prints the median and maximum time in each phase for each app.
+     *
+     * @param timelines
+     */
+    public static void printSummary(Collection<JobTimeline> timelines)
+    {
+        for (Map.Entry<String, Map<String, List<Long>>> app : groupPhases(timelines).entrySet()) {
+            StringBuilder line = new StringBuilder();
+
+            line.append("phase times for ");
+            line.append(app.getKey());
+            line.append(" (p50/max ms):");
+
+            for (Map.Entry<String, List<Long>> phase : app.getValue().entrySet()) {
+                LatencySummary summary = LatencySummary.createInstance(phase.getValue());
+
+                line.append(' ');
+                line.append(phase.getKey());
+                line.append(' ');
+                line.append(summary.getP50());
+                line.append('/');
+                line.append(summary.getMax());
+            }
+
+            System.out.println(line);
+        }
+    }
+
+
+    // private methods
+
+
+    /**
+     *
+     * @param timelines
+     * @return phase durations by app and phase, in the order first seen
+     */
+    private static Map<String, Map<String, List<Long>>> groupPhases(Collection<JobTimeline> timelines)
+    {
+        Map<String, Map<String, List<Long>>> apps = new LinkedHashMap<String, Map<String, List<Long>>>();
+
+        for (JobTimeline timeline : timelines) {
+            Map<String, List<Long>> phases = apps.computeIfAbsent(timeline.getAppId(), app -> new LinkedHashMap<String, List<Long>>());
+
+            for (Map.Entry<String, Long> phase : timeline.getPhaseMillis().entrySet())
+                phases.computeIfAbsent(phase.getKey(), name -> new ArrayList<Long>()).add(phase.getValue());
+        }
+
+        return apps;
+    }
+
+    /**
+     *
+     * @param array
+     * @param samples
+     */
+    private static void writeHistogram(ArrayNode array, List<Long> samples)
+    {
+        long[] counts = new long[BUCKET_BOUNDS.length + 1];
+
+        for (long sample : samples) {
+            int bucket = 0;
+
+            while (bucket < BUCKET_BOUNDS.length && sample > BUCKET_BOUNDS[bucket])
+                bucket += 1;
+
+            counts[bucket] += 1;
+        }
+
+        for (int i = 0 ; i < counts.length ; i++) {
+            ObjectNode bucket = array.addObject();
+
+            if (i < BUCKET_BOUNDS.length)
+                bucket.put("leMillis", BUCKET_BOUNDS[i]);
+            else
+                bucket.putNull("leMillis");
+
+            bucket.put("count", counts[i]);
+        }
+    }
+}
@@ -0,0 +1,408 @@
+package edu.utexas.tacc.tapis.kubernetes;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+
+/**
+ * Hands out a Tapis access token, refreshing it before it expires. The token is cached
+ * in memory and, optionally, in a file readable only by the owner so that consecutive
+ * runs can reuse it. Once a token is within the refresh margin of its expiry a refresh
+ * starts in the background and callers keep getting the current token; only when the
+ * token has actually expired do callers wait, and then all of them wait on the same
+ * refresh rather than each requesting a new token. A failed refresh is logged and not
+ * tried again for a backoff that doubles with each failure in a row; callers that need
+ * a new token in the meantime get the failure rather than another request.
+ */
+class TokenProvider implements AutoCloseable
+{
+    // nested classes
+
+
+    /**
+     *
+     */
+    static class Token
+    {
+        private final String _value;
+        private final Instant _expiresAt;
+
+
+        /**
+         *
+         * @param value
+         * @param expiresAt
+         */
+        Token(String value, Instant expiresAt)
+        {
+            _value = value;
+            _expiresAt = expiresAt;
+        }
+
+        /**
+         *
+         * @return
+         */
+        public String getValue()
+        {
+            return _value;
+        }
+
+        /**
+         *
+         * @return
+         */
+        public Instant getExpiresAt()
+        {
+            return _expiresAt;
+        }
+    }
+
+    /**
+     *
+     */
+    @FunctionalInterface
+    interface TokenFetcher
+    {
+        /**
+         *
+         * @return
+         * @throws HttpException
+         * @throws InterruptedException
+         * @throws IOException
+         */
+        Token fetchToken() throws HttpException, IOException, InterruptedException;
+    }
+
+
+    // constants
+
+
+    private static final Duration RETRY_BASE_DELAY = Duration.ofSeconds(1);
+    private static final Duration RETRY_MAX_DELAY = Duration.ofMinutes(1);
+
+
+    // data fields
+
+
+    private final TokenFetcher _fetcher;
+    private final Duration _refreshMargin;
+    private final Path _cacheFile;
+    private final String _cacheKey;
+    private final ExecutorService _executor;
+    private final Object _refreshLock;
+    private volatile Token _token;
+    private volatile Instant _refreshAt;
+    private volatile Throwable _failure;
+    private int _failures;
+    private CompletableFuture<Token> _refresh;
+
+
+    // constructors
+
+
+    /**
+     *
+     * @param fetcher
+     * @param refreshMargin how long before expiry to start refreshing
+     * @param cacheFile file to persist the token in, or null
+     * @param cacheKey identifies the gateway and user the token belongs to, so a cached
+     *                 token is only reused for the same ones
+     */
+    public TokenProvider(TokenFetcher fetcher, Duration refreshMargin, Path cacheFile, String cacheKey)
+    {
+        _fetcher = fetcher;
+        _refreshMargin = refreshMargin;
+        _cacheFile = cacheFile;
+        _cacheKey = cacheKey;
+        _executor = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "token-refresh");
+
+            thread.setDaemon(true);
+
+            return thread;
+        });
+        _refreshLock = new Object();
+
+        setToken(readCache());
+    }
+
+
+    // public methods
+
+
+    /**
+     *
+     * @return
+     * @throws HttpException
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    public String getToken() throws HttpException, IOException, InterruptedException
+    {
+        return TapisClient.await(getTokenAsync());
+    }
+
+    /**
+     * Gets the token without holding the calling thread while an expired one is being
+     * replaced.
+     *
+     * @return
+     */
+    public CompletableFuture<String> getTokenAsync()
+    {
+        Token token = _token;
+        Instant now = Instant.now();
+
+        if (token != null && now.isBefore(token._expiresAt)) {
+            if (now.isAfter(_refreshAt))
+                startRefresh();
+
+            return CompletableFuture.completedFuture(token._value);
+        }
+
+        Throwable failure = _failure;
+
+        if (failure != null && now.isBefore(_refreshAt))
+            return CompletableFuture.failedFuture(failure);
+
+        return startRefresh().thenApply(Token::getValue);
+    }
+
+    /**
+     * Parses the result of an oauth2/tokens request. Tapis reports both expires_at and
+     * expires_in; expires_at is preferred, and a token with neither is treated as valid
+     * for an hour.
+     *
+     * @param accessToken the /result/access_token node of the response
+     * @return
+     */
+    public static Token parseToken(JsonNode accessToken)
+    {
+        String value = accessToken.at("/access_token").asText();
+        String expiresAt = accessToken.at("/expires_at").asText();
+        Instant expiry;
+
+        if (!expiresAt.isEmpty())
+            expiry = Instant.parse(expiresAt);
+        else if (accessToken.has("expires_in"))
+            expiry = Instant.now().plusSeconds(accessToken.at("/expires_in").asLong());
+        else
+            expiry = Instant.now().plus(Duration.ofHours(1));
+
+        return new Token(value, expiry);
+    }
+
+    /**
+     *
+     */
+    @Override
+    public void close()
+    {
+        _executor.shutdownNow();
+    }
+
+
+    // private methods
+
+
+    /**
+     * Installs a token and schedules its refresh at the refresh margin before expiry, or
+     * halfway through its lifetime if that is shorter.
+     *
+     * @param token
+     */
+    private void setToken(Token token)
+    {
+        if (token != null) {
+            Duration lifetime = Duration.between(Instant.now(), token._expiresAt);
+            Duration margin = lifetime.dividedBy(2).compareTo(_refreshMargin) < 0 ? lifetime.dividedBy(2) : _refreshMargin;
+
+            _refreshAt = token._expiresAt.minus(margin);
+        }
+
+        _token = token;
+    }
+
+    /**
+     * Starts a refresh unless one is already running, and returns it.
+     *
+     * @return
+     */
+    private CompletableFuture<Token> startRefresh()
+    {
+        synchronized (_refreshLock) {
+            CompletableFuture<Token> refresh = _refresh;
+
+            if (refresh == null) {
+                CompletableFuture<Token> started = CompletableFuture.supplyAsync(this::refresh, _executor);
+
+                _refresh = started;
+                refresh = started;
+
+                started.whenComplete((token, err) -> {
+                    synchronized (_refreshLock) {
+                        if (_refresh == started)
+                            _refresh = null;
+                    }
+                });
+            }
+
+            return refresh;
+        }
+    }
+
+    /**
+     *
+     * @return
+     */
+    private Token refresh()
+    {
+        Token token;
+
+        try {
+            token = _fetcher.fetchToken();
+        }
+        catch (InterruptedException err) {
+            Thread.currentThread().interrupt();
+
+            throw new CompletionException(err);
+        }
+        catch (HttpException | IOException err) {
+            onRefreshFailure(err);
+
+            throw new CompletionException(err);
+        }
+
+        setToken(token);
+
+        _failures = 0;
+        _failure = null;
+
+        System.out.println("refreshed access token, expires at " + token._expiresAt);
+
+        // the token is good whether or not it can be cached for the next run
+
+        try {
+            writeCache(token);
+        }
+        catch (IOException err) {
+            System.out.println("could not write token cache " + _cacheFile + ": " + err);
+        }
+
+        return token;
+    }
+
+    /**
+     * Puts the next refresh off for a backoff that doubles with each failure in a row.
+     * Only called on the refresh thread.
+     *
+     * @param err
+     */
+    private void onRefreshFailure(Exception err)
+    {
+        _failures += 1;
+
+        Duration delay = RETRY_BASE_DELAY.multipliedBy(1L << Math.min(_failures - 1, 16));
+
+        if (delay.compareTo(RETRY_MAX_DELAY) > 0)
+            delay = RETRY_MAX_DELAY;
+
+        _refreshAt = Instant.now().plus(delay);
+        _failure = err;
+
+        System.out.println("access token refresh failed (" + err + "), " + _failures + " in a row, not trying again for " + delay.toMillis() + " ms");
+    }
+
+    /**
+     *
+     * @return
+     */
+    private Token readCache()
+    {
+        if (_cacheFile == null || !Files.isReadable(_cacheFile))
+            return null;
+
+        try {
+            JsonNode root = JsonFieldExtractor.READER.readTree(Files.readAllBytes(_cacheFile));
+
+            if (!_cacheKey.equals(root.at("/key").asText()))
+                return null;
+
+            Token token = new Token(root.at("/access_token").asText(), Instant.parse(root.at("/expires_at").asText()));
+
+            if (!Instant.now().isBefore(token._expiresAt))
+                return null;
+
+            System.out.println("using cached access token from " + _cacheFile + ", expires at " + token._expiresAt);
+
+            return token;
+        }
+        catch (IOException | RuntimeException err) {
+            System.out.println("ignoring unreadable token cache " + _cacheFile + ": " + err);
+
+            return null;
+        }
+    }
+
+    /**
+     * Writes the token to a temporary file created with owner-only permissions and
+     * moves it over the cache file, so the token is never readable by others.
+     *
+     * @param token
+     * @throws IOException
+     */
+    private void writeCache(Token token) throws IOException
+    {
+        if (_cacheFile == null)
+            return;
+
+        ObjectNode root = JsonFieldExtractor.MAPPER.createObjectNode();
+
+        root.put("key", _cacheKey);
+        root.put("access_token", token._value);
+        root.put("expires_at", token._expiresAt.toString());
+
+        Path directory = _cacheFile.toAbsolutePath().getParent();
+        Path temp;
+
+        Files.createDirectories(directory);
+
+        try {
+            temp = Files.createTempFile(directory, ".token", ".tmp", PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        }
+        catch (UnsupportedOperationException err) {
+            temp = Files.createTempFile(directory, ".token", ".tmp");
+            temp.toFile().setReadable(false, false);
+            temp.toFile().setReadable(true, true);
+        }
+
+        try {
+            Files.write(temp, JsonFieldExtractor.MAPPER.writeValueAsBytes(root));
+
+            try {
+                Files.move(temp, _cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException | FileAlreadyExistsException err) {
+                Files.move(temp, _cacheFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
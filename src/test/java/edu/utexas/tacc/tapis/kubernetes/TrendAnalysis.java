@@ -0,0 +1,206 @@
+package edu.utexas.tacc.tapis.kubernetes;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+
+/**
+ * Mann-Kendall test for a monotonic trend in a series of equally spaced values, with the
+ * Theil-Sen estimate of its slope. Both only compare values pairwise, so a few outlying
+ * windows neither fake a trend nor hide one, and nothing is assumed about how the values
+ * are distributed. The p-value uses the normal approximation with the correction for
+ * ties, which holds from about ten values on.
+ */
+final class TrendAnalysis
+{
+    // data fields
+
+
+    private final int _count;
+    private final double _slope;
+    private final double _z;
+    private final double _pValue;
+    private final double _median;
+
+
+    // constructors
+
+
+    /**
+     *
+     * @param count
+     * @param slope
+     * @param z
+     * @param pValue
+     * @param median
+     */
+    private TrendAnalysis(int count, double slope, double z, double pValue, double median)
+    {
+        _count = count;
+        _slope = slope;
+        _z = z;
+        _pValue = pValue;
+        _median = median;
+    }
+
+
+    // public methods
+
+
+    /**
+     *
+     * @param values in time order; NaN values are left out
+     * @return
+     */
+    public static TrendAnalysis analyze(double[] values)
+    {
+        double[] series = Arrays.stream(values).filter(value -> !Double.isNaN(value)).toArray();
+        int count = series.length;
+
+        if (count < 3)
+            return new TrendAnalysis(count, 0.0, 0.0, 1.0, count > 0 ? median(series.clone()) : 0.0);
+
+        long score = 0;
+        double[] slopes = new double[count * (count - 1) / 2];
+        int pairs = 0;
+
+        for (int i = 0 ; i < count ; i++) {
+            for (int j = i + 1 ; j < count ; j++) {
+                score += Integer.signum(Double.compare(series[j], series[i]));
+                slopes[pairs++] = (series[j] - series[i]) / (j - i);
+            }
+        }
+
+        double variance = count * (count - 1.0) * (2.0 * count + 5.0);
+        double[] sorted = series.clone();
+
+        Arrays.sort(sorted);
+
+        for (int i = 0 ; i < count ; ) {
+            int ties = 1;
+
+            while (i + ties < count && sorted[i + ties] == sorted[i])
+                ties += 1;
+
+            variance -= ties * (ties - 1.0) * (2.0 * ties + 5.0);
+            i += ties;
+        }
+
+        variance /= 18.0;
+
+        double z = 0.0;
+
+        if (variance > 0.0 && score > 0)
+            z = (score - 1) / Math.sqrt(variance);
+        else if (variance > 0.0 && score < 0)
+            z = (score + 1) / Math.sqrt(variance);
+
+        double pValue = 2.0 * (1.0 - normalCdf(Math.abs(z)));
+
+        return new TrendAnalysis(count, median(slopes), z, Math.min(pValue, 1.0), median(sorted));
+    }
+
+    /**
+     *
+     * @return the number of values tested
+     */
+    public int getCount()
+    {
+        return _count;
+    }
+
+    /**
+     *
+     * @return the change per step
+     */
+    public double getSlope()
+    {
+        return _slope;
+    }
+
+    /**
+     *
+     * @return the normal score of the Mann-Kendall statistic, continuity corrected
+     */
+    public double getZ()
+    {
+        return _z;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public double getPValue()
+    {
+        return _pValue;
+    }
+
+    /**
+     *
+     * @return the change over the whole series relative to its median, or 0 if the median
+     *         is 0
+     */
+    public double getRelativeChange()
+    {
+        if (_median == 0.0)
+            return 0.0;
+
+        return _slope * (_count - 1) / Math.abs(_median);
+    }
+
+    /**
+     *
+     * @param alpha significance level
+     * @param minRelativeChange smallest growth over the series that matters
+     * @return true if the series grows significantly and by at least the given share
+     */
+    public boolean isIncreasing(double alpha, double minRelativeChange)
+    {
+        return _z > 0.0 && _pValue < alpha && getRelativeChange() >= minRelativeChange;
+    }
+
+    /**
+     *
+     * @return
+     */
+    @Override
+    public String toString()
+    {
+        return String.format(Locale.ROOT, "n %d, slope %.4g per window, change %+.1f%%, z %.2f, p %.4f", _count, _slope, getRelativeChange() * 100.0, _z, _pValue);
+    }
+
+
+    // private methods
+
+
+    /**
+     *
+     * @param values sorted in place
+     * @return
+     */
+    private static double median(double[] values)
+    {
+        Arrays.sort(values);
+
+        int middle = values.length / 2;
+
+        return values.length % 2 == 1 ? values[middle] : (values[middle - 1] + values[middle]) / 2.0;
+    }
+
+    /**
+     * Standard normal distribution function, from the Abramowitz and Stegun 7.1.26
+     * approximation of erf, accurate to about 1e-7.
+     *
+     * @param x
+     * @return
+     */
+    private static double normalCdf(double x)
+    {
+        double t = 1.0 / (1.0 + 0.3275911 * Math.abs(x) / Math.sqrt(2.0));
+        double poly = t * (0.254829592 + t * (-0.284496736 + t * (1.421413741 + t * (-1.453152027 + t * 1.061405429))));
+        double erf = 1.0 - poly * Math.exp(-x * x / 2.0);
+
+        return x >= 0.0 ? 0.5 * (1.0 + erf) : 0.5 * (1.0 - erf);
+    }
+}
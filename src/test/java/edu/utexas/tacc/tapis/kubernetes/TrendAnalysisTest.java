@@ -0,0 +1,128 @@
+package edu.utexas.tacc.tapis.kubernetes;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+
+/**
+ * Checks the Mann-Kendall and Theil-Sen statistics the soak test judges drift by against
+ * values worked out independently, so that a mistake in them cannot quietly stop drift
+ * from being flagged or have every series flagged. Needs no gateway.
+ */
+@Test(groups={"unit"})
+public class TrendAnalysisTest
+{
+    // constants
+
+
+    private static final double EPSILON = 1e-6;
+
+
+    // public methods
+
+
+    /**
+     * S = 45 and Var(S) = 10 * 9 * 25 / 18 = 125, so with the continuity correction
+     * z = 44 / sqrt(125).
+     */
+    @Test
+    public void increasingSeriesTest()
+    {
+        TrendAnalysis trend = TrendAnalysis.analyze(new double[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10 });
+
+        Assert.assertEquals(trend.getCount(), 10);
+        Assert.assertEquals(trend.getZ(), 44.0 / Math.sqrt(125.0), EPSILON);
+        Assert.assertEquals(trend.getPValue(), 8.303070e-5, EPSILON);
+        Assert.assertEquals(trend.getSlope(), 1.0, EPSILON);
+        Assert.assertEquals(trend.getRelativeChange(), 9.0 / 5.5, EPSILON);
+        Assert.assertTrue(trend.isIncreasing(0.05, 0.1));
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void decreasingSeriesTest()
+    {
+        TrendAnalysis trend = TrendAnalysis.analyze(new double[] { 10, 9, 8, 7, 6, 5, 4, 3, 2, 1 });
+
+        Assert.assertEquals(trend.getZ(), -44.0 / Math.sqrt(125.0), EPSILON);
+        Assert.assertEquals(trend.getPValue(), 8.303070e-5, EPSILON);
+        Assert.assertEquals(trend.getSlope(), -1.0, EPSILON);
+        Assert.assertFalse(trend.isIncreasing(0.05, 0.0));
+    }
+
+    /**
+     * A series that reads the same backwards has S = 0, whatever its ups and downs.
+     */
+    @Test
+    public void flatSeriesTest()
+    {
+        TrendAnalysis trend = TrendAnalysis.analyze(new double[] { 1, 3, 2, 4, 4, 2, 3, 1 });
+
+        Assert.assertEquals(trend.getZ(), 0.0, EPSILON);
+        Assert.assertEquals(trend.getPValue(), 1.0, EPSILON);
+        Assert.assertEquals(trend.getSlope(), 0.0, EPSILON);
+        Assert.assertFalse(trend.isIncreasing(0.05, 0.0));
+    }
+
+    /**
+     * The tie correction takes Var(S) to 0, which must not divide by zero or flag a trend.
+     */
+    @Test
+    public void allTiesSeriesTest()
+    {
+        TrendAnalysis trend = TrendAnalysis.analyze(new double[] { 4, 4, 4, 4, 4, 4 });
+
+        Assert.assertEquals(trend.getZ(), 0.0);
+        Assert.assertEquals(trend.getPValue(), 1.0, EPSILON);
+        Assert.assertEquals(trend.getSlope(), 0.0);
+        Assert.assertEquals(trend.getRelativeChange(), 0.0);
+        Assert.assertFalse(trend.isIncreasing(1.0, 0.0));
+    }
+
+    /**
+     * Worked by hand: 3, 1, 4, 1, 5 has 6 pairs up, 3 down and 1 tied, so S = 3. The two
+     * 1s take Var(S) from 5 * 4 * 15 / 18 to (300 - 2 * 1 * 9) / 18 = 47 / 3, so
+     * z = 2 / sqrt(47 / 3) and p = 0.613354. The ten pairwise slopes sorted are -3, -2,
+     * -2/3, 0, 1/2, 1/2, 1/2, 4/3, 3, 4, with median 1/2.
+     */
+    @Test
+    public void tiedExampleTest()
+    {
+        TrendAnalysis trend = TrendAnalysis.analyze(new double[] { 3, 1, 4, 1, 5 });
+
+        Assert.assertEquals(trend.getZ(), 2.0 / Math.sqrt(47.0 / 3.0), EPSILON);
+        Assert.assertEquals(trend.getPValue(), 0.613354, EPSILON);
+        Assert.assertEquals(trend.getSlope(), 0.5, EPSILON);
+        Assert.assertEquals(trend.getRelativeChange(), 0.5 * 4 / 3.0, EPSILON);
+    }
+
+    /**
+     * A significant rise around a median of 0 has no relative size, so it is not flagged
+     * when a minimum change is asked for.
+     */
+    @Test
+    public void zeroMedianTest()
+    {
+        TrendAnalysis trend = TrendAnalysis.analyze(new double[] { -2, -1, 0, 1, 2 });
+
+        Assert.assertEquals(trend.getPValue(), 0.027486, EPSILON);
+        Assert.assertEquals(trend.getSlope(), 1.0, EPSILON);
+        Assert.assertEquals(trend.getRelativeChange(), 0.0);
+        Assert.assertFalse(trend.isIncreasing(0.05, 0.1));
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void shortSeriesTest()
+    {
+        TrendAnalysis trend = TrendAnalysis.analyze(new double[] { 1, Double.NaN, 2 });
+
+        Assert.assertEquals(trend.getCount(), 2);
+        Assert.assertEquals(trend.getPValue(), 1.0);
+        Assert.assertFalse(trend.isIncreasing(1.0, 0.0));
+    }
+}